@@ -3,8 +3,21 @@ package com.dazo66.data.turbo;
 import com.dazo66.data.turbo.key.predictor.IKeyComparator;
 import com.dazo66.data.turbo.model.DataTurboDetail;
 import com.dazo66.data.turbo.model.DataTurboResult;
+import com.dazo66.data.turbo.util.DataTurboConstants;
+import com.dazo66.data.turbo.util.FrequencyCache;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 
 /**
  * 查询客户端
@@ -13,8 +26,19 @@ import java.util.Objects;
  **/
 public abstract class AbstractDataTurboClient {
 
+    /**
+     * 查询不到时放入结果缓存的对象 用于缓存不存在的key
+     */
+    private static final DataTurboResult NOT_FOUND = new DataTurboResult(null,
+            Collections.emptyMap());
+
     private volatile DataTurboDetail dataTurboDetail;
 
+    /**
+     * 结果缓存 通过 {@link DataTurboConstants#CLIENT_CONFIG_RESULT_CACHE_SIZE} 开启
+     */
+    private volatile FrequencyCache<String, DataTurboResult> resultCache;
+
     public AbstractDataTurboClient(DataTurboDetail dataTurboDetail) {
         this.dataTurboDetail = dataTurboDetail;
     }
@@ -40,6 +64,170 @@ public abstract class AbstractDataTurboClient {
      */
     public abstract boolean searchNameList(String key);
 
+    /**
+     * 整数key的kv查询 默认按十进制字符串查询
+     *
+     * @param key key
+     * @return 查询到的对象 没查询到时返回null
+     * @see com.dazo66.data.turbo.model.KeyEnum#LONG
+     */
+    public DataTurboResult search(long key) {
+        return search(String.valueOf(key));
+    }
+
+    /**
+     * 整数key的名单查询
+     *
+     * @param key key
+     * @return 是否在名单中
+     */
+    public boolean searchNameList(long key) {
+        return searchNameList(String.valueOf(key));
+    }
+
+    /**
+     * 批量kv查询数据
+     * 默认实现是逐个调用 {@link #search(String)} 子类可以重写成共享读取的实现
+     *
+     * @param keys 需要查询的key
+     * @return 查询key - 查询到的对象 没有查询到的key不会出现在结果中
+     */
+    public Map<String, DataTurboResult> searchBatch(Collection<String> keys) {
+        Map<String, DataTurboResult> results = new HashMap<>();
+        for (String key : keys) {
+            DataTurboResult result = search(key);
+            if (result != null) {
+                results.put(key, result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 批量名单查询数据
+     * 默认实现是逐个调用 {@link #searchNameList(String)}
+     *
+     * @param keys 需要查询的key
+     * @return 在名单中的key
+     */
+    public Set<String> searchNameListBatch(Collection<String> keys) {
+        Set<String> results = new HashSet<>();
+        for (String key : keys) {
+            if (searchNameList(key)) {
+                results.add(key);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 异步kv查询 使用公共的ForkJoinPool
+     *
+     * @param key key
+     * @return 查询到的对象 没查询到时结果为null
+     */
+    public CompletableFuture<DataTurboResult> searchAsync(String key) {
+        return searchAsync(key, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 异步kv查询
+     * 默认实现是在executor中调用 {@link #search(String)} 子类可以重写成非阻塞的实现
+     *
+     * @param key      key
+     * @param executor 执行查询和回调的线程池
+     * @return 查询到的对象 没查询到时结果为null
+     */
+    public CompletableFuture<DataTurboResult> searchAsync(String key, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> search(key), executor);
+    }
+
+    /**
+     * 异步批量kv查询 使用公共的ForkJoinPool
+     *
+     * @param keys 需要查询的key
+     * @return 查询key - 查询到的对象
+     */
+    public CompletableFuture<Map<String, DataTurboResult>> searchBatchAsync(Collection<String> keys) {
+        return searchBatchAsync(keys, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 异步批量kv查询
+     * 默认实现是在executor中调用 {@link #searchBatch(Collection)}
+     *
+     * @param keys     需要查询的key
+     * @param executor 执行查询和回调的线程池
+     * @return 查询key - 查询到的对象
+     */
+    public CompletableFuture<Map<String, DataTurboResult>> searchBatchAsync(Collection<String> keys,
+                                                                           Executor executor) {
+        return CompletableFuture.supplyAsync(() -> searchBatch(keys), executor);
+    }
+
+    /**
+     * 通过结果缓存查询 缓存中没有时调用loader查询并尝试放入缓存
+     * 查询不到的结果也会被缓存 没有开启缓存时直接调用loader
+     * 缓存的结果会被多个调用方共享 不能修改返回对象中的数据
+     *
+     * @param key    key
+     * @param loader 真正的查询方法
+     * @return 查询到的对象
+     */
+    protected DataTurboResult searchWithCache(String key, Function<String, DataTurboResult> loader) {
+        FrequencyCache<String, DataTurboResult> cache = resultCache;
+        if (cache == null || key == null) {
+            return loader.apply(key);
+        }
+        DataTurboResult result = cache.get(key);
+        if (result == null) {
+            result = loader.apply(key);
+            cache.put(key, result == null ? NOT_FOUND : result);
+            return result;
+        }
+        return result == NOT_FOUND ? null : result;
+    }
+
+    /**
+     * {@link #searchWithCache(String, Function)} 的异步版本
+     *
+     * @param key    key
+     * @param loader 真正的异步查询方法
+     * @return 查询到的对象
+     */
+    protected CompletableFuture<DataTurboResult> searchWithCacheAsync(String key,
+                                                                      Function<String,
+                                                                              CompletableFuture<DataTurboResult>> loader) {
+        FrequencyCache<String, DataTurboResult> cache = resultCache;
+        if (cache == null || key == null) {
+            return loader.apply(key);
+        }
+        DataTurboResult result = cache.get(key);
+        if (result != null) {
+            return CompletableFuture.completedFuture(result == NOT_FOUND ? null : result);
+        }
+        return loader.apply(key).thenApply(r -> {
+            cache.put(key, r == null ? NOT_FOUND : r);
+            return r;
+        });
+    }
+
+    /**
+     * 根据当前的detail重新创建结果缓存 数据发生变化时需要调用
+     */
+    protected void resetResultCache() {
+        int size = Integer.parseInt(dataTurboDetail.getProp(
+                DataTurboConstants.CLIENT_CONFIG_RESULT_CACHE_SIZE, "0"));
+        resultCache = size > 0 ? new FrequencyCache<>(size) : null;
+    }
+
+    /**
+     * @return 结果缓存 没有开启时返回null
+     */
+    public FrequencyCache<String, DataTurboResult> getResultCache() {
+        return resultCache;
+    }
+
     /**
      * 根据现有的detail加载数据
      *
@@ -49,17 +237,41 @@ public abstract class AbstractDataTurboClient {
 
     /**
      * 通过一个新的detail对象进行重新加载
+     * 加载失败时恢复成原来的detail
      *
      * @param dataTurboDetail 新的detail对象
      * @throws Exception 如果在重新加载中出现异常会通过这个抛出
      */
     public void reload(DataTurboDetail dataTurboDetail) throws Exception {
         synchronized (this) {
+            DataTurboDetail old = this.dataTurboDetail;
             this.dataTurboDetail = dataTurboDetail;
-            load();
+            try {
+                load();
+            } catch (Exception e) {
+                this.dataTurboDetail = old;
+                throw e;
+            }
         }
     }
 
+    /**
+     * 在executor中重新加载 加载完成之前查询不受影响
+     *
+     * @param dataTurboDetail 新的detail对象
+     * @param executor        执行加载的线程池
+     * @return 加载完成时结束 加载失败时异常结束
+     */
+    public CompletableFuture<Void> reloadAsync(DataTurboDetail dataTurboDetail, Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                reload(dataTurboDetail);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
     /**
      * 关闭这个客户端 释放所有的内存和文件句柄
      *
@@ -14,6 +14,11 @@ import java.io.File;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Predicate;
@@ -52,6 +57,31 @@ public class BloomDataTurboClient extends AbstractDataTurboClient {
         }
     }
 
+    @Override
+    public Map<String, DataTurboResult> searchBatch(Collection<String> keys) {
+        Map<String, DataTurboResult> results = new HashMap<>();
+        for (String key : searchNameListBatch(keys)) {
+            results.put(key, new DataTurboResult(key, null));
+        }
+        return results;
+    }
+
+    @Override
+    public Set<String> searchNameListBatch(Collection<String> keys) {
+        Predicate<CharSequence> predicate = bloomFilter.get();
+        if (predicate == null) {
+            throw new RuntimeException("bloom data did not init!");
+        }
+        // 整批使用同一个过滤器 避免批量过程中被重新加载
+        Set<String> results = new HashSet<>();
+        for (String key : keys) {
+            if (predicate.test(key)) {
+                results.add(key);
+            }
+        }
+        return results;
+    }
+
     @Override
     public void load() throws Exception {
         lock.lock();
@@ -67,7 +97,8 @@ public class BloomDataTurboClient extends AbstractDataTurboClient {
                     loadEnum = LoadEnum.DISK;
                 }
             }
-            if (loadEnum == LoadEnum.DISK) {
+            // 布隆过滤器的磁盘模式本身就是按位随机读 映射模式直接复用
+            if (loadEnum == LoadEnum.DISK || loadEnum == LoadEnum.MMAP) {
                 bloomFilter =
                         DiskBloomFilter.readFrom(new File(getDataTurboDetail().getDataFile()),
                                 Funnels.stringFunnel(StandardCharsets.UTF_8));
@@ -15,6 +15,8 @@ public class DataTurboClientFactory extends AbstractFactory<String, DataTurboDet
     static {
         INSTANCE.register(DataFileEnum.BLOOM.getId(), BloomDataTurboClient::new);
         INSTANCE.register(DataFileEnum.NORMAL.getId(), NormalDataTurboClient::new);
+        INSTANCE.register(DataFileEnum.SHARDED.getId(), ShardedDataTurboClient::new);
+        INSTANCE.register(DataFileEnum.HASH.getId(), HashDataTurboClient::new);
     }
 
     public static DataTurboClientFactory getInstance() {
@@ -0,0 +1,271 @@
+package com.dazo66.data.turbo;
+
+import com.dazo66.data.turbo.key.predictor.IKeyComparator;
+import com.dazo66.data.turbo.model.DataFileEnum;
+import com.dazo66.data.turbo.model.DataTurboDetail;
+import com.dazo66.data.turbo.model.DataTurboResult;
+import com.dazo66.data.turbo.model.DataTurboResultHolder;
+import com.dazo66.data.turbo.model.HashFileHeader;
+import com.dazo66.data.turbo.model.KeyEnum;
+import com.dazo66.data.turbo.util.BBHash;
+import com.dazo66.data.turbo.util.BlockCache;
+import com.dazo66.data.turbo.util.ByteHolder;
+import com.dazo66.data.turbo.util.DataTurboConstants;
+import com.dazo66.data.turbo.util.FileChannelPool;
+import com.dazo66.data.turbo.util.IOUtils;
+import com.dazo66.data.turbo.util.Ints;
+import com.dazo66.data.turbo.util.Longs;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * 最小完美hash数据的查询客户端
+ * 最小完美hash和指纹常驻堆内存 记录偏移量和信息数据块按加载模式读取
+ * 不存在的key大多数在指纹比较时就返回了 不需要读取文件
+ * 存在的key在磁盘模式下需要读取一次偏移量和一次记录
+ * 没有顺序 不支持扫描和前缀查询
+ *
+ * @author dazo66
+ * @see DataFileEnum#HASH
+ **/
+public class HashDataTurboClient extends AbstractDataTurboClient {
+
+    private static final byte SPLIT_CHAR2_BYTE =
+            (byte) DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2.charAt(0);
+    /**
+     * 读取记录时每一步读取的字节数 只有数据块的默认实现会用到
+     */
+    private static final int STEP_READ_COUNT = 512;
+
+    private final ThreadLocal<DataTurboResultHolder> holderThreadLocal =
+            ThreadLocal.withInitial(DataTurboResultHolder::new);
+    private final Function<String, DataTurboResult> fileSearcher = this::searchFromFile;
+    /**
+     * 当前加载的数据 和 {@link NormalDataTurboClient} 一样整体替换并通过引用计数释放
+     */
+    private final AtomicReference<Table> table = new AtomicReference<>();
+
+    public HashDataTurboClient(DataTurboDetail dataTurboDetail) {
+        super(dataTurboDetail);
+    }
+
+    @Override
+    public DataTurboResult search(String key) {
+        if (table.get() == null) {
+            throw new RuntimeException("client are not load");
+        }
+        return searchWithCache(key, fileSearcher);
+    }
+
+    private DataTurboResult searchFromFile(String key) {
+        DataTurboResultHolder holder = holderThreadLocal.get();
+        return search(key, holder) ? holder.toResult() : null;
+    }
+
+    /**
+     * 查询到可以复用的holder中 不经过结果缓存
+     *
+     * @param key    目标key
+     * @param holder 结果 每次查询都会覆盖
+     * @return 是否查到了记录
+     */
+    public boolean search(String key, DataTurboResultHolder holder) {
+        Table t = acquire();
+        try {
+            return t.search(key, holder);
+        } finally {
+            t.release();
+        }
+    }
+
+    @Override
+    public boolean searchNameList(String key) {
+        return search(key) != null;
+    }
+
+    @Override
+    public void load() throws Exception {
+        Table old = table.getAndSet(new Table(getDataTurboDetail()));
+        resetResultCache();
+        if (old != null) {
+            old.release();
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        Table old = table.getAndSet(null);
+        if (old != null) {
+            old.release();
+        }
+    }
+
+    /**
+     * 没有顺序 不需要比较器
+     *
+     * @return null
+     */
+    @Override
+    public IKeyComparator getComparator() {
+        return null;
+    }
+
+    /**
+     * @return 记录数 没有加载时返回0
+     */
+    public long getCount() {
+        Table t = table.get();
+        return t == null ? 0 : t.count;
+    }
+
+    private Table acquire() {
+        while (true) {
+            Table t = table.get();
+            if (t == null) {
+                throw new RuntimeException("client are not load");
+            }
+            if (t.retain()) {
+                return t;
+            }
+        }
+    }
+
+    /**
+     * 一次加载的数据 客户端自己持有一个引用 每次查询持有一个引用
+     */
+    private static final class Table {
+
+        private final long count;
+        private final long seed;
+        private final KeyEnum keyEnum;
+        private final String[] fields;
+        private final BBHash mphf;
+        private final int fingerprintBytes;
+        private final byte[] fingerprints;
+        private final ByteHolder offsetHolder;
+        private final ByteHolder valuesHolder;
+        private final FileChannelPool fileChannelPool;
+        private final ThreadLocal<byte[]> offsetBuffer = ThreadLocal.withInitial(() -> new byte[16]);
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Table(DataTurboDetail dataTurboDetail) throws Exception {
+            keyEnum = dataTurboDetail.getKeyEnum() == null ? KeyEnum.STRING : dataTurboDetail.getKeyEnum();
+            HashFileHeader header;
+            try (BufferedInputStream in =
+                         new BufferedInputStream(new FileInputStream(dataTurboDetail.getDataFile()))) {
+                header = HashFileHeader.readFrom(in);
+                count = header.getCount();
+                seed = header.getSeed();
+                fingerprintBytes = header.getFingerprintBytes();
+                fields = new String(IOUtils.read(in, header.getFieldBlockLength()),
+                        StandardCharsets.UTF_8).split(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_1);
+                mphf = BBHash.readFrom(IOUtils.read(in, Ints.checkedCast(header.getMphfBlockLength())));
+                fingerprints = IOUtils.read(in, Ints.checkedCast(header.getFingerprintBlockLength()));
+            }
+            fileChannelPool = new FileChannelPool(new File(dataTurboDetail.getDataFile()));
+            try {
+                BlockCache blockCache = Boolean.parseBoolean(dataTurboDetail.getProp(
+                        DataTurboConstants.CLIENT_CONFIG_BLOCK_CACHE_ENABLE, "false")) ?
+                        BlockCache.getDefault() : null;
+                offsetHolder = new ByteHolder(dataTurboDetail.getLoadEnum(), fileChannelPool,
+                        header.getOffsetBlockOffset(), header.getOffsetBlockLength(), STEP_READ_COUNT)
+                        .setBlockCache(blockCache);
+                valuesHolder = new ByteHolder(dataTurboDetail.getLoadEnum(), fileChannelPool,
+                        header.getValueBlockOffset(), header.getValueBlockLength(), STEP_READ_COUNT)
+                        .setBlockCache(blockCache);
+            } catch (Exception e) {
+                fileChannelPool.shutDown();
+                throw e;
+            }
+        }
+
+        private boolean search(String key, DataTurboResultHolder holder) {
+            holder.clear();
+            if (key == null) {
+                return false;
+            }
+            if (keyEnum.isNumber()) {
+                // 和打包时一样统一成十进制文本
+                try {
+                    key = keyEnum.toKey(keyEnum.toStoreKey(key));
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            long hash = BBHash.hash(keyBytes, 0, keyBytes.length, seed);
+            long slot = mphf.lookup(hash);
+            if (slot < 0 || slot >= count || !matchFingerprint(slot, hash)) {
+                return false;
+            }
+            try {
+                byte[] offsets = offsetBuffer.get();
+                offsetHolder.read(slot * 8, offsets, 0, 16);
+                long start = Longs.fromByteArray(offsets);
+                int length = Ints.checkedCast(Longs.fromBytes(offsets[8], offsets[9], offsets[10],
+                        offsets[11], offsets[12], offsets[13], offsets[14], offsets[15]) - start);
+                if (length <= keyBytes.length) {
+                    return false;
+                }
+                byte[] buffer = holder.getBuffer(length);
+                valuesHolder.read(start, buffer, 0, length);
+                if (buffer[keyBytes.length] != SPLIT_CHAR2_BYTE) {
+                    return false;
+                }
+                for (int i = 0; i < keyBytes.length; i++) {
+                    if (buffer[i] != keyBytes[i]) {
+                        return false;
+                    }
+                }
+                holder.set(KeyEnum.STRING, fields, keyBytes.length, length);
+                return true;
+            } catch (IOException e) {
+                throw new RuntimeException("[data-turbo] search with exception: ", e);
+            } finally {
+                offsetHolder.clean();
+                valuesHolder.clean();
+            }
+        }
+
+        private boolean matchFingerprint(long slot, long hash) {
+            long fingerprint = BBHash.mix(~hash);
+            int start = (int) slot * fingerprintBytes;
+            for (int i = 0; i < fingerprintBytes; i++) {
+                if (fingerprints[start + i] != (byte) (fingerprint >>> (i * 8))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean retain() {
+            int n;
+            do {
+                n = references.get();
+                if (n <= 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(n, n + 1));
+            return true;
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                offsetHolder.close();
+                valuesHolder.close();
+                try {
+                    fileChannelPool.shutDown();
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -1,27 +1,66 @@
 package com.dazo66.data.turbo;
 
+import com.dazo66.data.turbo.compress.CompressBlockIndex;
+import com.dazo66.data.turbo.compress.CompressedByteHolder;
+import com.dazo66.data.turbo.key.predictor.ByteKeyComparator;
 import com.dazo66.data.turbo.key.predictor.IKeyComparator;
 import com.dazo66.data.turbo.key.predictor.StringKeyComparator;
 import com.dazo66.data.turbo.model.DataTurboDetail;
 import com.dazo66.data.turbo.model.DataTurboResult;
+import com.dazo66.data.turbo.model.DataTurboResultHolder;
+import com.dazo66.data.turbo.model.KeyEnum;
+import com.dazo66.data.turbo.model.LoadEnum;
+import com.dazo66.data.turbo.model.NormalBlockEnum;
+import com.dazo66.data.turbo.model.NormalFileHeader;
+import com.dazo66.data.turbo.model.NormalReference;
+import com.dazo66.data.turbo.util.BlockCache;
 import com.dazo66.data.turbo.util.ByteHolder;
 import com.dazo66.data.turbo.util.ByteUtils;
 import com.dazo66.data.turbo.util.DataTurboConstants;
 import com.dazo66.data.turbo.util.FileChannelPool;
+import com.dazo66.data.turbo.util.Funnels;
+import com.dazo66.data.turbo.util.HeapBloomFilter;
 import com.dazo66.data.turbo.util.IOUtils;
 import com.dazo66.data.turbo.util.Ints;
 import com.dazo66.data.turbo.util.Longs;
 import com.dazo66.data.turbo.util.Pair;
+import com.dazo66.data.turbo.util.RadixSpline;
+import com.dazo66.data.turbo.util.SparseIndex;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * kv查询客户端
@@ -39,53 +78,52 @@ public class NormalDataTurboClient extends AbstractDataTurboClient {
             DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2.getBytes(StandardCharsets.UTF_8);
     private final static int splitChar2Len = splitChar2Byte.length;
     /**
-     * 索引map
+     * 没有开启块缓存时 每个压缩文件私有的解压缓存能放下的块数
      */
-    private final TreeMap<String, Long> indexMap = new TreeMap<>();
+    private final static int DEFAULT_DECOMPRESS_CACHE_BLOCKS = 16;
     /**
-     * 每一步读取的字节数
-     */
-    private final int preStepReadCount = 512;
-    /**
-     * 默认的比较器
+     * 学习型索引的预测不可信 需要使用稀疏索引查找
      */
-    private final StringKeyComparator stringKeyComparator = new StringKeyComparator();
+    private final static long SPLINE_MISS = -2;
+    private final static byte SPLIT_CHAR4_BYTE =
+            (byte) DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_4.charAt(0);
     /**
-     * 构建时间
+     * 每一步读取的字节数
      */
-    private Long buildTime;
+    private final int preStepReadCount = 512;
     /**
-     * 数据总数
+     * 顺序读取时每次读取的字节数
      */
-    private Long count;
+    private final int sequentialReadCount = 64 * 1024;
     /**
-     * values字节holder
+     * 每个线程复用的查询缓冲区
      */
-    private ByteHolder valuesHolder;
+    private final ThreadLocal<Scratch> scratchThreadLocal = ThreadLocal.withInitial(Scratch::new);
     /**
-     * 字段名称
+     * 查询文件的方法 提前创建好 避免每次查询都创建一个lambda
      */
-    private String[] fields;
+    private final Function<String, DataTurboResult> fileSearcher = this::searchFromFile;
     /**
-     * 引用数据块字节holder
+     * v4之前版本默认的比较器
      */
-    private ByteHolder referenceHolder;
+    private final StringKeyComparator stringKeyComparator = new StringKeyComparator();
     /**
-     * fileChannel 池
+     * v4版本默认的比较器
      */
-    private FileChannelPool fileChannelPool;
+    private final ByteKeyComparator byteKeyComparator = new ByteKeyComparator();
     /**
-     * 索引数据块长度
+     * 子类是否重写了 {@link #getComparator()}
      */
-    private long indexBlockLength;
+    private final boolean comparatorOverridden = isComparatorOverridden(getClass());
     /**
-     * values数据块长度
+     * 正在加载的数据文件版本 加载时调用子类重写的 {@link #getComparator()} 期间有值
      */
-    private long valueBlockLength;
+    private final ThreadLocal<Integer> loadingVersion = new ThreadLocal<>();
     /**
-     * 引用数据块长度
+     * 当前加载的数据 每次加载都会创建一个新的对象整体替换
+     * 查询时先持有当前的数据 查询结束之后释放 旧数据在没有查询持有之后关闭
      */
-    private long referenceBlockLength;
+    private final AtomicReference<Generation> generation = new AtomicReference<>();
 
     public NormalDataTurboClient(DataTurboDetail dataTurboDetail) {
         super(dataTurboDetail);
@@ -93,24 +131,133 @@ public class NormalDataTurboClient extends AbstractDataTurboClient {
 
     @Override
     public DataTurboResult search(String key) {
-        if (buildTime == null) {
+        if (generation.get() == null) {
             throw new RuntimeException("client are not load");
         }
+        return searchWithCache(key, fileSearcher);
+    }
+
+    /**
+     * 整数类型的key直接按数值查询 没有开启结果缓存时不会创建key的字符串
+     * 字符串类型的key按十进制字符串查询
+     *
+     * @param key key
+     * @return 查询到的对象
+     * @see KeyEnum#LONG
+     */
+    @Override
+    public DataTurboResult search(long key) {
+        Generation g = acquire();
         try {
-            Map.Entry<String, Long> leftEntry = indexMap.floorEntry(key);
-            Map.Entry<String, Long> rightEntry = indexMap.ceilingEntry(key);
-            if (leftEntry == null || rightEntry == null) {
-                return null;
+            if (!g.keyEnum.isNumber() || getResultCache() != null) {
+                return search(String.valueOf(key));
             }
-            return binarySearch(leftEntry, rightEntry, key);
-        } catch (Exception e) {
-            throw new RuntimeException("[data-turbo] search with exception: ", e);
+            return g.searchFromFile(key);
         } finally {
-            referenceHolder.clean();
-            valuesHolder.clean();
+            g.release();
         }
     }
 
+    /**
+     * 按整数key查询到可以复用的holder中 不经过结果缓存
+     *
+     * @param key    目标key
+     * @param holder 结果 每次查询都会覆盖
+     * @return 是否查到了记录
+     * @see #search(String, DataTurboResultHolder)
+     */
+    public boolean search(long key, DataTurboResultHolder holder) {
+        Generation g = acquire();
+        try {
+            if (!g.keyEnum.isNumber()) {
+                return g.search(String.valueOf(key), holder);
+            }
+            return g.search(key, holder);
+        } finally {
+            g.release();
+        }
+    }
+
+    /**
+     * 查询到可以复用的holder中 不经过结果缓存
+     * v2及以上版本的文件使用线程复用的缓冲区定位记录 内存模式和映射模式下整个查询过程不会分配新的对象
+     * 磁盘模式下每次读取文件还是会有少量的分配 v1版本会先查询出结果再复制到holder中
+     *
+     * @param key    目标key
+     * @param holder 结果 每次查询都会覆盖
+     * @return 是否查到了记录
+     */
+    public boolean search(String key, DataTurboResultHolder holder) {
+        Generation g = acquire();
+        try {
+            return g.search(key, holder);
+        } finally {
+            g.release();
+        }
+    }
+
+    private DataTurboResult searchFromFile(String key) {
+        Generation g = acquire();
+        try {
+            return g.searchFromFile(key);
+        } finally {
+            g.release();
+        }
+    }
+
+    /**
+     * 异步查询
+     * 磁盘模式v2及以上版本使用 {@link AsynchronousFileChannel} 进行非阻塞的二分查找
+     * 每次读取完成之后在executor中继续 不会阻塞调用线程 引用数据块中的字段值也是异步读取的
+     * 其他模式的数据已经在内存中 直接在executor中查询
+     * 查询过程中一直持有发起查询时的数据 中途重新加载不会影响这次查询
+     *
+     * @param key      key
+     * @param executor 执行回调的线程池
+     * @return 查询到的对象
+     */
+    @Override
+    public CompletableFuture<DataTurboResult> searchAsync(String key, Executor executor) {
+        Generation g = acquire();
+        if (g.asyncReader == null) {
+            g.release();
+            return super.searchAsync(key, executor);
+        }
+        CompletableFuture<DataTurboResult> future;
+        try {
+            future = searchWithCacheAsync(key, k -> g.searchFromFileAsync(g.asyncReader, k,
+                    executor));
+        } catch (RuntimeException e) {
+            g.release();
+            throw e;
+        }
+        return future.whenComplete((result, e) -> g.release());
+    }
+
+    @Override
+    public CompletableFuture<Map<String, DataTurboResult>> searchBatchAsync(Collection<String> keys,
+                                                                           Executor executor) {
+        Generation g = generation.get();
+        if (g == null || g.asyncReader == null) {
+            return super.searchBatchAsync(keys, executor);
+        }
+        Map<String, CompletableFuture<DataTurboResult>> futures = new HashMap<>(keys.size());
+        for (String key : keys) {
+            futures.computeIfAbsent(key, k -> searchAsync(k, executor));
+        }
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0]))
+                .thenApply(v -> {
+                    Map<String, DataTurboResult> results = new HashMap<>(futures.size());
+                    futures.forEach((key, future) -> {
+                        DataTurboResult result = future.join();
+                        if (result != null) {
+                            results.put(key, result);
+                        }
+                    });
+                    return results;
+                });
+    }
+
     /**
      * 名单查询 就是复用了kv查询
      *
@@ -122,240 +269,1924 @@ public class NormalDataTurboClient extends AbstractDataTurboClient {
         return search(key) != null;
     }
 
+    @Override
+    public boolean searchNameList(long key) {
+        return search(key) != null;
+    }
+
+    /**
+     * 批量查询
+     * 先把key排好序 落在同一个索引区间的key一起处理
+     * 区间内key比较密集时顺序扫描整个区间 否则逐个二分并共享已经读取过的key
+     *
+     * @param keys 需要查询的key
+     * @return 查询key - 查询到的对象
+     */
+    @Override
+    public Map<String, DataTurboResult> searchBatch(Collection<String> keys) {
+        Generation g = acquire();
+        try {
+            return g.searchBatch(keys);
+        } finally {
+            g.release();
+        }
+    }
+
+    @Override
+    public Set<String> searchNameListBatch(Collection<String> keys) {
+        return new HashSet<>(searchBatch(keys).keySet());
+    }
+
+    /**
+     * 范围扫描 按key的顺序返回 [fromKey, toKey) 之间的所有记录
+     * 先通过索引定位到起点 之后顺序读取
+     * 返回的迭代器不是线程安全的 迭代器会一直持有创建时的数据 重新加载不会影响正在进行的扫描
+     * 读完之后自动释放 没有读完就丢弃时需要调用 {@link ScanIterator#close()} 否则旧数据不会被关闭
+     *
+     * @param fromKey 开始的key 包含 为null时从第一条记录开始
+     * @param toKey   结束的key 不包含 为null时一直读到最后一条记录
+     * @return 记录迭代器
+     */
+    public ScanIterator scan(String fromKey, String toKey) {
+        Generation g = acquire();
+        IKeyComparator comparator = g.comparator;
+        String from;
+        String to;
+        try {
+            from = g.keyEnum.toStoreKey(fromKey);
+            to = g.keyEnum.toStoreKey(toKey);
+        } catch (RuntimeException e) {
+            g.release();
+            throw e;
+        }
+        return newScanIterator(g, from, key -> to == null || comparator.compare(key, to) < 0);
+    }
+
+    /**
+     * 前缀扫描 按key的顺序返回所有以prefix开头的记录
+     * 整数类型的key不是按十进制文本排序的 不支持前缀扫描
+     *
+     * @param prefix 前缀
+     * @return 记录迭代器
+     * @see #scan(String, String)
+     */
+    public ScanIterator prefixScan(String prefix) {
+        Generation g = acquire();
+        if (g.keyEnum.isNumber()) {
+            g.release();
+            throw new UnsupportedOperationException("prefix scan is not supported by number key");
+        }
+        return newScanIterator(g, prefix, key -> key.startsWith(prefix));
+    }
+
+    private ScanIterator newScanIterator(Generation g, String fromKey, Predicate<String> condition) {
+        try {
+            return new ScanIterator(g, g.seek(fromKey), fromKey, condition);
+        } catch (RuntimeException e) {
+            g.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 以流的形式进行范围扫描
+     *
+     * @param fromKey 开始的key 包含 为null时从第一条记录开始
+     * @param toKey   结束的key 不包含 为null时一直读到最后一条记录
+     * @return 记录流
+     * @see #scan(String, String)
+     */
+    public Stream<DataTurboResult> scanStream(String fromKey, String toKey) {
+        ScanIterator iterator = scan(fromKey, toKey);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE), false)
+                .onClose(iterator::close);
+    }
+
     /**
-     * 从构造函数传入的detail文件进行加载
+     * 以流的形式进行前缀扫描
+     *
+     * @param prefix 前缀
+     * @return 记录流
+     * @see #prefixScan(String)
+     */
+    public Stream<DataTurboResult> prefixScanStream(String prefix) {
+        ScanIterator iterator = prefixScan(prefix);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE), false)
+                .onClose(iterator::close);
+    }
+
+    /**
+     * 从detail文件进行加载
+     * 先在当前线程完整地加载一份新的数据 开启了预热时先预热 之后一次性替换掉旧的数据
+     * 加载过程中查询依然使用旧的数据 正在进行的查询会在旧数据上完成 旧数据在没有查询持有之后关闭
+     * 加载失败时旧的数据不受影响
      *
      * @throws Exception 加载时的错误抛出
      */
     @Override
     public void load() throws Exception {
-        DataTurboDetail dataTurboDetail = getDataTurboDetail();
-        BufferedInputStream in =
-                new BufferedInputStream(new FileInputStream(dataTurboDetail.getDataFile()));
-        buildTime = IOUtils.readLong(in);
-        count = IOUtils.readLong(in);
-        indexBlockLength = IOUtils.readLong(in);
-        valueBlockLength = IOUtils.readLong(in);
-        referenceBlockLength = IOUtils.readLong(in);
-        int fieldBlockLength = IOUtils.readInt(in);
-        fields =
-                new String(IOUtils.read(in, fieldBlockLength)).split(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_1);
-        byte[] read = IOUtils.read(in, Ints.checkedCast(indexBlockLength));
-        loadIndex(read);
-        fileChannelPool = new FileChannelPool(new File(dataTurboDetail.getDataFile()));
-        valuesHolder = new ByteHolder(getDataTurboDetail().getLoadEnum(), fileChannelPool,
-                40 + 4 + fieldBlockLength + indexBlockLength, valueBlockLength, preStepReadCount);
-        referenceHolder = new ByteHolder(getDataTurboDetail().getLoadEnum(), fileChannelPool,
-                40 + 4 + fieldBlockLength + indexBlockLength + valueBlockLength,
-                referenceBlockLength, preStepReadCount);
-        in.close();
-    }
-
-    /**
-     * 关闭整个客户端
+        Generation g = new Generation(getDataTurboDetail());
+        try {
+            if (Boolean.parseBoolean(getDataTurboDetail().getProp(
+                    DataTurboConstants.CLIENT_CONFIG_WARM_ENABLE, "false"))) {
+                g.warm();
+            }
+        } catch (RuntimeException e) {
+            g.release();
+            throw e;
+        }
+        Generation old = generation.getAndSet(g);
+        resetResultCache();
+        if (old != null) {
+            old.release();
+        }
+    }
+
+    /**
+     * 关闭整个客户端 正在进行的查询完成之后才会真正释放
      *
      * @throws Exception 可能会出现异常
      */
     @Override
     public void close() throws Exception {
-        fileChannelPool.shutDown();
+        Generation old = generation.getAndSet(null);
+        if (old != null) {
+            old.release();
+        }
+    }
+
+    /**
+     * 持有当前的数据 使用完之后需要调用 {@link Generation#release()}
+     * 持有的时候正好被替换掉时重新获取
+     */
+    private Generation acquire() {
+        while (true) {
+            Generation g = generation.get();
+            if (g == null) {
+                throw new RuntimeException("client are not load");
+            }
+            if (g.retain()) {
+                return g;
+            }
+        }
+    }
+
+    /**
+     * 获得数据文件的版本
+     *
+     * @return 版本号
+     * @see NormalFileHeader
+     */
+    public int getVersion() {
+        Generation g = generation.get();
+        return g == null ? 0 : g.version;
+    }
+
+    /**
+     * @return 是否在使用学习型索引
+     * @see NormalBlockEnum#SPLINE
+     */
+    public boolean isSplineEnabled() {
+        Generation g = generation.get();
+        return g != null && g.spline != null;
     }
 
     /**
-     * 获得key比较器
+     * 获得key比较器 必须和打包时使用的比较器一致
+     * 默认v4版本按字节序 之前的版本按String排序
+     * 子类重写这个方法时 每次加载都会调用一次 查询使用返回的比较器 返回null时使用默认的比较器
      *
      * @return key
      */
     @Override
     public IKeyComparator getComparator() {
-        return stringKeyComparator;
+        Integer version = loadingVersion.get();
+        if (version != null) {
+            // 加载时子类调用了这个方法 返回正在加载的版本的默认比较器
+            return getComparator(version);
+        }
+        Generation g = generation.get();
+        return g == null ? getComparator(NormalFileHeader.CURRENT_VERSION) : g.comparator;
+    }
+
+    /**
+     * 获得某个版本的数据文件使用的key比较器 每次加载时调用一次
+     * 需要自定义比较器时重写这个方法或者 {@link #getComparator()}
+     * 只有内置的比较器会使用布隆过滤器 自定义比较器的字节比较没有重写时会先解码再比较
+     *
+     * @param version 数据文件版本
+     * @return key比较器
+     */
+    protected IKeyComparator getComparator(int version) {
+        return version >= NormalFileHeader.VERSION_4 ? byteKeyComparator : stringKeyComparator;
+    }
+
+    /**
+     * 加载时使用的比较器 子类重写了 {@link #getComparator()} 时以它为准
+     */
+    private IKeyComparator resolveComparator(int version) {
+        if (!comparatorOverridden) {
+            return getComparator(version);
+        }
+        loadingVersion.set(version);
+        try {
+            IKeyComparator comparator = getComparator();
+            return comparator != null ? comparator : getComparator(version);
+        } finally {
+            loadingVersion.remove();
+        }
     }
 
-    protected DataTurboResult binarySearch(Map.Entry<String, Long> left,
-                                           Map.Entry<String, Long> right, String targetKey) throws IOException {
-        if (getComparator().compare(left.getKey(), right.getKey()) <= 0) {
-            // 相等直接返回
-            if (getComparator().compare(left.getKey(), targetKey) == 0) {
-                return getNextRecord(left.getValue());
+    private static boolean isComparatorOverridden(Class<?> clazz) {
+        try {
+            return clazz.getMethod("getComparator").getDeclaringClass() != NormalDataTurboClient.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+
+    private static int indexOf(byte[] bytes, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) {
+                return i;
             }
-            if (getComparator().compare(right.getKey(), targetKey) == 0) {
-                return getNextRecord(left.getValue());
+        }
+        return -1;
+    }
+
+    private static void closeHolders(ByteHolder... holders) {
+        for (ByteHolder holder : holders) {
+            if (holder != null) {
+                holder.close();
             }
-            // 如果是最后一点数据 就不进行二分了 直接全读了
-            if (right.getValue() - left.getValue() <= preStepReadCount * 2L) {
-                return findInScope(left.getValue(), right.getValue(), targetKey);
+        }
+    }
+
+    private static String decode(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(from);
+        duplicate.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 读取字段级别引用的值
+     */
+    private interface ReferenceResolver {
+
+        String resolve(String reference) throws IOException;
+    }
+
+    /**
+     * 一次加载的全部数据 创建之后不会再修改
+     * 通过引用计数管理生命周期 客户端自己持有一个引用 每次查询持有一个引用
+     * 被替换或者客户端关闭之后 最后一个查询释放时关闭文件通道和异步通道 并释放块缓存中的空间
+     */
+    private final class Generation {
+
+        /**
+         * 数据文件版本
+         */
+        private final int version;
+        /**
+         * 构建时间
+         */
+        private final long buildTime;
+        /**
+         * 数据总数
+         */
+        private final long count;
+        /**
+         * key比较器 加载时根据版本确定
+         */
+        private final IKeyComparator comparator;
+        /**
+         * key的类型 来自detail
+         */
+        private final KeyEnum keyEnum;
+        /**
+         * 稀疏索引 v1版本的位置是记录的偏移量 v2版本的位置是记录的序号
+         */
+        private final SparseIndex sparseIndex;
+        /**
+         * 整数类型的key解码之后的稀疏索引key 和sparseIndex一一对应 字符串类型的key为null
+         */
+        private final long[] numberIndex;
+        /**
+         * 学习型索引 没有写入或者误差上限超过了配置时为null
+         */
+        private final RadixSpline spline;
+        /**
+         * values字节holder
+         */
+        private final ByteHolder valuesHolder;
+        /**
+         * 字段名称
+         */
+        private final String[] fields;
+        /**
+         * 引用数据块字节holder
+         */
+        private final ByteHolder referenceHolder;
+        /**
+         * 记录偏移量数据块字节holder v1版本为null
+         */
+        private final ByteHolder offsetHolder;
+        /**
+         * 文件中内置的布隆过滤器 没有时为null
+         * 只有使用默认的key比较器时才会使用
+         */
+        private final HeapBloomFilter<CharSequence> bloomFilter;
+        /**
+         * 磁盘模式v2及以上版本的异步读取器 其他情况为null
+         */
+        private final AsyncReader asyncReader;
+        /**
+         * fileChannel 池
+         */
+        private final FileChannelPool fileChannelPool;
+        /**
+         * 索引数据块长度
+         */
+        private final long indexBlockLength;
+        /**
+         * values数据块长度 压缩时是解压后的长度
+         */
+        private final long valueBlockLength;
+        /**
+         * 引用数据块长度
+         */
+        private final long referenceBlockLength;
+        /**
+         * 引用计数 为0之后不能再持有
+         */
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        /**
+         * 从detail文件完整地加载一份数据 加载失败时会关闭已经打开的文件
+         *
+         * @param dataTurboDetail 数据描述
+         * @throws Exception 加载时的错误抛出
+         */
+        private Generation(DataTurboDetail dataTurboDetail) throws Exception {
+            BufferedInputStream in =
+                    new BufferedInputStream(new FileInputStream(dataTurboDetail.getDataFile()));
+            NormalFileHeader header;
+            try {
+                header = NormalFileHeader.readFrom(in);
+                version = header.getVersion();
+                buildTime = header.getBuildTime();
+                count = header.getCount();
+                comparator = resolveComparator(version);
+                keyEnum = dataTurboDetail.getKeyEnum() == null ? KeyEnum.STRING :
+                        dataTurboDetail.getKeyEnum();
+                if (keyEnum.isNumber() && version < NormalFileHeader.VERSION_4) {
+                    throw new IOException("number key need normal file version 4 or above");
+                }
+                indexBlockLength = header.getIndexBlockLength();
+                referenceBlockLength = header.getReferenceBlockLength();
+                int fieldBlockLength = header.getFieldBlockLength();
+                fields =
+                        new String(IOUtils.read(in, fieldBlockLength)).split(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_1);
+                fileChannelPool = new FileChannelPool(new File(dataTurboDetail.getDataFile()));
+            } catch (Exception e) {
+                in.close();
+                throw e;
             }
-            long min = left.getValue() / 2 + right.getValue() / 2;
-            // 如果中间没有值了
-            Map.Entry<String, Long> minKey = getNextPosition(min);
-            if (minKey == null) {
-                return null;
+            try {
+                if (version >= NormalFileHeader.VERSION_3) {
+                    // 二进制索引直接从文件批量读取
+                    FileChannel fileChannel = fileChannelPool.getFileChannel();
+                    try {
+                        sparseIndex = SparseIndex.readFrom(fileChannel, header.getIndexBlockOffset(),
+                                indexBlockLength, comparator);
+                    } finally {
+                        fileChannelPool.putFileChannel(fileChannel);
+                    }
+                } else {
+                    byte[] read = IOUtils.read(in, Ints.checkedCast(indexBlockLength));
+                    sparseIndex = loadIndex(read);
+                }
+                if (keyEnum.isNumber()) {
+                    numberIndex = new long[sparseIndex.size()];
+                    for (int i = 0; i < numberIndex.length; i++) {
+                        numberIndex[i] = keyEnum.decode(sparseIndex.getKey(i));
+                    }
+                } else {
+                    numberIndex = null;
+                }
+                BlockCache blockCache = Boolean.parseBoolean(dataTurboDetail.getProp(
+                        DataTurboConstants.CLIENT_CONFIG_BLOCK_CACHE_ENABLE, "false")) ?
+                        BlockCache.getDefault() : null;
+                CompressBlockIndex compressBlockIndex = loadCompressBlockIndex(header);
+                if (compressBlockIndex == null) {
+                    valuesHolder = new ByteHolder(dataTurboDetail.getLoadEnum(), fileChannelPool,
+                            header.getValueBlockOffset(), header.getValueBlockLength(),
+                            preStepReadCount).setBlockCache(blockCache);
+                    valueBlockLength = header.getValueBlockLength();
+                } else {
+                    // 压缩的数据块按原本的方式加载 解压后的块总是放在块缓存中
+                    ByteHolder compressed = new ByteHolder(dataTurboDetail.getLoadEnum(),
+                            fileChannelPool, header.getValueBlockOffset(), header.getValueBlockLength(),
+                            preStepReadCount);
+                    BlockCache decompressCache = blockCache != null ? blockCache :
+                            new BlockCache(DEFAULT_DECOMPRESS_CACHE_BLOCKS * compressBlockIndex.getMaxBlockLength(),
+                                    compressBlockIndex.getMaxBlockLength());
+                    valuesHolder = new CompressedByteHolder(compressed, compressBlockIndex,
+                            decompressCache, preStepReadCount);
+                    // 之后所有的偏移量都是解压后的偏移量
+                    valueBlockLength = compressBlockIndex.getLength();
+                }
+                referenceHolder = new ByteHolder(dataTurboDetail.getLoadEnum(), fileChannelPool,
+                        header.getReferenceBlockOffset(), referenceBlockLength, preStepReadCount)
+                        .setBlockCache(blockCache);
+                if (header.hasExtensionBlock(NormalBlockEnum.OFFSET)) {
+                    offsetHolder = new ByteHolder(dataTurboDetail.getLoadEnum(), fileChannelPool,
+                            header.getExtensionBlockOffset(NormalBlockEnum.OFFSET),
+                            header.getExtensionBlockLength(NormalBlockEnum.OFFSET), preStepReadCount)
+                            .setBlockCache(blockCache);
+                } else {
+                    offsetHolder = null;
+                }
+                bloomFilter = loadBloomFilter(header);
+                spline = loadSpline(header, Integer.parseInt(dataTurboDetail.getProp(
+                        DataTurboConstants.CLIENT_CONFIG_SPLINE_MAX_ERROR, "64")));
+                // 压缩的数据需要整块解压 不使用异步读取
+                asyncReader = dataTurboDetail.getLoadEnum() == LoadEnum.DISK && offsetHolder != null
+                        && compressBlockIndex == null ?
+                        new AsyncReader(AsynchronousFileChannel.open(Paths.get(dataTurboDetail.getDataFile()),
+                                StandardOpenOption.READ), sparseIndex, header) : null;
+            } catch (Exception e) {
+                fileChannelPool.shutDown();
+                throw e;
+            } finally {
+                in.close();
             }
-            if (minKey.getValue().equals(right.getValue())) {
-                return findInScope(left.getValue(), right.getValue(), targetKey);
+        }
+
+        /**
+         * 持有这份数据
+         *
+         * @return 已经被关闭时返回false
+         */
+        private boolean retain() {
+            while (true) {
+                int n = references.get();
+                if (n <= 0) {
+                    return false;
+                }
+                if (references.compareAndSet(n, n + 1)) {
+                    return true;
+                }
             }
-            // 如果可以比较就继续二分查找
-            int i = getComparator().compare(minKey.getKey(), targetKey);
-            if (i < 0) {
-                return binarySearch(minKey, right, targetKey);
+        }
+
+        /**
+         * 释放一次持有 最后一次释放时关闭所有的资源
+         */
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                closeHolders(valuesHolder, referenceHolder, offsetHolder);
+                if (asyncReader != null) {
+                    asyncReader.close();
+                }
+                try {
+                    fileChannelPool.shutDown();
+                } catch (Exception e) {
+                    // ignore
+                }
             }
-            if (i > 0) {
-                return binarySearch(left, minKey, targetKey);
+        }
+
+        /**
+         * 预热 查询一遍所有的索引key
+         * 二分查找最先访问的是索引附近的记录 这些页面在替换之前就会被加载
+         */
+        private void warm() {
+            for (int i = 0; i < sparseIndex.size(); i++) {
+                searchStoreKey(sparseIndex.getKey(i));
             }
-            // 相等就直接返回
-            return getNextRecord(minKey.getValue());
-        } else {
-            throw new RuntimeException("left key must lower than right key");
         }
-    }
 
-    /**
-     * 在某一个范围内进行查找
-     *
-     * @param start     开始字节数
-     * @param end       结束字节数
-     * @param targetKey 目标key
-     * @return 如果存在返回解析好的result 如果不存在返回null
-     * @throws IOException 可能会存在io异常
-     */
-    protected DataTurboResult findInScope(Long start, Long end, String targetKey) throws IOException {
-        Map.Entry<String, Long> nextPosition = getNextPosition(start);
-        while (nextPosition != null && nextPosition.getValue() <= end) {
-            int i = getComparator().compare(targetKey, nextPosition.getKey());
-            if (i == 0) {
-                return getNextRecord(nextPosition.getValue());
-            } else if (i < 0) {
+        /**
+         * @see NormalDataTurboClient#search(String, DataTurboResultHolder)
+         */
+        private boolean search(String key, DataTurboResultHolder holder) {
+            holder.clear();
+            if (key == null) {
+                return false;
+            }
+            if (keyEnum.isNumber()) {
+                try {
+                    return search(Long.parseLong(key), holder);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            if (offsetHolder == null) {
+                DataTurboResult result = searchFromFile(key);
+                if (result != null) {
+                    fillHolder(result, holder);
+                }
+                return result != null;
+            }
+            try {
+                Scratch scratch = scratchThreadLocal.get();
+                long index = locate(key, scratch);
+                if (index < 0) {
+                    return false;
+                }
+                readRecord(index, scratch, holder);
+                return true;
+            } catch (IOException e) {
+                throw new RuntimeException("[data-turbo] search with exception: ", e);
+            } finally {
+                cleanHolders();
+            }
+        }
+
+        /**
+         * @see NormalDataTurboClient#search(long, DataTurboResultHolder)
+         */
+        private boolean search(long key, DataTurboResultHolder holder) {
+            holder.clear();
+            try {
+                Scratch scratch = scratchThreadLocal.get();
+                long index = locate(key, scratch);
+                if (index < 0) {
+                    return false;
+                }
+                readRecord(index, scratch, holder);
+                return true;
+            } catch (IOException e) {
+                throw new RuntimeException("[data-turbo] search with exception: ", e);
+            } finally {
+                cleanHolders();
+            }
+        }
+
+        private DataTurboResult searchFromFile(long key) {
+            Scratch scratch = scratchThreadLocal.get();
+            return search(key, scratch.result) ? scratch.result.toResult() : null;
+        }
+
+        /**
+         * 整数类型的key先解析成数值 不是合法的整数时一定查不到
+         */
+        private DataTurboResult searchFromFile(String key) {
+            if (keyEnum.isNumber() && key != null) {
+                try {
+                    return searchFromFile(Long.parseLong(key));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            return searchStoreKey(key);
+        }
+
+        /**
+         * 按文件中保存的key查询
+         */
+        private DataTurboResult searchStoreKey(String key) {
+            if (offsetHolder != null && key != null) {
+                try {
+                    Scratch scratch = scratchThreadLocal.get();
+                    long index = locate(key, scratch);
+                    if (index < 0) {
+                        return null;
+                    }
+                    readRecord(index, scratch, scratch.result);
+                    return scratch.result.toResult();
+                } catch (IOException e) {
+                    throw new RuntimeException("[data-turbo] search with exception: ", e);
+                } finally {
+                    cleanHolders();
+                }
+            }
+            if (!mightContain(key)) {
                 return null;
             }
-            nextPosition =
-                    getNextPosition(nextPosition.getValue() + ByteUtils.getByteCountUTF8(nextPosition.getKey()) + 1);
+            try {
+                SparseIndex index = sparseIndex;
+                byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                int right = index.ceiling(keyBytes);
+                if (right < 0) {
+                    return null;
+                }
+                // 正好命中索引时不需要二分
+                if (index.compareKey(right, keyBytes) == 0) {
+                    return offsetHolder != null ? getRecord(index.getPosition(right)) :
+                            getNextRecord(index.getPosition(right));
+                }
+                if (right == 0) {
+                    return null;
+                }
+                if (offsetHolder != null) {
+                    long i = searchRecordIndex(index.getPosition(right - 1) + 1,
+                            index.getPosition(right) - 1, keyBytes, null);
+                    return i >= 0 ? getRecord(i) : null;
+                }
+                return binarySearch(index.getEntry(right - 1), index.getEntry(right), key);
+            } catch (Exception e) {
+                throw new RuntimeException("[data-turbo] search with exception: ", e);
+            } finally {
+                cleanHolders();
+            }
         }
-        return null;
 
-        /*byte[] bytes = valuesHolder.read(start, Ints.checkedCast(end - start));
-        String cache = new String(bytes, StandardCharsets.UTF_8);
-        String[] split = cache.split(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_3);
-        for (String s : split) {
-            String[] kv = s.split(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2, 2);
-            if (kv.length == 2 && getComparator().compare(kv[0], targetKey) == 0) {
-                return new DataTurboResult(kv[0], buildValue(kv[1]));
-            } else if (kv.length == 2 && getComparator().compare(kv[0], targetKey) > 0) {
-                break;
+        /**
+         * 定位记录的序号 v2及以上版本使用
+         * key编码到线程复用的缓冲区中 二分时把记录的开头读取到缓冲区中直接比较字节
+         *
+         * @param key     目标key
+         * @param scratch 线程复用的缓冲区
+         * @return 记录序号 不存在时返回-1
+         * @throws IOException 可能会存在io异常
+         */
+        private long locate(String key, Scratch scratch) throws IOException {
+            int keyLength = scratch.encode(key);
+            byte[] keyBytes = scratch.key;
+            HeapBloomFilter<CharSequence> filter = bloomFilter;
+            if (filter != null && !filter.mightContain(keyBytes, 0, keyLength, scratch.hashes)) {
+                return -1;
+            }
+            SparseIndex index = sparseIndex;
+            int right = index.ceiling(keyBytes, keyLength);
+            if (right < 0) {
+                return -1;
+            }
+            // 正好命中索引时不需要二分
+            if (index.compareKey(right, keyBytes, keyLength) == 0) {
+                return index.getPosition(right);
+            }
+            if (right == 0) {
+                return -1;
             }
+            long low = index.getPosition(right - 1) + 1;
+            long high = index.getPosition(right) - 1;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                int keyEnd = readRecordKey(mid, scratch);
+                int i = comparator.compareBytes(scratch.record, 0, keyEnd, keyBytes, 0, keyLength);
+                if (i < 0) {
+                    low = mid + 1;
+                } else if (i > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
         }
-        return null;*/
-    }
 
-    /**
-     * 根据给定的偏移量寻找下一个记录
-     *
-     * @param start 偏移量
-     * @return 下一个结果
-     * @throws IOException 可能会存在io异常
-     */
-    protected DataTurboResult getNextRecord(Long start) throws IOException {
-        String key = valuesHolder.read(start,
-                DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2);
-        if (key == null) {
-            return null;
+        /**
+         * 整数类型的key定位记录的序号
+         * 先在解码好的long数组中二分 再在两个索引之间的记录中二分 都是数值比较
+         *
+         * @param key     目标key
+         * @param scratch 线程复用的缓冲区
+         * @return 记录序号 不存在时返回-1
+         * @throws IOException 可能会存在io异常
+         */
+        private long locate(long key, Scratch scratch) throws IOException {
+            if (keyEnum == KeyEnum.INT && (key < Integer.MIN_VALUE || key > Integer.MAX_VALUE)) {
+                return -1;
+            }
+            HeapBloomFilter<CharSequence> filter = bloomFilter;
+            if (filter != null) {
+                int keyLength = keyEnum.encode(key, scratch.key);
+                if (!filter.mightContain(scratch.key, 0, keyLength, scratch.hashes)) {
+                    return -1;
+                }
+            }
+            if (spline != null) {
+                long index = locateBySpline(key, scratch);
+                if (index != SPLINE_MISS) {
+                    return index;
+                }
+            }
+            int right = Arrays.binarySearch(numberIndex, key);
+            if (right >= 0) {
+                return sparseIndex.getPosition(right);
+            }
+            right = -right - 1;
+            // 比第一个索引小或者比最后一个索引大
+            if (right == 0 || right == numberIndex.length) {
+                return -1;
+            }
+            long low = sparseIndex.getPosition(right - 1) + 1;
+            long high = sparseIndex.getPosition(right) - 1;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                int keyEnd = readRecordKey(mid, scratch);
+                if (keyEnd != keyEnum.getWidth()) {
+                    throw new IOException("value block has error at record: " + mid);
+                }
+                int i = Long.compare(keyEnum.decode(scratch.record, 0), key);
+                if (i < 0) {
+                    low = mid + 1;
+                } else if (i > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
         }
-        int keyByteLength = ByteUtils.getByteCountUTF8(key);
-        String value = valuesHolder.read(start + keyByteLength + splitChar2Len,
-                DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_3);
-        return new DataTurboResult(key, buildValue(value));
-    }
 
-    /**
-     * 根据存储的value字符串构建values
-     *
-     * @param value value字符串
-     * @return string-string 格式的kv对象
-     * @throws IOException 如果遇见引用型value 可能会出现io异常
-     */
-    protected Map<String, String> buildValue(String value) throws IOException {
-        if (value.startsWith(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_4)) {
-            byte[] bytes = value.substring(1).getBytes(StandardCharsets.UTF_8);
-            long pos = Longs.fromBytes(bytes[0], bytes[1], bytes[2], bytes[3], bytes[4], bytes[5]
-                    , bytes[6], bytes[7]);
-            int count = Ints.fromBytes(bytes[8], bytes[9], bytes[10], bytes[11]);
-            byte[] read = referenceHolder.read(pos, count);
-            value = new String(read, StandardCharsets.UTF_8);
+        /**
+         * 在学习型索引预测的窗口内二分
+         * 二分停在窗口的边界上说明记录可能在窗口外 模型的误差不可信 这时交给稀疏索引重新查找
+         *
+         * @return 记录序号 不存在时返回-1 需要使用稀疏索引时返回 {@link #SPLINE_MISS}
+         */
+        private long locateBySpline(long key, Scratch scratch) throws IOException {
+            if (key < spline.getMinKey() || key > spline.getMaxKey()) {
+                return -1;
+            }
+            long predicted = spline.predict(key);
+            long windowLow = Math.max(0, predicted - spline.getErrorBound() - 1);
+            long windowHigh = Math.min(count - 1, predicted + spline.getErrorBound() + 1);
+            long low = windowLow;
+            long high = windowHigh;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                int keyEnd = readRecordKey(mid, scratch);
+                if (keyEnd != keyEnum.getWidth()) {
+                    throw new IOException("value block has error at record: " + mid);
+                }
+                int i = Long.compare(keyEnum.decode(scratch.record, 0), key);
+                if (i < 0) {
+                    low = mid + 1;
+                } else if (i > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            if ((low == windowLow && windowLow > 0) || (low > windowHigh && windowHigh < count - 1)) {
+                return SPLINE_MISS;
+            }
+            return -1;
         }
-        String[] split = value.split(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2);
-        if (split.length != fields.length) {
-            throw new RuntimeException(String.format("value string has wrong expect field count: " +
-                    "%d, get: %d", fields.length, split.length));
+
+        /**
+         * 读取记录在信息数据块中的范围 结果放在scratch.start和scratch.end中
+         */
+        private void readRecordRange(long index, Scratch scratch) throws IOException {
+            byte[] b = scratch.offsets;
+            if (index + 1 < count) {
+                offsetHolder.read(index * 8, b, 0, 16);
+                scratch.end = Longs.fromBytes(b[8], b[9], b[10], b[11], b[12], b[13], b[14], b[15]);
+            } else {
+                offsetHolder.read(index * 8, b, 0, 8);
+                scratch.end = valueBlockLength;
+            }
+            scratch.start = Longs.fromBytes(b[0], b[1], b[2], b[3], b[4], b[5], b[6], b[7]);
         }
-        Map<String, String> map = new HashMap<>(fields.length, 1.0f);
-        for (int i = 0; i < split.length; i++) {
-            map.put(fields[i], split[i]);
+
+        /**
+         * 把记录的开头读取到scratch.record中 key比较长时读取整条记录
+         *
+         * @return key在scratch.record中的结束位置
+         */
+        private int readRecordKey(long index, Scratch scratch) throws IOException {
+            readRecordRange(index, scratch);
+            int length = Ints.checkedCast(scratch.end - scratch.start);
+            int n = Math.min(length, preStepReadCount);
+            valuesHolder.read(scratch.start, scratch.record(n), 0, n);
+            int keyEnd = indexOf(scratch.record, 0, n, splitChar2Byte[0]);
+            if (keyEnd < 0 && n < length) {
+                valuesHolder.read(scratch.start, scratch.record(length), 0, length);
+                keyEnd = indexOf(scratch.record, 0, length, splitChar2Byte[0]);
+            }
+            if (keyEnd < 0) {
+                throw new IOException("value block has error at record: " + index);
+            }
+            return keyEnd;
         }
-        return map;
-    }
 
-    /**
-     * 获得下一个位置 一般是从截断的位置开始 往下寻找
-     *
-     * @param start 开始的偏移量
-     * @return key-offset 格式的数据对
-     * @throws IOException 可能会存在io异常
-     */
-    protected Map.Entry<String, Long> getNextPosition(long start) throws IOException {
-        ByteArrayOutputStream keyBuffer = new ByteArrayOutputStream();
-        while (true) {
-            long end = valuesHolder.getBaseOffset() + valueBlockLength;
-            int length = end - start > preStepReadCount ? preStepReadCount :
-                    ((Long) (end - start)).intValue();
-            if (length <= 0) {
+        /**
+         * 把整条记录读取到holder中 引用型的value会替换成引用的数据
+         */
+        private void readRecord(long index, Scratch scratch, DataTurboResultHolder holder) throws IOException {
+            readRecordRange(index, scratch);
+            // 去掉结尾的记录分隔符
+            int length = Ints.checkedCast(scratch.end - scratch.start) - SPLIT_CHAR3_BYTE.length;
+            byte[] buffer = holder.getBuffer(length);
+            valuesHolder.read(scratch.start, buffer, 0, length);
+            int keyEnd = indexOf(buffer, 0, length, splitChar2Byte[0]);
+            if (keyEnd < 0) {
+                throw new IOException("value block has error at record: " + index);
+            }
+            int valueStart = keyEnd + splitChar2Len;
+            if (version >= NormalFileHeader.VERSION_6) {
+                if (indexOf(buffer, valueStart, length, SPLIT_CHAR4_BYTE) >= 0) {
+                    length = resolveReferences(scratch, holder, valueStart, length);
+                }
+            } else if (valueStart < length && buffer[valueStart] == SPLIT_CHAR4_BYTE) {
+                // 引用格式 \u0014 + 8位long(pos) + 4位int(len)
+                byte[] b = buffer;
+                int i = valueStart + 1;
+                long pos = Longs.fromBytes(b[i], b[i + 1], b[i + 2], b[i + 3], b[i + 4], b[i + 5],
+                        b[i + 6], b[i + 7]);
+                int referenceLength = Ints.fromBytes(b[i + 8], b[i + 9], b[i + 10], b[i + 11]);
+                buffer = holder.getBuffer(valueStart + referenceLength);
+                referenceHolder.read(pos, buffer, valueStart, referenceLength);
+                length = valueStart + referenceLength;
+            }
+            holder.set(keyEnum, fields, keyEnd, length);
+        }
+
+        /**
+         * 把holder中记录的字段级别引用替换成引用的数据 v6版本使用
+         * 原始记录先复制到scratch中 再逐个字段写回holder
+         *
+         * @return 替换之后的记录长度
+         */
+        private int resolveReferences(Scratch scratch, DataTurboResultHolder holder, int valueStart,
+                                      int length) throws IOException {
+            byte[] record = scratch.record(length);
+            byte[] buffer = holder.getBuffer(length);
+            System.arraycopy(buffer, 0, record, 0, length);
+            int out = valueStart;
+            int start = valueStart;
+            while (start <= length) {
+                int end = indexOf(record, start, length, splitChar2Byte[0]);
+                if (end < 0) {
+                    end = length;
+                }
+                if (start < end && record[start] == SPLIT_CHAR4_BYTE) {
+                    long pos = NormalReference.getPosition(record, start, end);
+                    int referenceLength = NormalReference.getLength(record, start, end);
+                    buffer = holder.getBuffer(out + referenceLength + length - end);
+                    referenceHolder.read(pos, buffer, out, referenceLength);
+                    out += referenceLength;
+                } else {
+                    buffer = holder.getBuffer(out + length - start);
+                    System.arraycopy(record, start, buffer, out, end - start);
+                    out += end - start;
+                }
+                if (end < length) {
+                    buffer[out++] = splitChar2Byte[0];
+                }
+                start = end + 1;
+            }
+            return out;
+        }
+
+        /**
+         * 把v1版本查询到的结果复制到holder中
+         */
+        private void fillHolder(DataTurboResult result, DataTurboResultHolder holder) {
+            StringBuilder builder = new StringBuilder(result.getKey());
+            for (String field : fields) {
+                builder.append(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2)
+                        .append(result.getString(field));
+            }
+            byte[] bytes = builder.toString().getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(bytes, 0, holder.getBuffer(bytes.length), 0, bytes.length);
+            holder.set(fields, ByteUtils.getByteCountUTF8(result.getKey()), bytes.length);
+        }
+
+        private CompletableFuture<DataTurboResult> searchFromFileAsync(AsyncReader reader, String key,
+                                                                       Executor executor) {
+            if (keyEnum.isNumber() && key != null) {
+                try {
+                    key = keyEnum.toStoreKey(key);
+                } catch (NumberFormatException e) {
+                    return CompletableFuture.completedFuture(null);
+                }
+            }
+            if (key == null || !mightContain(key)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            SparseIndex index = reader.sparseIndex;
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            int right = index.ceiling(keyBytes);
+            if (right < 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (index.compareKey(right, keyBytes) == 0) {
+                return reader.readRecord(index.getPosition(right), executor)
+                        .thenComposeAsync(record -> record.toResult(executor), executor);
+            }
+            if (right == 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return searchRecordAsync(reader, index.getPosition(right - 1) + 1,
+                    index.getPosition(right) - 1, keyBytes, executor);
+        }
+
+        private CompletableFuture<DataTurboResult> searchRecordAsync(AsyncReader reader, long low,
+                                                                     long high, byte[] keyBytes,
+                                                                     Executor executor) {
+            if (low > high) {
+                return CompletableFuture.completedFuture(null);
+            }
+            long mid = (low + high) >>> 1;
+            return reader.readRecord(mid, executor).thenComposeAsync(record -> {
+                int i = comparator.compareBytes(record.bytes, 0, record.keyEnd, keyBytes);
+                if (i < 0) {
+                    return searchRecordAsync(reader, mid + 1, high, keyBytes, executor);
+                }
+                if (i > 0) {
+                    return searchRecordAsync(reader, low, mid - 1, keyBytes, executor);
+                }
+                return record.toResult(executor);
+            }, executor);
+        }
+
+        /**
+         * @see NormalDataTurboClient#searchBatch(Collection)
+         */
+        private Map<String, DataTurboResult> searchBatch(Collection<String> keys) {
+            if (!keyEnum.isNumber()) {
+                return searchStoreBatch(keys);
+            }
+            // 转换成文件中的key查询 结果再对应回查询的key
+            // "7" "007" "+7" 对应同一个存储key 每种写法都需要返回结果
+            Map<String, List<String>> storeKeys = new HashMap<>(keys.size());
+            for (String key : keys) {
+                try {
+                    storeKeys.computeIfAbsent(keyEnum.toStoreKey(key), k -> new ArrayList<>(1)).add(key);
+                } catch (NumberFormatException e) {
+                    // 不合法的key一定查不到
+                }
+            }
+            Map<String, DataTurboResult> results = new HashMap<>(keys.size());
+            searchStoreBatch(storeKeys.keySet()).forEach((storeKey, result) -> {
+                for (String key : storeKeys.get(storeKey)) {
+                    results.put(key, result);
+                }
+            });
+            return results;
+        }
+
+        private Map<String, DataTurboResult> searchStoreBatch(Collection<String> keys) {
+            Map<String, DataTurboResult> results = new HashMap<>(keys.size());
+            List<String> sortedKeys = new ArrayList<>(new LinkedHashSet<>(keys));
+            sortedKeys.removeIf(key -> !mightContain(key));
+            sortedKeys.sort(comparator::compare);
+            SparseIndex index = sparseIndex;
+            try {
+                int i = 0;
+                while (i < sortedKeys.size()) {
+                    String key = sortedKeys.get(i);
+                    Map.Entry<String, Long> leftEntry = index.floorEntry(key);
+                    Map.Entry<String, Long> rightEntry = index.ceilingEntry(key);
+                    if (leftEntry == null || rightEntry == null) {
+                        i++;
+                        continue;
+                    }
+                    // 找到落在同一个索引区间的所有key
+                    int j = i + 1;
+                    while (j < sortedKeys.size()) {
+                        Map.Entry<String, Long> l = index.floorEntry(sortedKeys.get(j));
+                        Map.Entry<String, Long> r = index.ceilingEntry(sortedKeys.get(j));
+                        if (l == null || r == null || !l.getValue().equals(leftEntry.getValue())
+                                || !r.getValue().equals(rightEntry.getValue())) {
+                            break;
+                        }
+                        j++;
+                    }
+                    searchWindow(leftEntry, rightEntry, sortedKeys.subList(i, j), results);
+                    i = j;
+                }
+            } catch (Exception e) {
+                throw new RuntimeException("[data-turbo] search batch with exception: ", e);
+            } finally {
+                cleanHolders();
+            }
+            return results;
+        }
+
+        /**
+         * 通过内置的布隆过滤器判断key是否可能存在
+         *
+         * @param key 目标key
+         * @return 返回false时一定不存在
+         */
+        private boolean mightContain(String key) {
+            HeapBloomFilter<CharSequence> filter = bloomFilter;
+            return filter == null || key == null || filter.mightContain(key);
+        }
+
+        /**
+         * 找到扫描开始的位置
+         * v1版本从小于等于key的索引开始 v2版本可以直接二分到第一条大于等于key的记录
+         *
+         * @param key 开始的key 为null时从第一条记录开始
+         * @return 扫描开始的偏移量 如果没有满足的记录返回数据块的长度
+         */
+        protected long seek(String key) {
+            if (key == null || count == 0) {
+                return 0L;
+            }
+            SparseIndex sparse = sparseIndex;
+            Map.Entry<String, Long> leftEntry = sparse.floorEntry(key);
+            if (leftEntry == null) {
+                return 0L;
+            }
+            if (offsetHolder == null) {
+                return leftEntry.getValue();
+            }
+            try {
+                Map.Entry<String, Long> rightEntry = sparse.ceilingEntry(key);
+                long high = rightEntry == null ? count - 1 : rightEntry.getValue();
+                long index = searchRecordIndex(leftEntry.getValue(), high,
+                        key.getBytes(StandardCharsets.UTF_8), null);
+                if (index < 0) {
+                    index = -index - 1;
+                }
+                return index >= count ? valueBlockLength : getRecordOffset(index);
+            } catch (IOException e) {
+                throw new RuntimeException("[data-turbo] seek with exception: ", e);
+            } finally {
+                cleanHolders();
+            }
+        }
+
+        /**
+         * 学习型索引只对整数类型的key有效 误差太大时二分的范围比稀疏索引还大 不如不用
+         *
+         * @param maxError 可以接受的误差上限
+         * @return 不使用时返回null
+         */
+        private RadixSpline loadSpline(NormalFileHeader header, int maxError) throws IOException {
+            if (!keyEnum.isNumber() || !header.hasExtensionBlock(NormalBlockEnum.SPLINE)) {
                 return null;
             }
-            byte[] bytes = valuesHolder.read(start, length);
-            int i = ByteUtils.indexOfBytes(bytes, SPLIT_CHAR3_BYTE, 0);
-            if (i == -1) {
-                start += length;
+            FileChannel fileChannel = fileChannelPool.getFileChannel();
+            RadixSpline model;
+            try {
+                model = RadixSpline.readFrom(IOUtils.readHeapBytes(fileChannel,
+                        header.getExtensionBlockOffset(NormalBlockEnum.SPLINE),
+                        Ints.checkedCast(header.getExtensionBlockLength(NormalBlockEnum.SPLINE))).array());
+            } finally {
+                fileChannelPool.putFileChannel(fileChannel);
+            }
+            return model.getErrorBound() <= maxError ? model : null;
+        }
+
+        /**
+         * 压缩块索引总是加载到堆内存中
+         *
+         * @return 没有压缩时返回null
+         */
+        private CompressBlockIndex loadCompressBlockIndex(NormalFileHeader header) throws IOException {
+            if (!header.hasExtensionBlock(NormalBlockEnum.COMPRESS)) {
+                return null;
+            }
+            FileChannel fileChannel = fileChannelPool.getFileChannel();
+            try {
+                return CompressBlockIndex.readFrom(IOUtils.readHeapBytes(fileChannel,
+                        header.getExtensionBlockOffset(NormalBlockEnum.COMPRESS),
+                        Ints.checkedCast(header.getExtensionBlockLength(NormalBlockEnum.COMPRESS))).array());
+            } finally {
+                fileChannelPool.putFileChannel(fileChannel);
+            }
+        }
+
+        /**
+         * 布隆过滤器数据块不大 总是加载到堆内存中
+         * 自定义了key比较器时查询key和存储key可能不一样 不使用布隆过滤器
+         */
+        private HeapBloomFilter<CharSequence> loadBloomFilter(NormalFileHeader header) throws IOException {
+            if (!header.hasExtensionBlock(NormalBlockEnum.BLOOM)
+                    || !IKeyComparator.isBuiltIn(comparator)) {
+                return null;
+            }
+            FileChannel fileChannel = fileChannelPool.getFileChannel();
+            try {
+                byte[] bytes = IOUtils.readHeapBytes(fileChannel,
+                        header.getExtensionBlockOffset(NormalBlockEnum.BLOOM),
+                        Ints.checkedCast(header.getExtensionBlockLength(NormalBlockEnum.BLOOM))).array();
+                return HeapBloomFilter.readFrom(new ByteArrayInputStream(bytes),
+                        Funnels.stringFunnel(StandardCharsets.UTF_8));
+            } finally {
+                fileChannelPool.putFileChannel(fileChannel);
+            }
+        }
+
+        protected DataTurboResult binarySearch(Map.Entry<String, Long> left,
+                                               Map.Entry<String, Long> right, String targetKey) throws IOException {
+            if (comparator.compare(left.getKey(), right.getKey()) <= 0) {
+                // 相等直接返回
+                if (comparator.compare(left.getKey(), targetKey) == 0) {
+                    return getNextRecord(left.getValue());
+                }
+                if (comparator.compare(right.getKey(), targetKey) == 0) {
+                    return getNextRecord(left.getValue());
+                }
+                // 如果是最后一点数据 就不进行二分了 直接全读了
+                if (right.getValue() - left.getValue() <= preStepReadCount * 2L) {
+                    return findInScope(left.getValue(), right.getValue(), targetKey);
+                }
+                long min = left.getValue() / 2 + right.getValue() / 2;
+                // 如果中间没有值了
+                Map.Entry<String, Long> minKey = getNextPosition(min);
+                if (minKey == null) {
+                    return null;
+                }
+                if (minKey.getValue().equals(right.getValue())) {
+                    return findInScope(left.getValue(), right.getValue(), targetKey);
+                }
+                // 如果可以比较就继续二分查找
+                int i = comparator.compare(minKey.getKey(), targetKey);
+                if (i < 0) {
+                    return binarySearch(minKey, right, targetKey);
+                }
+                if (i > 0) {
+                    return binarySearch(left, minKey, targetKey);
+                }
+                // 相等就直接返回
+                return getNextRecord(minKey.getValue());
             } else {
-                int j = ByteUtils.indexOfBytes(bytes, splitChar2Byte, i);
-                if (j != -1) {
-                    return Pair.of(new String(bytes, i + 1, j - i - 1, StandardCharsets.UTF_8),
-                            start + i + 1);
+                throw new RuntimeException("left key must lower than right key");
+            }
+        }
+
+        /**
+         * 在一个索引区间内查询一批有序的key
+         *
+         * @param left       左边的索引
+         * @param right      右边的索引
+         * @param sortedKeys 有序的key
+         * @param results    结果
+         * @throws IOException 可能会存在io异常
+         */
+        protected void searchWindow(Map.Entry<String, Long> left, Map.Entry<String, Long> right,
+                                    List<String> sortedKeys, Map<String, DataTurboResult> results) throws IOException {
+            // 区间内记录数 v1版本只能估算
+            long windowCount = offsetHolder != null ? right.getValue() - left.getValue() + 1 :
+                    Math.max(1L, count / Math.max(1, sparseIndex.size()));
+            long probeCount = 64 - Long.numberOfLeadingZeros(windowCount);
+            if ((long) sortedKeys.size() * probeCount >= windowCount) {
+                long start = offsetHolder != null ? getRecordOffset(left.getValue()) : left.getValue();
+                long end = offsetHolder != null ? getRecordOffset(right.getValue()) : right.getValue();
+                sweep(start, end, sortedKeys, results);
+            } else if (offsetHolder != null) {
+                // 后一个key一定不会在前一个key之前 下界可以一直往后移
+                Map<Long, byte[]> keyCache = new HashMap<>();
+                long low = left.getValue();
+                for (String key : sortedKeys) {
+                    long index = searchRecordIndex(low, right.getValue(),
+                            key.getBytes(StandardCharsets.UTF_8), keyCache);
+                    if (index >= 0) {
+                        results.put(key, getRecord(index));
+                        low = index;
+                    } else {
+                        low = -index - 1;
+                    }
+                }
+            } else {
+                for (String key : sortedKeys) {
+                    DataTurboResult result = binarySearch(left, right, key);
+                    if (result != null) {
+                        results.put(key, result);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 从start开始顺序读取记录 和有序的key做归并
+         *
+         * @param start      第一条记录的偏移量
+         * @param end        最后一条记录的偏移量
+         * @param sortedKeys 有序的key
+         * @param results    结果
+         * @throws IOException 可能会存在io异常
+         */
+        protected void sweep(long start, long end, List<String> sortedKeys,
+                             Map<String, DataTurboResult> results) throws IOException {
+            RecordCursor cursor = new RecordCursor(start);
+            int k = 0;
+            while (k < sortedKeys.size() && cursor.next() && cursor.getOffset() <= end) {
+                String recordKey = cursor.getKey();
+                // 比当前记录小的key都不存在
+                while (k < sortedKeys.size() && comparator.compare(recordKey,
+                        sortedKeys.get(k)) > 0) {
+                    k++;
+                }
+                DataTurboResult result = null;
+                while (k < sortedKeys.size() && comparator.compare(recordKey,
+                        sortedKeys.get(k)) == 0) {
+                    if (result == null) {
+                        result = cursor.getResult();
+                    }
+                    results.put(sortedKeys.get(k), result);
+                    k++;
+                }
+            }
+        }
+
+        /**
+         * 通过记录偏移量数据块按记录序号进行二分查找 v2版本使用
+         * 每次探测只需要读取一个偏移量和一个key
+         *
+         * @param left      左边的索引 值为记录序号
+         * @param right     右边的索引 值为记录序号
+         * @param targetKey 目标key
+         * @return 如果存在返回解析好的result 如果不存在返回null
+         * @throws IOException 可能会存在io异常
+         */
+        protected DataTurboResult binarySearchRecord(Map.Entry<String, Long> left,
+                                                     Map.Entry<String, Long> right,
+                                                     String targetKey) throws IOException {
+            if (comparator.compare(left.getKey(), targetKey) == 0) {
+                return getRecord(left.getValue());
+            }
+            if (comparator.compare(right.getKey(), targetKey) == 0) {
+                return getRecord(right.getValue());
+            }
+            long index = searchRecordIndex(left.getValue() + 1, right.getValue() - 1,
+                    targetKey.getBytes(StandardCharsets.UTF_8), null);
+            return index >= 0 ? getRecord(index) : null;
+        }
+
+        /**
+         * 在记录序号区间内二分查找
+         * 直接用比较器比较文件中key的字节 不需要解码成字符串
+         *
+         * @param low       最小的记录序号
+         * @param high      最大的记录序号
+         * @param targetKey 目标key的UTF-8编码
+         * @param keyCache  记录序号 - key字节 的缓存 批量查询时共享 可以为null
+         * @return 找到时返回记录序号 找不到时返回 -(插入位置) - 1
+         * @throws IOException 可能会存在io异常
+         */
+        protected long searchRecordIndex(long low, long high, byte[] targetKey,
+                                         Map<Long, byte[]> keyCache) throws IOException {
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                int i;
+                if (keyCache == null) {
+                    ByteBuffer midKey = getRecordKeyBytes(mid);
+                    i = comparator.compareBytes(midKey, 0, midKey.limit(), targetKey);
+                } else {
+                    byte[] midKey = keyCache.get(mid);
+                    if (midKey == null) {
+                        ByteBuffer buffer = getRecordKeyBytes(mid);
+                        midKey = new byte[buffer.limit()];
+                        buffer.get(midKey);
+                        keyCache.put(mid, midKey);
+                    }
+                    i = comparator.compareBytes(midKey, 0, midKey.length, targetKey, 0, targetKey.length);
+                }
+                if (i < 0) {
+                    low = mid + 1;
+                } else if (i > 0) {
+                    high = mid - 1;
                 } else {
-                    long keyStart = start + i + 1;
-                    start += length;
-                    keyBuffer.write(bytes, i + 1, bytes.length - i - 1);
-                    while (true) {
-                        end = start + valueBlockLength;
-                        length = end - start > preStepReadCount ? preStepReadCount :
-                                ((Long) (end - start)).intValue();
-                        bytes = valuesHolder.read(start, length);
-                        j = ByteUtils.indexOfBytes(bytes, splitChar2Byte, 0);
-                        if (j != -1) {
-                            keyBuffer.write(bytes, 0, j);
-                            return Pair.of(keyBuffer.toString("utf-8"), keyStart);
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        /**
+         * 获得记录在信息数据块中的偏移量
+         *
+         * @param index 记录序号
+         * @return 偏移量
+         * @throws IOException 可能会存在io异常
+         */
+        protected long getRecordOffset(long index) throws IOException {
+            return Longs.fromByteArray(offsetHolder.read(index * 8, 8));
+        }
+
+        /**
+         * 获得记录的key
+         *
+         * @param index 记录序号
+         * @return key
+         * @throws IOException 可能会存在io异常
+         */
+        protected String getRecordKey(long index) throws IOException {
+            return valuesHolder.read(getRecordOffset(index),
+                    DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2);
+        }
+
+        /**
+         * 获得记录的key的字节 不解码
+         * 先读取记录的开头 key比较长时再读取整条记录
+         *
+         * @param index 记录序号
+         * @return 只读的视图 position为0 limit为key的长度
+         * @throws IOException 可能会存在io异常
+         */
+        protected ByteBuffer getRecordKeyBytes(long index) throws IOException {
+            long start;
+            long end;
+            if (index + 1 < count) {
+                ByteBuffer offsets = offsetHolder.slice(index * 8, 16);
+                start = offsets.getLong(0);
+                end = offsets.getLong(8);
+            } else {
+                start = getRecordOffset(index);
+                end = valueBlockLength;
+            }
+            int length = Ints.checkedCast(end - start);
+            ByteBuffer record = valuesHolder.slice(start, Math.min(length, preStepReadCount));
+            int keyEnd = ByteUtils.indexOf(record, splitChar2Byte, 0);
+            if (keyEnd < 0 && record.limit() < length) {
+                record = valuesHolder.slice(start, length);
+                keyEnd = ByteUtils.indexOf(record, splitChar2Byte, 0);
+            }
+            if (keyEnd < 0) {
+                throw new IOException("value block has error at record: " + index);
+            }
+            record.limit(keyEnd);
+            return record;
+        }
+
+        /**
+         * 获得整条记录
+         *
+         * @param index 记录序号
+         * @return 解析好的记录
+         * @throws IOException 可能会存在io异常
+         */
+        protected DataTurboResult getRecord(long index) throws IOException {
+            return getNextRecord(getRecordOffset(index));
+        }
+
+        /**
+         * 在某一个范围内进行查找
+         *
+         * @param start     开始字节数
+         * @param end       结束字节数
+         * @param targetKey 目标key
+         * @return 如果存在返回解析好的result 如果不存在返回null
+         * @throws IOException 可能会存在io异常
+         */
+        protected DataTurboResult findInScope(Long start, Long end, String targetKey) throws IOException {
+            Map.Entry<String, Long> nextPosition = getNextPosition(start);
+            while (nextPosition != null && nextPosition.getValue() <= end) {
+                int i = comparator.compare(targetKey, nextPosition.getKey());
+                if (i == 0) {
+                    return getNextRecord(nextPosition.getValue());
+                } else if (i < 0) {
+                    return null;
+                }
+                nextPosition =
+                        getNextPosition(nextPosition.getValue() + ByteUtils.getByteCountUTF8(nextPosition.getKey()) + 1);
+            }
+            return null;
+
+            /*byte[] bytes = valuesHolder.read(start, Ints.checkedCast(end - start));
+            String cache = new String(bytes, StandardCharsets.UTF_8);
+            String[] split = cache.split(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_3);
+            for (String s : split) {
+                String[] kv = s.split(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2, 2);
+                if (kv.length == 2 && comparator.compare(kv[0], targetKey) == 0) {
+                    return new DataTurboResult(kv[0], buildValue(kv[1]));
+                } else if (kv.length == 2 && comparator.compare(kv[0], targetKey) > 0) {
+                    break;
+                }
+            }
+            return null;*/
+        }
+
+        /**
+         * 根据给定的偏移量寻找下一个记录
+         *
+         * @param start 偏移量
+         * @return 下一个结果
+         * @throws IOException 可能会存在io异常
+         */
+        protected DataTurboResult getNextRecord(Long start) throws IOException {
+            String key = valuesHolder.read(start,
+                    DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2);
+            if (key == null) {
+                return null;
+            }
+            int keyByteLength = ByteUtils.getByteCountUTF8(key);
+            String value = valuesHolder.read(start + keyByteLength + splitChar2Len,
+                    DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_3);
+            return new DataTurboResult(keyEnum.toKey(key), buildValue(value));
+        }
+
+        /**
+         * 根据存储的value字符串构建values
+         *
+         * @param value value字符串
+         * @return string-string 格式的kv对象
+         * @throws IOException 如果遇见引用型value 可能会出现io异常
+         */
+        protected Map<String, String> buildValue(String value) throws IOException {
+            if (isValueReference(value)) {
+                byte[] bytes = value.substring(1).getBytes(StandardCharsets.UTF_8);
+                long pos = Longs.fromBytes(bytes[0], bytes[1], bytes[2], bytes[3], bytes[4], bytes[5]
+                        , bytes[6], bytes[7]);
+                int count = Ints.fromBytes(bytes[8], bytes[9], bytes[10], bytes[11]);
+                byte[] read = referenceHolder.read(pos, count);
+                value = new String(read, StandardCharsets.UTF_8);
+            }
+            return buildFields(value, fieldValue -> new String(referenceHolder.read(
+                    NormalReference.getPosition(fieldValue), NormalReference.getLength(fieldValue)),
+                    StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @return v6之前的版本整个value是否是一个引用
+         */
+        private boolean isValueReference(String value) {
+            return version < NormalFileHeader.VERSION_6
+                    && value.startsWith(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_4);
+        }
+
+        /**
+         * @return v6版本的字段值是否是一个引用
+         */
+        private boolean isFieldReference(String fieldValue) {
+            return version >= NormalFileHeader.VERSION_6 && !fieldValue.isEmpty()
+                    && fieldValue.charAt(0) == NormalReference.MARK;
+        }
+
+        /**
+         * 按字段切分value
+         *
+         * @param value    已经替换过整体引用的value字符串
+         * @param resolver 读取v6版本字段级别引用的值
+         * @return string-string 格式的kv对象
+         * @throws IOException 读取引用异常
+         */
+        private Map<String, String> buildFields(String value, ReferenceResolver resolver) throws IOException {
+            // 手动切分 不创建中间数组 也不会丢掉末尾的空字段
+            char split2 = DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2.charAt(0);
+            Map<String, String> map = new HashMap<>(fields.length, 1.0f);
+            int start = 0;
+            int n = 0;
+            while (n < fields.length) {
+                int end = value.indexOf(split2, start);
+                if (end < 0) {
+                    end = value.length();
+                }
+                String fieldValue = value.substring(start, end);
+                if (isFieldReference(fieldValue)) {
+                    // v6版本的字段级别引用
+                    fieldValue = resolver.resolve(fieldValue);
+                }
+                map.put(fields[n++], fieldValue);
+                start = end + 1;
+                if (end == value.length()) {
+                    break;
+                }
+            }
+            if (n != fields.length || start <= value.length()) {
+                throw new RuntimeException(String.format("value string has wrong expect field count: " +
+                        "%d, get: %d", fields.length, n + (start <= value.length() ? 1 : 0)));
+            }
+            return map;
+        }
+
+        /**
+         * 获得下一个位置 一般是从截断的位置开始 往下寻找
+         *
+         * @param start 开始的偏移量
+         * @return key-offset 格式的数据对
+         * @throws IOException 可能会存在io异常
+         */
+        protected Map.Entry<String, Long> getNextPosition(long start) throws IOException {
+            long recordEnd = valuesHolder.indexOf(start, SPLIT_CHAR3_BYTE);
+            if (recordEnd == -1) {
+                return null;
+            }
+            long keyStart = recordEnd + 1;
+            long keyEnd = valuesHolder.indexOf(keyStart, splitChar2Byte);
+            if (keyEnd == -1) {
+                return null;
+            }
+            byte[] key = valuesHolder.read(keyStart, Ints.checkedCast(keyEnd - keyStart));
+            return Pair.of(new String(key, StandardCharsets.UTF_8), keyStart);
+        }
+
+        /**
+         * 加载文本格式的索引 v1 v2版本使用 直接在字节上解析 不需要先转换成字符串
+         * 格式为 key + \u0011 + 十进制位置 多条索引之间用 \u0012 分隔
+         *
+         * @param indexBytes 索引数据块
+         * @return 索引
+         */
+        private SparseIndex loadIndex(byte[] indexBytes) {
+            byte split1 = (byte) DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_1.charAt(0);
+            byte split2 = (byte) DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2.charAt(0);
+            SparseIndex.Builder builder = SparseIndex.builder(comparator);
+            int start = 0;
+            while (start < indexBytes.length) {
+                int keyEnd = start;
+                while (keyEnd < indexBytes.length && indexBytes[keyEnd] != split1) {
+                    keyEnd++;
+                }
+                if (keyEnd == indexBytes.length) {
+                    throw new RuntimeException("index file has error");
+                }
+                int end = keyEnd + 1;
+                long position = 0;
+                while (end < indexBytes.length && indexBytes[end] != split2) {
+                    int digit = indexBytes[end] - '0';
+                    if (digit < 0 || digit > 9) {
+                        throw new RuntimeException("index file has error");
+                    }
+                    position = position * 10 + digit;
+                    end++;
+                }
+                if (end == keyEnd + 1) {
+                    throw new RuntimeException("index file has error");
+                }
+                builder.add(indexBytes, start, keyEnd, position);
+                start = end + 1;
+            }
+            return builder.build();
+        }
+
+        private void cleanHolders() {
+            referenceHolder.clean();
+            valuesHolder.clean();
+            if (offsetHolder != null) {
+                offsetHolder.clean();
+            }
+        }
+
+        /**
+         * 异步读取记录 持有加载时的索引和各个数据块的位置 重新加载时会整体替换
+         */
+        private final class AsyncReader {
+
+            private final AsynchronousFileChannel channel;
+            private final SparseIndex sparseIndex;
+            private final long valueBlockOffset;
+            private final long offsetBlockOffset;
+            private final long count;
+            private final long valueBlockLength;
+            private final long referenceBlockOffset;
+
+            private AsyncReader(AsynchronousFileChannel channel, SparseIndex sparseIndex,
+                                NormalFileHeader header) {
+                this.channel = channel;
+                this.sparseIndex = sparseIndex;
+                this.valueBlockOffset = header.getValueBlockOffset();
+                this.offsetBlockOffset = header.getExtensionBlockOffset(NormalBlockEnum.OFFSET);
+                this.count = header.getCount();
+                this.valueBlockLength = header.getValueBlockLength();
+                this.referenceBlockOffset = header.getReferenceBlockOffset();
+            }
+
+            /**
+             * 绝对位置异步读取 直到读满或者到达文件末尾
+             */
+            private CompletableFuture<ByteBuffer> read(long position, int length) {
+                CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                channel.read(buffer, position, buffer, new CompletionHandler<Integer, ByteBuffer>() {
+                    @Override
+                    public void completed(Integer result, ByteBuffer attachment) {
+                        if (result < 0 || !attachment.hasRemaining()) {
+                            attachment.flip();
+                            future.complete(attachment);
                         } else {
-                            start += length;
-                            keyBuffer.write(bytes);
+                            channel.read(attachment, position + attachment.position(), attachment, this);
                         }
                     }
+
+                    @Override
+                    public void failed(Throwable exc, ByteBuffer attachment) {
+                        future.completeExceptionally(exc);
+                    }
+                });
+                return future;
+            }
+
+            /**
+             * 读取一条记录的开头 足够解析出key
+             * 先读取记录的起止偏移量 再读取记录的前 {@link #preStepReadCount} 个字节
+             * key比较长时读取整条记录
+             */
+            private CompletableFuture<AsyncRecord> readRecord(long index, Executor executor) {
+                boolean last = index + 1 >= count;
+                return read(offsetBlockOffset + index * 8, last ? 8 : 16).thenComposeAsync(offsets -> {
+                    long start = offsets.getLong();
+                    long end = last ? valueBlockLength : offsets.getLong();
+                    int length = Ints.checkedCast(end - start);
+                    return read(valueBlockOffset + start, Math.min(length, preStepReadCount))
+                            .thenComposeAsync(head -> {
+                                if (ByteUtils.indexOf(head, splitChar2Byte, 0) >= 0 || head.limit() == length) {
+                                    return CompletableFuture.completedFuture(new AsyncRecord(this, start,
+                                            length, head));
+                                }
+                                return read(valueBlockOffset + start, length).thenApply(all ->
+                                        new AsyncRecord(this, start, length, all));
+                            }, executor);
+                }, executor);
+            }
+
+            private void close() {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // ignore
                 }
             }
         }
+
+        /**
+         * 异步读取到的记录 bytes可能只包含记录的开头
+         */
+        private final class AsyncRecord {
+
+            private final AsyncReader reader;
+            private final long start;
+            private final int length;
+            private final ByteBuffer bytes;
+            /**
+             * key在bytes中的结束位置 比较时直接使用字节
+             */
+            private final int keyEnd;
+
+            private AsyncRecord(AsyncReader reader, long start, int length, ByteBuffer bytes) {
+                this.reader = reader;
+                this.start = start;
+                this.length = length;
+                this.bytes = bytes;
+                int end = ByteUtils.indexOf(bytes, splitChar2Byte, 0);
+                this.keyEnd = end < 0 ? bytes.limit() : end;
+            }
+
+            /**
+             * 解析整条记录 只读取了开头时会先读取剩下的部分
+             */
+            private CompletableFuture<DataTurboResult> toResult(Executor executor) {
+                if (bytes.limit() < length) {
+                    return reader.read(reader.valueBlockOffset + start, length).thenComposeAsync(all ->
+                            new AsyncRecord(reader, start, length, all).parse(executor), executor);
+                }
+                return parse(executor);
+            }
+
+            /**
+             * 引用的值也通过异步读取 不会在回调线程中阻塞读取引用数据块
+             */
+            private CompletableFuture<DataTurboResult> parse(Executor executor) {
+                String key = keyEnum.toKey(decode(bytes, 0, keyEnd));
+                // 去掉结尾的记录分隔符
+                String value = decode(bytes, keyEnd + splitChar2Len, length - SPLIT_CHAR3_BYTE.length);
+                if (isValueReference(value)) {
+                    byte[] bytes = value.substring(1).getBytes(StandardCharsets.UTF_8);
+                    long pos = Longs.fromBytes(bytes[0], bytes[1], bytes[2], bytes[3], bytes[4], bytes[5]
+                            , bytes[6], bytes[7]);
+                    int count = Ints.fromBytes(bytes[8], bytes[9], bytes[10], bytes[11]);
+                    return readReference(pos, count).thenComposeAsync(referenceValue ->
+                            parseFields(key, referenceValue), executor);
+                }
+                return parseFields(key, value);
+            }
+
+            /**
+             * 先并发读取所有字段级别的引用 全部读取完成之后再切分字段
+             */
+            private CompletableFuture<DataTurboResult> parseFields(String key, String value) {
+                Map<String, CompletableFuture<String>> references = new HashMap<>();
+                if (version >= NormalFileHeader.VERSION_6) {
+                    char split2 = DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2.charAt(0);
+                    int start = 0;
+                    while (start <= value.length()) {
+                        int end = value.indexOf(split2, start);
+                        if (end < 0) {
+                            end = value.length();
+                        }
+                        String fieldValue = value.substring(start, end);
+                        if (isFieldReference(fieldValue)) {
+                            references.computeIfAbsent(fieldValue, r -> readReference(
+                                    NormalReference.getPosition(r), NormalReference.getLength(r)));
+                        }
+                        start = end + 1;
+                    }
+                }
+                return CompletableFuture.allOf(references.values().toArray(new CompletableFuture[0]))
+                        .thenApply(v -> {
+                            try {
+                                return new DataTurboResult(key, buildFields(value,
+                                        fieldValue -> references.get(fieldValue).join()));
+                            } catch (IOException e) {
+                                throw new CompletionException(e);
+                            } finally {
+                                // 和同步查询一样 回调线程不持有任何通道
+                                cleanHolders();
+                            }
+                        });
+            }
+
+            private CompletableFuture<String> readReference(long position, int count) {
+                return reader.read(reader.referenceBlockOffset + position, count).thenApply(buffer ->
+                        decode(buffer, 0, buffer.limit()));
+            }
+        }
+
+        /**
+         * 顺序读取信息数据块的游标
+         * 每次读取一大块数据 在内存中解析记录 适合连续读取很多条记录的场景
+         * 游标不是线程安全的
+         */
+        private class RecordCursor {
+
+            /**
+             * 下一条记录的偏移量
+             */
+            private long position;
+            /**
+             * 当前缓冲区在信息数据块中的偏移量
+             */
+            private long bufferStart;
+            private ByteBuffer buffer;
+            private long offset = -1;
+            private String key;
+            private int valueStart;
+            private int valueEnd;
+
+            /**
+             * @param start 第一条记录的偏移量 必须是一条记录的开头
+             */
+            protected RecordCursor(long start) {
+                this.position = start;
+            }
+
+            /**
+             * 移动到下一条记录
+             *
+             * @return 如果已经没有记录了返回false
+             * @throws IOException 可能会存在io异常
+             */
+            public boolean next() throws IOException {
+                int readCount = sequentialReadCount;
+                while (position < valueBlockLength) {
+                    if (buffer != null && position >= bufferStart && position < bufferStart + buffer.limit()) {
+                        int start = (int) (position - bufferStart);
+                        int keyEnd = ByteUtils.indexOf(buffer, splitChar2Byte, start);
+                        int recordEnd = keyEnd == -1 ? -1 : ByteUtils.indexOf(buffer,
+                                SPLIT_CHAR3_BYTE, keyEnd + 1);
+                        if (recordEnd != -1) {
+                            offset = position;
+                            key = decode(buffer, start, keyEnd);
+                            valueStart = keyEnd + splitChar2Len;
+                            valueEnd = recordEnd;
+                            position = bufferStart + recordEnd + 1;
+                            return true;
+                        }
+                        // 数据块末尾不是完整的记录
+                        if (bufferStart + buffer.limit() >= valueBlockLength) {
+                            return false;
+                        }
+                        // 一条记录比缓冲区还要大 扩大一次读取的量
+                        if (start == 0) {
+                            readCount = buffer.limit() * 2;
+                        }
+                    }
+                    bufferStart = position;
+                    buffer = valuesHolder.slice(position, (int) Math.min(readCount,
+                            valueBlockLength - position));
+                }
+                return false;
+            }
+
+            /**
+             * @return 当前记录的偏移量
+             */
+            public long getOffset() {
+                return offset;
+            }
+
+            /**
+             * @return 当前记录的key
+             */
+            public String getKey() {
+                return key;
+            }
+
+            /**
+             * 解析当前记录 需要在下一次调用 {@link #next()} 之前调用
+             *
+             * @return 解析好的记录
+             * @throws IOException 如果遇见引用型value 可能会出现io异常
+             */
+            public DataTurboResult getResult() throws IOException {
+                return new DataTurboResult(keyEnum.toKey(key), buildValue(decode(buffer, valueStart,
+                        valueEnd)));
+            }
+        }
     }
 
     /**
-     * 加载索引
-     *
-     * @param indexBytes 索引数据块
-     */
-    protected void loadIndex(byte[] indexBytes) {
-        String[] indexString =
-                new String(indexBytes).split(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2);
-        for (String s : indexString) {
-            String[] split = s.split(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_1);
-            if (split.length == 2) {
-                indexMap.put(split[0], Long.parseLong(split[1]));
-            } else {
-                throw new RuntimeException("index file has error");
+     * 扫描使用的迭代器 跳过小于开始key的记录 遇到不满足条件的记录时结束
+     * 迭代器持有创建时的数据 读完或者调用 {@link #close()} 之后释放
+     */
+    public class ScanIterator implements Iterator<DataTurboResult>, AutoCloseable {
+
+        private final Generation generation;
+        private final Generation.RecordCursor cursor;
+        private final String fromKey;
+        private final Predicate<String> condition;
+        private DataTurboResult next;
+        private boolean finished;
+
+        private ScanIterator(Generation generation, long start, String fromKey,
+                             Predicate<String> condition) {
+            this.generation = generation;
+            this.cursor = generation.new RecordCursor(start);
+            this.fromKey = fromKey;
+            this.condition = condition;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !finished) {
+                next = advance();
+                if (next == null) {
+                    close();
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public DataTurboResult next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            DataTurboResult ret = next;
+            next = null;
+            return ret;
+        }
+
+        private DataTurboResult advance() {
+            try {
+                while (cursor.next()) {
+                    String key = cursor.getKey();
+                    if (fromKey != null && generation.comparator.compare(key, fromKey) < 0) {
+                        continue;
+                    }
+                    return condition.test(key) ? cursor.getResult() : null;
+                }
+                return null;
+            } catch (IOException e) {
+                throw new RuntimeException("[data-turbo] scan with exception: ", e);
+            } finally {
+                // 迭代器可能被随时丢弃 不在线程上保留文件通道
+                generation.cleanHolders();
+            }
+        }
+
+        /**
+         * 结束扫描 释放持有的数据 可以重复调用
+         */
+        @Override
+        public void close() {
+            if (!finished) {
+                finished = true;
+                generation.release();
+            }
+        }
+    }
+
+    /**
+     * 每个线程复用的查询缓冲区 只在查询过程中使用
+     */
+    private static final class Scratch {
+
+        private byte[] key = new byte[64];
+        private byte[] record = new byte[512];
+        private final byte[] offsets = new byte[16];
+        private final long[] hashes = new long[2];
+        private final DataTurboResultHolder result = new DataTurboResultHolder();
+        private long start;
+        private long end;
+
+        /**
+         * 把key编码到key缓冲区中
+         *
+         * @return 编码后的长度
+         */
+        private int encode(String key) {
+            if (this.key.length < key.length() * 3) {
+                this.key = new byte[key.length() * 3];
+            }
+            return ByteUtils.encodeUTF8(key, this.key);
+        }
+
+        /**
+         * @return 长度至少为length的记录缓冲区
+         */
+        private byte[] record(int length) {
+            if (record.length < length) {
+                record = new byte[Math.max(length, record.length * 2)];
             }
+            return record;
         }
     }
 }
@@ -4,9 +4,17 @@ import com.dazo66.data.turbo.key.predictor.IKeyComparator;
 import com.dazo66.data.turbo.model.DataTurboDetail;
 import com.dazo66.data.turbo.model.DataTurboResult;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * 支持增量的客户端
@@ -28,6 +36,10 @@ public class PatchDataTurboClient extends AbstractDataTurboClient {
 
     @Override
     public DataTurboResult search(String key) {
+        return searchWithCache(key, this::searchFromClients);
+    }
+
+    private DataTurboResult searchFromClients(String key) {
         for (AbstractDataTurboClient client : patches) {
             DataTurboResult result = client.search(key);
             if (result != null) {
@@ -37,6 +49,36 @@ public class PatchDataTurboClient extends AbstractDataTurboClient {
         return abstractDataTurboClient.search(key);
     }
 
+    /**
+     * 依次异步查询补丁和原始数据 前一个没有查到才会查询下一个
+     *
+     * @param key      key
+     * @param executor 执行查询和回调的线程池
+     * @return 查询到的对象
+     */
+    @Override
+    public CompletableFuture<DataTurboResult> searchAsync(String key, Executor executor) {
+        return searchWithCacheAsync(key, k -> {
+            List<AbstractDataTurboClient> clients;
+            synchronized (patches) {
+                clients = new ArrayList<>(patches);
+            }
+            clients.add(abstractDataTurboClient);
+            return searchClientsAsync(clients, 0, k, executor);
+        });
+    }
+
+    private static CompletableFuture<DataTurboResult> searchClientsAsync(List<AbstractDataTurboClient> clients,
+                                                                        int i, String key,
+                                                                        Executor executor) {
+        return clients.get(i).searchAsync(key, executor).thenCompose(result -> {
+            if (result != null || i == clients.size() - 1) {
+                return CompletableFuture.completedFuture(result);
+            }
+            return searchClientsAsync(clients, i + 1, key, executor);
+        });
+    }
+
     @Override
     public boolean searchNameList(String key) {
         for (AbstractDataTurboClient client : patches) {
@@ -47,12 +89,55 @@ public class PatchDataTurboClient extends AbstractDataTurboClient {
         return abstractDataTurboClient.searchNameList(key);
     }
 
+    /**
+     * 先批量查询补丁 补丁中没有查到的key再批量查询原始数据
+     *
+     * @param keys 需要查询的key
+     * @return 查询key - 查询到的对象
+     */
+    @Override
+    public Map<String, DataTurboResult> searchBatch(Collection<String> keys) {
+        Map<String, DataTurboResult> results = new HashMap<>();
+        Set<String> remaining = new LinkedHashSet<>(keys);
+        for (AbstractDataTurboClient client : patches) {
+            if (remaining.isEmpty()) {
+                return results;
+            }
+            Map<String, DataTurboResult> patchResults = client.searchBatch(remaining);
+            results.putAll(patchResults);
+            remaining.removeAll(patchResults.keySet());
+        }
+        if (!remaining.isEmpty()) {
+            results.putAll(abstractDataTurboClient.searchBatch(remaining));
+        }
+        return results;
+    }
+
+    @Override
+    public Set<String> searchNameListBatch(Collection<String> keys) {
+        Set<String> results = new HashSet<>();
+        Set<String> remaining = new LinkedHashSet<>(keys);
+        for (AbstractDataTurboClient client : patches) {
+            if (remaining.isEmpty()) {
+                return results;
+            }
+            Set<String> patchResults = client.searchNameListBatch(remaining);
+            results.addAll(patchResults);
+            remaining.removeAll(patchResults);
+        }
+        if (!remaining.isEmpty()) {
+            results.addAll(abstractDataTurboClient.searchNameListBatch(remaining));
+        }
+        return results;
+    }
+
     @Override
     public void load() throws Exception {
         abstractDataTurboClient.load();
         for (AbstractDataTurboClient client : patches) {
             client.load();
         }
+        resetResultCache();
     }
 
     @Override
@@ -61,6 +146,7 @@ public class PatchDataTurboClient extends AbstractDataTurboClient {
         for (AbstractDataTurboClient client : patches) {
             client.load();
         }
+        resetResultCache();
     }
 
     @Override
@@ -87,6 +173,8 @@ public class PatchDataTurboClient extends AbstractDataTurboClient {
         if (client != null) {
             client.load();
             patches.add(client);
+            // 补丁会覆盖原有的数据 之前缓存的结果已经失效
+            resetResultCache();
         } else {
             throw new RuntimeException("build patches client with error");
         }
@@ -0,0 +1,264 @@
+package com.dazo66.data.turbo;
+
+import com.dazo66.data.turbo.key.predictor.IKeyComparator;
+import com.dazo66.data.turbo.model.DataFileEnum;
+import com.dazo66.data.turbo.model.DataTurboDetail;
+import com.dazo66.data.turbo.model.DataTurboResult;
+import com.dazo66.data.turbo.model.KeyEnum;
+import com.dazo66.data.turbo.util.DataTurboConstants;
+import com.dazo66.data.turbo.util.ShardUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 分片数据的查询客户端
+ * 每个分片使用一个单独的客户端加载 查询时按key的hash路由到对应的分片
+ * 清单detail中的配置会覆盖分片detail中的同名配置 加载模式也以清单为准
+ * 结果缓存只在这一层开启 分片的客户端不会再缓存一次
+ *
+ * @author dazo66
+ * @see DataFileEnum#SHARDED
+ **/
+public class ShardedDataTurboClient extends AbstractDataTurboClient {
+
+    /**
+     * 当前加载的所有分片 和 {@link NormalDataTurboClient} 一样整体替换并通过引用计数释放
+     */
+    private final AtomicReference<Shards> shards = new AtomicReference<>();
+
+    public ShardedDataTurboClient(DataTurboDetail dataTurboDetail) {
+        super(dataTurboDetail);
+    }
+
+    @Override
+    public DataTurboResult search(String key) {
+        return searchWithCache(key, this::searchFromShard);
+    }
+
+    private DataTurboResult searchFromShard(String key) {
+        Shards s = acquire();
+        try {
+            return s.getClient(key).search(key);
+        } finally {
+            s.release();
+        }
+    }
+
+    @Override
+    public boolean searchNameList(String key) {
+        return search(key) != null;
+    }
+
+    /**
+     * 异步查询 直接使用对应分片的异步查询
+     *
+     * @param key      key
+     * @param executor 执行回调的线程池
+     * @return 查询到的对象
+     */
+    @Override
+    public CompletableFuture<DataTurboResult> searchAsync(String key, Executor executor) {
+        Shards s = acquire();
+        CompletableFuture<DataTurboResult> future;
+        try {
+            future = searchWithCacheAsync(key, k -> s.getClient(k).searchAsync(k, executor));
+        } catch (RuntimeException e) {
+            s.release();
+            throw e;
+        }
+        return future.whenComplete((result, e) -> s.release());
+    }
+
+    /**
+     * 按分片把key分组 每个分片批量查询一次
+     *
+     * @param keys 需要查询的key
+     * @return 查询key - 查询到的对象
+     */
+    @Override
+    public Map<String, DataTurboResult> searchBatch(Collection<String> keys) {
+        Shards s = acquire();
+        try {
+            List<List<String>> groups = new ArrayList<>(s.clients.length);
+            for (int i = 0; i < s.clients.length; i++) {
+                groups.add(new ArrayList<>());
+            }
+            for (String key : keys) {
+                groups.get(s.getShard(key)).add(key);
+            }
+            Map<String, DataTurboResult> results = new HashMap<>(keys.size());
+            for (int i = 0; i < s.clients.length; i++) {
+                if (!groups.get(i).isEmpty()) {
+                    results.putAll(s.clients[i].searchBatch(groups.get(i)));
+                }
+            }
+            return results;
+        } finally {
+            s.release();
+        }
+    }
+
+    @Override
+    public Set<String> searchNameListBatch(Collection<String> keys) {
+        return new HashSet<>(searchBatch(keys).keySet());
+    }
+
+    /**
+     * 加载清单中的所有分片 全部加载成功之后一次性替换掉旧的分片
+     * 任意一个分片加载失败时 已经加载的分片会被关闭 旧的分片不受影响
+     *
+     * @throws Exception 加载时的错误抛出
+     */
+    @Override
+    public void load() throws Exception {
+        DataTurboDetail manifest = getDataTurboDetail();
+        List<DataTurboDetail> shardDetails = manifest.getShards();
+        if (shardDetails == null || shardDetails.isEmpty()) {
+            throw new IllegalArgumentException("sharded detail has no shards");
+        }
+        AbstractDataTurboClient[] clients = new AbstractDataTurboClient[shardDetails.size()];
+        try {
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = DataTurboClientFactory.get(getShardDetail(manifest,
+                        shardDetails.get(i)));
+                clients[i].load();
+            }
+        } catch (Exception e) {
+            closeClients(clients);
+            throw e;
+        }
+        Shards old = shards.getAndSet(new Shards(clients, shardDetails.get(0).getKeyEnum()));
+        resetResultCache();
+        if (old != null) {
+            old.release();
+        }
+    }
+
+    /**
+     * 生成分片客户端使用的detail 不会修改清单中的分片detail
+     */
+    private static DataTurboDetail getShardDetail(DataTurboDetail manifest, DataTurboDetail shard) {
+        Map<String, String> config = new HashMap<>(shard.getConfig());
+        config.putAll(manifest.getConfig());
+        config.remove(DataTurboConstants.CLIENT_CONFIG_RESULT_CACHE_SIZE);
+        return new DataTurboDetail()
+                .setDataId(shard.getDataId())
+                .setDataFile(shard.getDataFile())
+                .setDataVersion(shard.getDataVersion())
+                .setKeeperVersion(shard.getKeeperVersion())
+                .setKeyEnum(shard.getKeyEnum())
+                .setDataFileEnum(shard.getDataFileEnum() == null ? DataFileEnum.NORMAL :
+                        shard.getDataFileEnum())
+                .setFields(shard.getFields())
+                .setLoadEnum(manifest.getLoadEnum())
+                .setConfig(config);
+    }
+
+    private static void closeClients(AbstractDataTurboClient[] clients) {
+        for (AbstractDataTurboClient client : clients) {
+            if (client != null) {
+                try {
+                    client.close();
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * 关闭所有的分片 正在进行的查询完成之后才会真正释放
+     *
+     * @throws Exception 可能会出现异常
+     */
+    @Override
+    public void close() throws Exception {
+        Shards old = shards.getAndSet(null);
+        if (old != null) {
+            old.release();
+        }
+    }
+
+    private Shards acquire() {
+        while (true) {
+            Shards s = shards.get();
+            if (s == null) {
+                throw new RuntimeException("client are not load");
+            }
+            if (s.retain()) {
+                return s;
+            }
+        }
+    }
+
+    /**
+     * @return 分片数 没有加载时返回0
+     */
+    public int getShardCount() {
+        Shards s = shards.get();
+        return s == null ? 0 : s.clients.length;
+    }
+
+    /**
+     * 所有的分片使用同一个比较器
+     *
+     * @return 第一个分片的比较器 没有加载时返回null
+     */
+    @Override
+    public IKeyComparator getComparator() {
+        Shards s = shards.get();
+        return s == null ? null : s.clients[0].getComparator();
+    }
+
+    /**
+     * 一次加载的所有分片 客户端自己持有一个引用 每次查询持有一个引用
+     */
+    private static final class Shards {
+
+        private final AbstractDataTurboClient[] clients;
+
+        private final KeyEnum keyEnum;
+
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Shards(AbstractDataTurboClient[] clients, KeyEnum keyEnum) {
+            this.clients = clients;
+            this.keyEnum = keyEnum;
+        }
+
+        private int getShard(String key) {
+            return ShardUtils.getShard(key, keyEnum, clients.length);
+        }
+
+        private AbstractDataTurboClient getClient(String key) {
+            return clients[getShard(key)];
+        }
+
+        private boolean retain() {
+            int n;
+            do {
+                n = references.get();
+                if (n <= 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(n, n + 1));
+            return true;
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                closeClients(clients);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.dazo66.data.turbo.compress;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 压缩块索引 记录每个压缩块解压前后的偏移量
+ * 二进制格式 数字都是大端序：
+ * 4位int 压缩器名称长度 + 压缩器名称的UTF-8字节 + 8位long 解压后的总长度 + 8位long 压缩后的总长度
+ * + 4位int 块数n + n个(8位long 解压后的偏移量 + 8位long 压缩后的偏移量)
+ *
+ * @author dazo66
+ * @see com.dazo66.data.turbo.model.NormalBlockEnum#COMPRESS
+ */
+public class CompressBlockIndex {
+
+    private final String compressorName;
+    private long length;
+    private long compressedLength;
+    private int size;
+    private long[] starts;
+    private long[] compressedStarts;
+
+    public CompressBlockIndex(String compressorName) {
+        this(compressorName, 0, 0, 0, new long[16], new long[16]);
+    }
+
+    private CompressBlockIndex(String compressorName, long length, long compressedLength,
+                               int size, long[] starts, long[] compressedStarts) {
+        this.compressorName = compressorName;
+        this.length = length;
+        this.compressedLength = compressedLength;
+        this.size = size;
+        this.starts = starts;
+        this.compressedStarts = compressedStarts;
+    }
+
+    public static CompressBlockIndex readFrom(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte[] name = new byte[in.readInt()];
+        in.readFully(name);
+        long length = in.readLong();
+        long compressedLength = in.readLong();
+        int size = in.readInt();
+        long[] starts = new long[size];
+        long[] compressedStarts = new long[size];
+        for (int i = 0; i < size; i++) {
+            starts[i] = in.readLong();
+            compressedStarts[i] = in.readLong();
+        }
+        return new CompressBlockIndex(new String(name, StandardCharsets.UTF_8), length,
+                compressedLength, size, starts, compressedStarts);
+    }
+
+    /**
+     * 追加一个压缩块 打包时按顺序调用
+     *
+     * @param blockLength           解压后的长度
+     * @param compressedBlockLength 压缩后的长度
+     */
+    public void add(int blockLength, int compressedBlockLength) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            compressedStarts = Arrays.copyOf(compressedStarts, size * 2);
+        }
+        starts[size] = length;
+        compressedStarts[size] = compressedLength;
+        size++;
+        length += blockLength;
+        compressedLength += compressedBlockLength;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream dataOut = new DataOutputStream(out);
+        byte[] name = compressorName.getBytes(StandardCharsets.UTF_8);
+        dataOut.writeInt(name.length);
+        dataOut.write(name);
+        dataOut.writeLong(length);
+        dataOut.writeLong(compressedLength);
+        dataOut.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            dataOut.writeLong(starts[i]);
+            dataOut.writeLong(compressedStarts[i]);
+        }
+        dataOut.flush();
+    }
+
+    /**
+     * 找到包含给定偏移量的块
+     *
+     * @param position 解压后的偏移量
+     * @return 块序号
+     */
+    public int blockOf(long position) {
+        int i = Arrays.binarySearch(starts, 0, size, position);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    public String getCompressorName() {
+        return compressorName;
+    }
+
+    /**
+     * @return 解压后的总长度
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return 压缩后的总长度
+     */
+    public long getCompressedLength() {
+        return compressedLength;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getStart(int block) {
+        return starts[block];
+    }
+
+    public int getBlockLength(int block) {
+        return (int) ((block + 1 < size ? starts[block + 1] : length) - starts[block]);
+    }
+
+    /**
+     * @return 最大的解压后块长度 没有块时返回1
+     */
+    public int getMaxBlockLength() {
+        int max = 1;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, getBlockLength(i));
+        }
+        return max;
+    }
+
+    public long getCompressedStart(int block) {
+        return compressedStarts[block];
+    }
+
+    public int getCompressedBlockLength(int block) {
+        return (int) ((block + 1 < size ? compressedStarts[block + 1] : compressedLength)
+                - compressedStarts[block]);
+    }
+}
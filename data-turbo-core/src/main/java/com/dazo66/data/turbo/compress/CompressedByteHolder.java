@@ -0,0 +1,122 @@
+package com.dazo66.data.turbo.compress;
+
+import com.dazo66.data.turbo.util.BlockCache;
+import com.dazo66.data.turbo.util.ByteHolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 压缩数据块的holder
+ * 对外的偏移量都是解压后的偏移量 读取时先找到所在的压缩块 解压整个块之后再读取
+ * 解压后的块放在块缓存中 同一个块的多次读取只需要解压一次
+ *
+ * @author dazo66
+ * @see CompressBlockIndex
+ */
+public class CompressedByteHolder extends ByteHolder {
+
+    private final ByteHolder compressed;
+    private final CompressBlockIndex blockIndex;
+    private final ICompressor compressor;
+    private final BlockCache.BlockLoader loader = this::loadBlock;
+    private BlockCache blockCache;
+    private long cacheOwnerId;
+
+    /**
+     * @param compressed 压缩后的数据 按原本的加载方式加载
+     * @param blockIndex 压缩块索引
+     * @param blockCache 解压后的块缓存 不能为null
+     * @param stepCount  查找结束字节时每次读取的字节数
+     */
+    public CompressedByteHolder(ByteHolder compressed, CompressBlockIndex blockIndex,
+                                BlockCache blockCache, int stepCount) {
+        super(null, blockIndex.getLength(), stepCount);
+        this.compressed = compressed;
+        this.blockIndex = blockIndex;
+        this.compressor = CompressorFactory.get(blockIndex.getCompressorName());
+        setBlockCache(blockCache);
+    }
+
+    /**
+     * 设置解压后的块缓存 和普通holder不同 所有加载方式都会使用
+     *
+     * @param blockCache 块缓存 不能为null
+     * @return this
+     */
+    @Override
+    public ByteHolder setBlockCache(BlockCache blockCache) {
+        if (blockCache == null) {
+            throw new IllegalArgumentException("compressed holder must have a block cache");
+        }
+        if (this.blockCache != null) {
+            this.blockCache.invalidate(cacheOwnerId);
+        }
+        this.blockCache = blockCache;
+        this.cacheOwnerId = BlockCache.newOwnerId();
+        return this;
+    }
+
+    @Override
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    @Override
+    public void read(long offset, byte[] dst, int dstOffset, int length) throws IOException {
+        int copied = 0;
+        int block = blockIndex.blockOf(offset);
+        while (copied < length) {
+            byte[] data = getBlock(block);
+            int inBlock = (int) (offset + copied - blockIndex.getStart(block));
+            int len = Math.min(length - copied, data.length - inBlock);
+            if (len <= 0) {
+                throw new IOException("read out of block range: " + (offset + copied));
+            }
+            System.arraycopy(data, inBlock, dst, dstOffset + copied, len);
+            copied += len;
+            block++;
+        }
+    }
+
+    /**
+     * 没有跨块时直接返回解压后的块的视图
+     */
+    @Override
+    public ByteBuffer slice(long offset, int length) throws IOException {
+        int block = blockIndex.blockOf(offset);
+        int inBlock = (int) (offset - blockIndex.getStart(block));
+        if (inBlock + length <= blockIndex.getBlockLength(block)) {
+            return ByteBuffer.wrap(getBlock(block), inBlock, length).slice().asReadOnlyBuffer();
+        }
+        return ByteBuffer.wrap(read(offset, length)).asReadOnlyBuffer();
+    }
+
+    private byte[] getBlock(int block) throws IOException {
+        return blockCache.get(cacheOwnerId, block, loader);
+    }
+
+    private byte[] loadBlock(long block) throws IOException {
+        int i = (int) block;
+        byte[] src = compressed.read(blockIndex.getCompressedStart(i),
+                blockIndex.getCompressedBlockLength(i));
+        byte[] dst = new byte[blockIndex.getBlockLength(i)];
+        compressor.decompress(src, 0, src.length, dst);
+        return dst;
+    }
+
+    public CompressBlockIndex getBlockIndex() {
+        return blockIndex;
+    }
+
+    @Override
+    public void clean() {
+        compressed.clean();
+    }
+
+    @Override
+    public void close() {
+        compressed.close();
+        blockCache.invalidate(cacheOwnerId);
+    }
+}
@@ -0,0 +1,62 @@
+package com.dazo66.data.turbo.compress;
+
+import com.dazo66.data.turbo.util.Preconditions;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
+/**
+ * 压缩器的注册中心 按名称查找
+ * 内置了两种Deflate压缩器 需要更快的压缩算法(例如lz4)时可以自行实现并注册
+ * 打包和读取的进程都需要注册同一个压缩器
+ *
+ * @author dazo66
+ */
+public class CompressorFactory {
+
+    /**
+     * 默认级别的Deflate 压缩率更高
+     */
+    public static final String DEFLATE = "DEFLATE";
+    /**
+     * 最快级别的Deflate 打包更快
+     */
+    public static final String DEFLATE_FAST = "DEFLATE_FAST";
+
+    private static final Map<String, ICompressor> COMPRESSORS = new ConcurrentHashMap<>();
+
+    static {
+        register(new DeflateCompressor(DEFLATE, Deflater.DEFAULT_COMPRESSION));
+        register(new DeflateCompressor(DEFLATE_FAST, Deflater.BEST_SPEED));
+    }
+
+    private CompressorFactory() {
+    }
+
+    /**
+     * 注册压缩器 同名的会被替换
+     *
+     * @param compressor 压缩器
+     * @return 之前注册的同名压缩器
+     */
+    public static ICompressor register(ICompressor compressor) {
+        Preconditions.checkArgument(compressor != null && compressor.getName() != null,
+                "Argument can not be null!");
+        return COMPRESSORS.put(compressor.getName(), compressor);
+    }
+
+    /**
+     * 按名称查找压缩器
+     *
+     * @param name 名称
+     * @return 压缩器
+     */
+    public static ICompressor get(String name) {
+        ICompressor compressor = COMPRESSORS.get(name);
+        if (compressor == null) {
+            throw new IllegalArgumentException("unknown compressor: " + name);
+        }
+        return compressor;
+    }
+}
@@ -0,0 +1,79 @@
+package com.dazo66.data.turbo.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 使用jdk自带的Deflater压缩 不需要额外的依赖
+ * 压缩级别只影响打包 解压的速度和级别无关
+ *
+ * @author dazo66
+ */
+public class DeflateCompressor implements ICompressor {
+
+    /**
+     * 每个线程复用一个Inflater 避免每次解压都申请本地内存
+     */
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final String name;
+    private final int level;
+
+    /**
+     * @param name  压缩器名称
+     * @param level 压缩级别 见 {@link Deflater}
+     */
+    public DeflateCompressor(String name, int level) {
+        this.name = name;
+        this.level = level;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public byte[] compress(byte[] src, int off, int len) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(src, off, len);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, len / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void decompress(byte[] src, int off, int len, byte[] dst) throws IOException {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(src, off, len);
+        try {
+            int n = 0;
+            while (n < dst.length && !inflater.finished()) {
+                int read = inflater.inflate(dst, n, dst.length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != dst.length) {
+                throw new IOException("compressed block has error, expect length: " + dst.length
+                        + ", get: " + n);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("compressed block has error", e);
+        }
+    }
+}
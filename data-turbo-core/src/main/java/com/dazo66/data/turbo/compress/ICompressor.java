@@ -0,0 +1,42 @@
+package com.dazo66.data.turbo.compress;
+
+import java.io.IOException;
+
+/**
+ * 数据块压缩器
+ * 打包时按名称选择压缩器 名称会写入数据文件 读取时通过 {@link CompressorFactory} 找到同一个压缩器
+ * 实现必须是线程安全的
+ *
+ * @author dazo66
+ * @see CompressorFactory
+ */
+public interface ICompressor {
+
+    /**
+     * 压缩器的名称 写入数据文件中 不能和其他压缩器重复
+     *
+     * @return 名称
+     */
+    String getName();
+
+    /**
+     * 压缩一段数据
+     *
+     * @param src 原始数据
+     * @param off 开始位置
+     * @param len 长度
+     * @return 压缩后的数据
+     */
+    byte[] compress(byte[] src, int off, int len);
+
+    /**
+     * 解压一段数据 解压后的长度正好是目标数组的长度
+     *
+     * @param src 压缩后的数据
+     * @param off 开始位置
+     * @param len 长度
+     * @param dst 目标数组
+     * @throws IOException 数据损坏时抛出
+     */
+    void decompress(byte[] src, int off, int len, byte[] dst) throws IOException;
+}
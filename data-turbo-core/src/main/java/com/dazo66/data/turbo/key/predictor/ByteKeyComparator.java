@@ -0,0 +1,70 @@
+package com.dazo66.data.turbo.key.predictor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 按UTF-8编码的无符号字节序排序 类似memcmp 等价于按Unicode码点排序
+ * NORMAL文件v4版本的默认比较器 查询时可以直接比较文件中的字节
+ *
+ * @author dazo66
+ **/
+public class ByteKeyComparator implements IKeyComparator {
+
+    /**
+     * 代理对在码点顺序中要排在 U+E000 ~ U+FFFF 之后
+     */
+    private static int codePointOrder(char c) {
+        if (c < Character.MIN_SURROGATE) {
+            return c;
+        }
+        return c > Character.MAX_SURROGATE ? c - 0x800 : c + 0x2000;
+    }
+
+    @Override
+    public int compare(String key1, String key2) {
+        if (key1 == null && key2 == null) {
+            return 0;
+        }
+        if (key1 == null) {
+            return -1;
+        }
+        if (key2 == null) {
+            return 1;
+        }
+        int len = Math.min(key1.length(), key2.length());
+        for (int i = 0; i < len; i++) {
+            char c1 = key1.charAt(i);
+            char c2 = key2.charAt(i);
+            if (c1 != c2) {
+                return codePointOrder(c1) - codePointOrder(c2);
+            }
+        }
+        return key1.length() - key2.length();
+    }
+
+    @Override
+    public int compareBytes(byte[] key1, int from1, int to1, byte[] key2, int from2, int to2) {
+        int len = Math.min(to1 - from1, to2 - from2);
+        for (int i = 0; i < len; i++) {
+            byte x = key1[from1 + i];
+            byte y = key2[from2 + i];
+            if (x != y) {
+                return (x & 0xFF) - (y & 0xFF);
+            }
+        }
+        return (to1 - from1) - (to2 - from2);
+    }
+
+    @Override
+    public int compareBytes(ByteBuffer key1, int from1, int to1, byte[] key2) {
+        int len = Math.min(to1 - from1, key2.length);
+        for (int i = 0; i < len; i++) {
+            byte x = key1.get(from1 + i);
+            byte y = key2[i];
+            if (x != y) {
+                return (x & 0xFF) - (y & 0xFF);
+            }
+        }
+        return (to1 - from1) - key2.length;
+    }
+}
@@ -1,16 +1,70 @@
 package com.dazo66.data.turbo.key.predictor;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /**
+ * key比较器
+ * 除了字符串比较之外 还可以直接比较UTF-8编码的字节 查询时不需要把文件中的key解码成字符串
+ * 字节比较的默认实现是先解码再比较 需要高性能的比较器应该重写字节比较的方法
+ * 两种比较方式的结果必须一致
+ *
  * @author dazo66
  */
 public interface IKeyComparator {
 
     /**
-     * 获得关键词的hash
+     * 比较两个key
      *
-     * @param
-     * @return
+     * @param key1 key1
+     * @param key2 key2
+     * @return 小于0 key1在前 大于0 key2在前 等于0 两个key相等
      */
     int compare(String key1, String key2);
 
+    /**
+     * 比较两段UTF-8编码的key
+     *
+     * @param key1  key1所在的数组
+     * @param from1 key1的开始位置
+     * @param to1   key1的结束位置 不包括
+     * @param key2  key2所在的数组
+     * @param from2 key2的开始位置
+     * @param to2   key2的结束位置 不包括
+     * @return 和 {@link #compare(String, String)} 一致
+     */
+    default int compareBytes(byte[] key1, int from1, int to1, byte[] key2, int from2, int to2) {
+        return compare(new String(key1, from1, to1 - from1, StandardCharsets.UTF_8),
+                new String(key2, from2, to2 - from2, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 比较buffer中的一段UTF-8编码的key和另一个key 使用绝对位置读取 不会修改buffer的position
+     *
+     * @param key1  key1所在的buffer
+     * @param from1 key1的开始位置
+     * @param to1   key1的结束位置 不包括
+     * @param key2  key2的UTF-8编码
+     * @return 和 {@link #compare(String, String)} 一致
+     */
+    default int compareBytes(ByteBuffer key1, int from1, int to1, byte[] key2) {
+        byte[] bytes = new byte[to1 - from1];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = key1.get(from1 + i);
+        }
+        return compareBytes(bytes, 0, bytes.length, key2, 0, key2.length);
+    }
+
+    /**
+     * 是否是内置的精确匹配比较器 只有这种情况下查询的key和存储的key是完全一样的
+     * 子类可能修改了比较的语义 所以必须是这两个类本身
+     *
+     * @param comparator 比较器
+     * @return 是否是内置的比较器
+     */
+    static boolean isBuiltIn(IKeyComparator comparator) {
+        return comparator != null && (comparator.getClass() == StringKeyComparator.class
+                || comparator.getClass() == ByteKeyComparator.class);
+    }
+
 }
@@ -1,9 +1,32 @@
 package com.dazo66.data.turbo.key.predictor;
 
+import java.nio.ByteBuffer;
+
 /**
+ * 按 {@link String#compareTo(String)} 排序 即UTF-16编码的顺序
+ * NORMAL文件v4之前版本的默认比较器
+ * UTF-8的字节序和UTF-16只在增补字符上有区别 字节比较时会对首字节做一次修正
+ *
  * @author dazo66
  **/
 public class StringKeyComparator implements IKeyComparator {
+
+    /**
+     * 把UTF-8的字节映射成和UTF-16顺序一致的字节
+     * U+E000 ~ U+FFFF 的首字节是 EE / EF 增补字符的首字节是 F0 ~ F4
+     * UTF-16中增补字符是代理对 (D800 ~ DFFF) 会排在 U+E000 之前 所以需要交换这两组字节的顺序
+     *
+     * @param b UTF-8的一个字节
+     * @return 修正后的无符号值
+     */
+    public static int order(byte b) {
+        int i = b & 0xFF;
+        if (i < 0xEE) {
+            return i;
+        }
+        return i >= 0xF0 ? i - 2 : i + 5;
+    }
+
     @Override
     public int compare(String key1, String key2) {
         if (key1 == null && key2 == null) {
@@ -17,4 +40,30 @@ public class StringKeyComparator implements IKeyComparator {
         }
         return key1.compareTo(key2);
     }
+
+    @Override
+    public int compareBytes(byte[] key1, int from1, int to1, byte[] key2, int from2, int to2) {
+        int len = Math.min(to1 - from1, to2 - from2);
+        for (int i = 0; i < len; i++) {
+            byte x = key1[from1 + i];
+            byte y = key2[from2 + i];
+            if (x != y) {
+                return order(x) - order(y);
+            }
+        }
+        return (to1 - from1) - (to2 - from2);
+    }
+
+    @Override
+    public int compareBytes(ByteBuffer key1, int from1, int to1, byte[] key2) {
+        int len = Math.min(to1 - from1, key2.length);
+        for (int i = 0; i < len; i++) {
+            byte x = key1.get(from1 + i);
+            byte y = key2[i];
+            if (x != y) {
+                return order(x) - order(y);
+            }
+        }
+        return (to1 - from1) - key2.length;
+    }
 }
@@ -36,8 +36,64 @@ public enum DataFileEnum {
      * 加密算法可以自定义。
      * 10. 引用数据块
      * 重复的数据值可以放到这里
+     * <p>
+     * 以上是v1版本的定义 v2版本在此基础上做了如下调整：
+     * 1. 文件以 8位long 魔数("DTNORMAL") + 4位int 版本号 开头 之后是v1的1-6
+     * 2. 在字段数据之前增加 4位int 扩展数据块数量n 以及n个 4位int 类型 + 8位long 长度
+     * 3. 索引数据块中 \u0011 之后的数字是记录的序号 而不是偏移量
+     * 4. 扩展数据块按照声明的顺序追加在引用数据块之后 类型见 {@link NormalBlockEnum}
+     * 其中记录偏移量数据块是固定宽度的 可以通过记录序号直接二分查找
+     * 客户端通过魔数来区分版本 依然可以读取v1版本的文件
+     * <p>
+     * v3版本的索引数据块是二进制格式 加载时直接批量拷贝 不需要逐条解析：
+     * 4位int 索引数量n + n个8位long 记录序号 + n+1个4位int key的偏移量 + 所有key的UTF-8字节
+     * 其他部分和v2版本相同
+     * <p>
+     * v4版本的格式和v3版本相同 只有默认的排序方式变成了key的UTF-8无符号字节序(等价于码点顺序)
+     * 查询时直接比较文件中的字节 不需要把key解码成字符串
+     * v4及以上版本可以使用整数类型的key 格式和排序方式见 {@link KeyEnum}
+     * 之前的版本按 {@link String#compareTo(String)} 排序 只在增补字符上和v4版本有区别
+     * <p>
+     * v5版本可以压缩信息数据块 不压缩时和v4版本相同
+     * 压缩时记录按顺序分成固定大小的块 每个块单独压缩 块内包含完整的记录
+     * 压缩块索引写在扩展数据块中 索引数据块中的记录正好是每个块的第一条记录 查询时只需要解压一个块
+     * 老版本的客户端不认识v5版本 不会把压缩的数据当成记录读取
+     * <p>
+     * v6版本真正使用了引用数据块 之前的版本引用数据块的长度总是0
+     * 打包时统计每个字段值的出现次数 重复出现的字段值只在引用数据块中写入一次
+     * 信息数据块中的字段值替换成 \u0014 + pos + ',' + len 格式见 {@link NormalReference}
+     * 引用是字段级别的 一条记录中的每个字段都可以单独引用 引用比原值短时才会使用
+     *
+     * @see NormalFileHeader
+     */
+    NORMAL("NORMAL"),
+
+    /**
+     * 按key的hash分片的普通打包文件
+     * <p>
+     * 本身没有数据文件 detail是一个清单 {@link DataTurboDetail#getShards()} 中依次是每个分片的detail
+     * 每个分片都是一个完整的 {@link #NORMAL} 文件 可以单独打包和加载
+     * key所在的分片由 {@link com.dazo66.data.turbo.util.ShardUtils#getShard(String, int)} 决定
+     * 分片数写入清单之后就不能改变 打包和查询必须使用同一个分片数
+     */
+    SHARDED("SHARDED"),
+
+    /**
+     * 最小完美hash打包文件 只支持精确的点查询 没有顺序 不能扫描
+     * <p>
+     * 数据文件定义 数字都是大端序：
+     * 1. 文件头 见 {@link HashFileHeader}
+     * 2. 字段数据块 字段以 '\u0011' 作为分隔符
+     * 3. 最小完美hash数据块 把每个key的hash映射到唯一的槽位 格式见 {@link com.dazo66.data.turbo.util.BBHash}
+     * 4. 指纹数据块 每个槽位一个固定宽度的指纹 取自key的hash 用来在读取记录之前排除不存在的key
+     * 5. 记录偏移量数据块 count + 1 个8位long 第i个槽位的记录是 [offset[i], offset[i + 1])
+     * 6. 信息数据块 按槽位顺序排列的记录 key + '\u0012' + fieldValue1 + '\u0012' + fieldValue2 ...
+     * 记录之间没有分隔符 字段值中的 '\u0012' 会被移除
+     * <p>
+     * 查询时计算key的hash 通过最小完美hash得到槽位 指纹不一致时直接返回 否则读取一条记录比较key
+     * 整数类型的key按十进制文本保存
      */
-    NORMAL("NORMAL");
+    HASH("HASH");
 
     private final String id;
 
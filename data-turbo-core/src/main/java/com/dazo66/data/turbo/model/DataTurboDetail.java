@@ -65,6 +65,13 @@ public class DataTurboDetail {
      */
     private List<DataTurboDetail> patches = new ArrayList<>();
 
+    /**
+     * 分片模式下每个分片的detail 按分片的序号排列
+     *
+     * @see DataFileEnum#SHARDED
+     */
+    private List<DataTurboDetail> shards = new ArrayList<>();
+
     public String getDataId() {
         return dataId;
     }
@@ -170,6 +177,15 @@ public class DataTurboDetail {
         return this;
     }
 
+    public List<DataTurboDetail> getShards() {
+        return shards;
+    }
+
+    public DataTurboDetail setShards(List<DataTurboDetail> shards) {
+        this.shards = shards;
+        return this;
+    }
+
     public DataTurboDetail addPatch(DataTurboDetail dataTurboDetail) {
         Preconditions.checkArgument(dataTurboDetail != null, "Patch can not be null");
         Preconditions.checkArgument(!dataTurboDetail.equals(this), "Patch can not be self");
@@ -0,0 +1,215 @@
+package com.dazo66.data.turbo.model;
+
+import com.dazo66.data.turbo.util.DataTurboConstants;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 可以复用的查询结果
+ * 保存记录的原始字节 只有调用获取字符串的方法时才会解码
+ * 同一个holder可以反复用于查询 每次查询都会覆盖上一次的结果 查询时不会分配新的对象
+ * 不是线程安全的 一般每个线程持有一个
+ *
+ * @author dazo66
+ * @see DataTurboResult
+ **/
+public class DataTurboResultHolder {
+
+    private static final byte SPLIT_CHAR_2 =
+            (byte) DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2.charAt(0);
+
+    private String[] fields = new String[0];
+    private KeyEnum keyEnum = KeyEnum.STRING;
+    /**
+     * 记录的字节 key + \u0012 + fieldValue1 + \u0012 + fieldValue2 ...
+     */
+    private byte[] buffer = new byte[256];
+    private int keyLength;
+    private int[] valueStarts = new int[0];
+    private int[] valueEnds = new int[0];
+    private boolean found;
+
+    /**
+     * 获得至少有给定长度的缓冲区 填充之后调用 {@link #set(String[], int, int)}
+     *
+     * @param capacity 需要的长度
+     * @return 缓冲区
+     */
+    public byte[] getBuffer(int capacity) {
+        if (buffer.length < capacity) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+        return buffer;
+    }
+
+    /**
+     * 解析缓冲区中的记录
+     *
+     * @param fields       字段名称
+     * @param keyLength    key的字节长度
+     * @param recordLength 记录的字节长度 不包括记录分隔符
+     */
+    public void set(String[] fields, int keyLength, int recordLength) {
+        set(KeyEnum.STRING, fields, keyLength, recordLength);
+    }
+
+    /**
+     * 解析缓冲区中的记录
+     *
+     * @param keyEnum      key的类型 整数类型的key在获取时会解码成十进制
+     * @param fields       字段名称
+     * @param keyLength    key的字节长度
+     * @param recordLength 记录的字节长度 不包括记录分隔符
+     */
+    public void set(KeyEnum keyEnum, String[] fields, int keyLength, int recordLength) {
+        this.keyEnum = keyEnum;
+        if (this.fields.length != fields.length) {
+            valueStarts = new int[fields.length];
+            valueEnds = new int[fields.length];
+        }
+        this.fields = fields;
+        this.keyLength = keyLength;
+        int start = keyLength + 1;
+        int n = 0;
+        for (int i = start; i <= recordLength; i++) {
+            if (i == recordLength || buffer[i] == SPLIT_CHAR_2) {
+                if (n == fields.length) {
+                    n++;
+                    break;
+                }
+                valueStarts[n] = start;
+                valueEnds[n] = i;
+                n++;
+                start = i + 1;
+            }
+        }
+        if (n != fields.length) {
+            throw new RuntimeException(String.format("value string has wrong expect field count: " +
+                    "%d, get: %d", fields.length, n));
+        }
+        found = true;
+    }
+
+    /**
+     * 清空结果 没有查询到时调用
+     */
+    public void clear() {
+        found = false;
+    }
+
+    /**
+     * @return 上一次查询是否查到了记录
+     */
+    public boolean isFound() {
+        return found;
+    }
+
+    public String getKey() {
+        if (!found) {
+            return null;
+        }
+        if (keyEnum.isNumber()) {
+            return String.valueOf(keyEnum.decode(buffer, 0));
+        }
+        return new String(buffer, 0, keyLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 整数类型的key 不会创建字符串
+     *
+     * @return key的数值
+     * @throws IllegalStateException 没有查到记录或者不是整数类型的key
+     */
+    public long getLongKey() {
+        if (!found || !keyEnum.isNumber()) {
+            throw new IllegalStateException("no number key");
+        }
+        return keyEnum.decode(buffer, 0);
+    }
+
+    public String getString(String field) {
+        int i = indexOf(field);
+        if (i < 0) {
+            return null;
+        }
+        return new String(buffer, valueStarts[i], valueEnds[i] - valueStarts[i], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 直接从字节中解析十进制整数 不会创建字符串
+     *
+     * @param field        字段名称
+     * @param defaultValue 字段不存在或者不是整数时返回的值
+     * @return 整数值
+     */
+    public long getLong(String field, long defaultValue) {
+        int i = indexOf(field);
+        if (i < 0) {
+            return defaultValue;
+        }
+        int start = valueStarts[i];
+        int end = valueEnds[i];
+        boolean negative = start < end && buffer[start] == '-';
+        if (negative || (start < end && buffer[start] == '+')) {
+            start++;
+        }
+        if (start == end || end - start > 19) {
+            return defaultValue;
+        }
+        long value = 0;
+        for (int j = start; j < end; j++) {
+            int digit = buffer[j] - '0';
+            if (digit < 0 || digit > 9) {
+                return defaultValue;
+            }
+            // 按负数累加 可以表示 Long.MIN_VALUE
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                return defaultValue;
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative && value == Long.MIN_VALUE) {
+            return defaultValue;
+        }
+        return negative ? value : -value;
+    }
+
+    public int getInt(String field, int defaultValue) {
+        long value = getLong(field, Long.MIN_VALUE);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return defaultValue;
+        }
+        return (int) value;
+    }
+
+    /**
+     * 转换成不可复用的查询结果 会解码所有的字段
+     *
+     * @return 查询结果 没有查到时返回null
+     */
+    public DataTurboResult toResult() {
+        if (!found) {
+            return null;
+        }
+        Map<String, String> data = new HashMap<>(fields.length, 1.0f);
+        for (String field : fields) {
+            data.put(field, getString(field));
+        }
+        return new DataTurboResult(getKey(), data);
+    }
+
+    private int indexOf(String field) {
+        if (!found) {
+            return -1;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,188 @@
+package com.dazo66.data.turbo.model;
+
+import com.dazo66.data.turbo.util.IOUtils;
+import com.dazo66.data.turbo.util.Ints;
+import com.dazo66.data.turbo.util.Longs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * HASH数据文件的文件头
+ * 打包和读取共用 用于计算各个数据块在文件中的位置
+ *
+ * @author dazo66
+ * @see DataFileEnum#HASH
+ **/
+public class HashFileHeader {
+
+    public static final int VERSION_1 = 1;
+    public static final int CURRENT_VERSION = VERSION_1;
+
+    /**
+     * 魔数 "DTHASH\0\0"
+     */
+    private static final long MAGIC = 0x4454484153480000L;
+
+    private int version = CURRENT_VERSION;
+    private long buildTime;
+    private long count;
+    private long seed;
+    private int fingerprintBytes;
+    private int fieldBlockLength;
+    private long mphfBlockLength;
+    private long valueBlockLength;
+
+    /**
+     * 从输入流中读取文件头 读取完成后输入流正好位于字段数据块的开头
+     *
+     * @param in 输入流
+     * @return 文件头
+     * @throws IOException 读取异常
+     */
+    public static HashFileHeader readFrom(InputStream in) throws IOException {
+        HashFileHeader header = new HashFileHeader();
+        if (IOUtils.readLong(in) != MAGIC) {
+            throw new IOException("not a hash data file");
+        }
+        header.version = IOUtils.readInt(in);
+        if (header.version != VERSION_1) {
+            throw new IOException("unsupported hash file version: " + header.version);
+        }
+        header.buildTime = IOUtils.readLong(in);
+        header.count = IOUtils.readLong(in);
+        header.seed = IOUtils.readLong(in);
+        header.fingerprintBytes = IOUtils.readInt(in);
+        header.fieldBlockLength = IOUtils.readInt(in);
+        header.mphfBlockLength = IOUtils.readLong(in);
+        header.valueBlockLength = IOUtils.readLong(in);
+        return header;
+    }
+
+    /**
+     * 写入文件头
+     *
+     * @param out 输出流
+     * @throws IOException 写入异常
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(Longs.toByteArray(MAGIC));
+        out.write(Ints.toByteArray(version));
+        out.write(Longs.toByteArray(buildTime));
+        out.write(Longs.toByteArray(count));
+        out.write(Longs.toByteArray(seed));
+        out.write(Ints.toByteArray(fingerprintBytes));
+        out.write(Ints.toByteArray(fieldBlockLength));
+        out.write(Longs.toByteArray(mphfBlockLength));
+        out.write(Longs.toByteArray(valueBlockLength));
+    }
+
+    /**
+     * @return 文件头的长度
+     */
+    public long getHeaderLength() {
+        return 8 + 4 + 8 + 8 + 8 + 4 + 4 + 8 + 8;
+    }
+
+    public long getFieldBlockOffset() {
+        return getHeaderLength();
+    }
+
+    public long getMphfBlockOffset() {
+        return getFieldBlockOffset() + fieldBlockLength;
+    }
+
+    public long getFingerprintBlockOffset() {
+        return getMphfBlockOffset() + mphfBlockLength;
+    }
+
+    /**
+     * @return 指纹数据块长度 每个槽位 {@link #getFingerprintBytes()} 个字节
+     */
+    public long getFingerprintBlockLength() {
+        return count * fingerprintBytes;
+    }
+
+    public long getOffsetBlockOffset() {
+        return getFingerprintBlockOffset() + getFingerprintBlockLength();
+    }
+
+    /**
+     * @return 记录偏移量数据块长度 count + 1 个8位long 最后一个是信息数据块的长度
+     */
+    public long getOffsetBlockLength() {
+        return (count + 1) * 8;
+    }
+
+    public long getValueBlockOffset() {
+        return getOffsetBlockOffset() + getOffsetBlockLength();
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getBuildTime() {
+        return buildTime;
+    }
+
+    public HashFileHeader setBuildTime(long buildTime) {
+        this.buildTime = buildTime;
+        return this;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public HashFileHeader setCount(long count) {
+        this.count = count;
+        return this;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public HashFileHeader setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public int getFingerprintBytes() {
+        return fingerprintBytes;
+    }
+
+    public HashFileHeader setFingerprintBytes(int fingerprintBytes) {
+        this.fingerprintBytes = fingerprintBytes;
+        return this;
+    }
+
+    public int getFieldBlockLength() {
+        return fieldBlockLength;
+    }
+
+    public HashFileHeader setFieldBlockLength(int fieldBlockLength) {
+        this.fieldBlockLength = fieldBlockLength;
+        return this;
+    }
+
+    public long getMphfBlockLength() {
+        return mphfBlockLength;
+    }
+
+    public HashFileHeader setMphfBlockLength(long mphfBlockLength) {
+        this.mphfBlockLength = mphfBlockLength;
+        return this;
+    }
+
+    public long getValueBlockLength() {
+        return valueBlockLength;
+    }
+
+    public HashFileHeader setValueBlockLength(long valueBlockLength) {
+        this.valueBlockLength = valueBlockLength;
+        return this;
+    }
+}
@@ -1,24 +1,158 @@
 package com.dazo66.data.turbo.model;
 
 /**
+ * key的类型
+ * <p>
+ * 整数类型的key在文件中保存成固定宽度的文本 每一位是 '0' + 6个bit的数字 高位在前
+ * 写入之前把符号位翻转 这样按字节序比较和按数值比较的结果一致
+ * 编码后只有 '0' 到 'o' 的ASCII字符 不会和分隔符冲突 long最多11个字节 比十进制文本短
+ * 整数类型的key需要v4及以上版本 查询时直接比较数值
+ *
  * @author dazo66
+ * @see DataFileEnum#NORMAL
  **/
 public enum KeyEnum {
 
     /**
      * 字符串类型的key
      */
-    STRING("string");
+    STRING("string", 0, 0),
 
-    private String id;
+    /**
+     * int类型的key 编码后6个字节
+     */
+    INT("int", 6, 32),
+
+    /**
+     * long类型的key 编码后11个字节
+     */
+    LONG("long", 11, 64);
 
-    private KeyEnum(String i) {
+    private static final int SHIFT = 6;
+    private static final char ZERO = '0';
+
+    private final String id;
+    /**
+     * 编码后的字节数 字符串类型为0
+     */
+    private final int width;
+    private final int bits;
+
+    KeyEnum(String i, int width, int bits) {
         this.id = i;
+        this.width = width;
+        this.bits = bits;
     }
 
     public String getId() {
         return id;
     }
 
-    ;
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return 是否是整数类型的key
+     */
+    public boolean isNumber() {
+        return width > 0;
+    }
+
+    /**
+     * 编码整数key
+     *
+     * @param value 整数
+     * @param dst   目标数组 从0开始写入 {@link #getWidth()} 个字节
+     * @return 写入的字节数
+     */
+    public int encode(long value, byte[] dst) {
+        long u = flip(value);
+        for (int i = width - 1; i >= 0; i--) {
+            dst[i] = (byte) (ZERO + (u & 63));
+            u >>>= SHIFT;
+        }
+        return width;
+    }
+
+    public String encode(long value) {
+        byte[] bytes = new byte[width];
+        encode(value, bytes);
+        char[] chars = new char[width];
+        for (int i = 0; i < width; i++) {
+            chars[i] = (char) bytes[i];
+        }
+        return new String(chars);
+    }
+
+    private long flip(long value) {
+        if (this == INT) {
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("int key out of range: " + value);
+            }
+            return (value ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+        }
+        if (this == LONG) {
+            return value ^ Long.MIN_VALUE;
+        }
+        throw new UnsupportedOperationException("not a number key: " + this);
+    }
+
+    /**
+     * 解码文件中的整数key
+     *
+     * @param bytes 记录的字节
+     * @param from  key开始的位置
+     * @return 整数
+     */
+    public long decode(byte[] bytes, int from) {
+        long u = 0;
+        for (int i = from; i < from + width; i++) {
+            u = (u << SHIFT) | (bytes[i] - ZERO);
+        }
+        return unflip(u);
+    }
+
+    public long decode(CharSequence value) {
+        long u = 0;
+        for (int i = 0; i < width; i++) {
+            u = (u << SHIFT) | (value.charAt(i) - ZERO);
+        }
+        return unflip(u);
+    }
+
+    private long unflip(long u) {
+        return bits == 32 ? (int) (u ^ 0x80000000L) : u ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * 把十进制的key转换成文件中保存的key 字符串类型原样返回
+     *
+     * @param key 十进制的key
+     * @return 文件中的key
+     * @throws NumberFormatException 不是合法的整数
+     */
+    public String toStoreKey(String key) {
+        if (!isNumber() || key == null) {
+            return key;
+        }
+        long value = Long.parseLong(key);
+        if (this == INT && (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)) {
+            throw new NumberFormatException("int key out of range: " + key);
+        }
+        return encode(value);
+    }
+
+    /**
+     * 把文件中保存的key转换成十进制的key 字符串类型原样返回
+     *
+     * @param storeKey 文件中的key
+     * @return 十进制的key
+     */
+    public String toKey(String storeKey) {
+        if (!isNumber() || storeKey == null) {
+            return storeKey;
+        }
+        return String.valueOf(decode(storeKey));
+    }
 }
@@ -7,9 +7,19 @@ package com.dazo66.data.turbo.model;
 public enum LoadEnum {
 
     /**
-     * 字符串类型的key
+     * 内存模式 数据块会整体读入堆内存
+     * 堆内存放不下的数据块(大于等于2G)会自动降级为 {@link #MMAP} 模式
      */
-    HEAP("heap"), DISK("disk");
+    HEAP("heap"),
+    /**
+     * 磁盘模式 每次查询都通过文件通道读取
+     */
+    DISK("disk"),
+    /**
+     * 内存映射模式 数据块分段映射到内存中 依赖系统的page cache
+     * 没有系统调用也没有堆内存拷贝 适合大于堆内存的数据文件
+     */
+    MMAP("mmap");
 
     private String id;
 
@@ -0,0 +1,60 @@
+package com.dazo66.data.turbo.model;
+
+/**
+ * NORMAL数据文件v2版本中的扩展数据块类型
+ * 扩展数据块按照文件头中声明的顺序追加在引用数据块之后
+ * 读取时遇到不认识的类型会直接跳过
+ *
+ * @author dazo66
+ * @see DataFileEnum#NORMAL
+ * @see NormalFileHeader
+ */
+public enum NormalBlockEnum {
+
+    /**
+     * 记录偏移量数据块
+     * 每条记录一个 8位long 表示记录在信息数据块中的偏移量 按key的顺序排列
+     * 通过记录序号可以直接定位到记录
+     */
+    OFFSET(1),
+
+    /**
+     * 布隆过滤器数据块
+     * 所有key组成的布隆过滤器 使用 {@link com.dazo66.data.turbo.util.HeapBloomFilter#writeTo} 的格式
+     * 只有使用默认key比较器打包时才会写入 查询时用来快速排除不存在的key
+     */
+    BLOOM(2),
+
+    /**
+     * 压缩块索引数据块 v5版本开启压缩时写入
+     * 存在时信息数据块由多个独立压缩的块组成 每个块包含完整的若干条记录
+     * 记录偏移量和索引中的位置都是解压后的偏移量 格式见 {@link com.dazo66.data.turbo.compress.CompressBlockIndex}
+     */
+    COMPRESS(3),
+
+    /**
+     * 学习型索引数据块 整数类型的key开启之后写入
+     * 把key映射到记录序号的分段线性模型 格式见 {@link com.dazo66.data.turbo.util.RadixSpline}
+     * 客户端可以直接在预测的序号附近二分 模型不可用时使用稀疏索引
+     */
+    SPLINE(4);
+
+    private final int id;
+
+    NormalBlockEnum(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public static NormalBlockEnum of(int id) {
+        for (NormalBlockEnum value : values()) {
+            if (value.id == id) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,251 @@
+package com.dazo66.data.turbo.model;
+
+import com.dazo66.data.turbo.util.IOUtils;
+import com.dazo66.data.turbo.util.Ints;
+import com.dazo66.data.turbo.util.Longs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * NORMAL数据文件的文件头
+ * 打包和读取共用 用于计算各个数据块在文件中的位置
+ * v1版本没有魔数 文件以打包时间开头
+ * v2版本以魔数开头 之后是版本号 可以通过魔数区分两个版本
+ * v3版本的文件头和v2相同 只有索引数据块变成了二进制格式
+ * v4版本的格式和v3相同 记录默认按UTF-8字节序排序
+ * v5版本的信息数据块可以是压缩的 文件头中的信息数据块长度是压缩后的长度
+ * v6版本的字段值可以引用引用数据块中的数据 见 {@link NormalReference}
+ *
+ * @author dazo66
+ * @see DataFileEnum#NORMAL
+ **/
+public class NormalFileHeader {
+
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+    public static final int VERSION_3 = 3;
+    public static final int VERSION_4 = 4;
+    public static final int VERSION_5 = 5;
+    public static final int VERSION_6 = 6;
+    public static final int CURRENT_VERSION = VERSION_6;
+
+    /**
+     * v2版本的魔数 "DTNORMAL" 作为时间戳已经远远超出了合理的范围 不会和v1冲突
+     */
+    private static final long MAGIC = 0x44544E4F524D414CL;
+
+    private int version = CURRENT_VERSION;
+    private long buildTime;
+    private long count;
+    private long indexBlockLength;
+    private long valueBlockLength;
+    private long referenceBlockLength;
+    private int fieldBlockLength;
+    /**
+     * 扩展数据块 类型 + 长度 保持写入的顺序
+     */
+    private final Map<Integer, Long> extensionBlocks = new LinkedHashMap<>();
+
+    /**
+     * 从输入流中读取文件头 读取完成后输入流正好位于字段数据块的开头
+     *
+     * @param in 输入流
+     * @return 文件头
+     * @throws IOException 读取异常
+     */
+    public static NormalFileHeader readFrom(InputStream in) throws IOException {
+        NormalFileHeader header = new NormalFileHeader();
+        long first = IOUtils.readLong(in);
+        if (first == MAGIC) {
+            header.version = IOUtils.readInt(in);
+            if (header.version < VERSION_2 || header.version > VERSION_6) {
+                throw new RuntimeException("unsupported normal file version: " + header.version);
+            }
+            header.buildTime = IOUtils.readLong(in);
+        } else {
+            header.version = VERSION_1;
+            header.buildTime = first;
+        }
+        header.count = IOUtils.readLong(in);
+        header.indexBlockLength = IOUtils.readLong(in);
+        header.valueBlockLength = IOUtils.readLong(in);
+        header.referenceBlockLength = IOUtils.readLong(in);
+        header.fieldBlockLength = IOUtils.readInt(in);
+        if (header.version >= VERSION_2) {
+            int extensionCount = IOUtils.readInt(in);
+            for (int i = 0; i < extensionCount; i++) {
+                header.extensionBlocks.put(IOUtils.readInt(in), IOUtils.readLong(in));
+            }
+        }
+        return header;
+    }
+
+    /**
+     * 写入文件头
+     *
+     * @param out 输出流
+     * @throws IOException 写入异常
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (version >= VERSION_2) {
+            out.write(Longs.toByteArray(MAGIC));
+            out.write(Ints.toByteArray(version));
+        } else if (!extensionBlocks.isEmpty()) {
+            throw new IllegalStateException("normal file v1 can not contain extension block");
+        }
+        out.write(Longs.toByteArray(buildTime));
+        out.write(Longs.toByteArray(count));
+        out.write(Longs.toByteArray(indexBlockLength));
+        out.write(Longs.toByteArray(valueBlockLength));
+        out.write(Longs.toByteArray(referenceBlockLength));
+        out.write(Ints.toByteArray(fieldBlockLength));
+        if (version >= VERSION_2) {
+            out.write(Ints.toByteArray(extensionBlocks.size()));
+            for (Map.Entry<Integer, Long> entry : extensionBlocks.entrySet()) {
+                out.write(Ints.toByteArray(entry.getKey()));
+                out.write(Longs.toByteArray(entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * @return 文件头的长度
+     */
+    public long getHeaderLength() {
+        if (version >= VERSION_2) {
+            return 8 + 4 + 40 + 4 + 4 + 12L * extensionBlocks.size();
+        }
+        return 40 + 4;
+    }
+
+    public long getFieldBlockOffset() {
+        return getHeaderLength();
+    }
+
+    public long getIndexBlockOffset() {
+        return getFieldBlockOffset() + fieldBlockLength;
+    }
+
+    public long getValueBlockOffset() {
+        return getIndexBlockOffset() + indexBlockLength;
+    }
+
+    public long getReferenceBlockOffset() {
+        return getValueBlockOffset() + valueBlockLength;
+    }
+
+    /**
+     * 获得扩展数据块在文件中的偏移量
+     *
+     * @param block 扩展数据块类型
+     * @return 偏移量 如果不存在这个数据块返回-1
+     */
+    public long getExtensionBlockOffset(NormalBlockEnum block) {
+        long offset = getReferenceBlockOffset() + referenceBlockLength;
+        for (Map.Entry<Integer, Long> entry : extensionBlocks.entrySet()) {
+            if (entry.getKey() == block.getId()) {
+                return offset;
+            }
+            offset += entry.getValue();
+        }
+        return -1;
+    }
+
+    /**
+     * 获得扩展数据块的长度
+     *
+     * @param block 扩展数据块类型
+     * @return 长度 如果不存在这个数据块返回-1
+     */
+    public long getExtensionBlockLength(NormalBlockEnum block) {
+        return extensionBlocks.getOrDefault(block.getId(), -1L);
+    }
+
+    public boolean hasExtensionBlock(NormalBlockEnum block) {
+        return extensionBlocks.containsKey(block.getId());
+    }
+
+    /**
+     * 声明一个扩展数据块 数据块需要按照声明的顺序写入
+     *
+     * @param block  扩展数据块类型
+     * @param length 长度
+     * @return this
+     */
+    public NormalFileHeader addExtensionBlock(NormalBlockEnum block, long length) {
+        extensionBlocks.put(block.getId(), length);
+        return this;
+    }
+
+    public Map<Integer, Long> getExtensionBlocks() {
+        return Collections.unmodifiableMap(extensionBlocks);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public NormalFileHeader setVersion(int version) {
+        this.version = version;
+        return this;
+    }
+
+    public long getBuildTime() {
+        return buildTime;
+    }
+
+    public NormalFileHeader setBuildTime(long buildTime) {
+        this.buildTime = buildTime;
+        return this;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public NormalFileHeader setCount(long count) {
+        this.count = count;
+        return this;
+    }
+
+    public long getIndexBlockLength() {
+        return indexBlockLength;
+    }
+
+    public NormalFileHeader setIndexBlockLength(long indexBlockLength) {
+        this.indexBlockLength = indexBlockLength;
+        return this;
+    }
+
+    public long getValueBlockLength() {
+        return valueBlockLength;
+    }
+
+    public NormalFileHeader setValueBlockLength(long valueBlockLength) {
+        this.valueBlockLength = valueBlockLength;
+        return this;
+    }
+
+    public long getReferenceBlockLength() {
+        return referenceBlockLength;
+    }
+
+    public NormalFileHeader setReferenceBlockLength(long referenceBlockLength) {
+        this.referenceBlockLength = referenceBlockLength;
+        return this;
+    }
+
+    public int getFieldBlockLength() {
+        return fieldBlockLength;
+    }
+
+    public NormalFileHeader setFieldBlockLength(int fieldBlockLength) {
+        this.fieldBlockLength = fieldBlockLength;
+        return this;
+    }
+}
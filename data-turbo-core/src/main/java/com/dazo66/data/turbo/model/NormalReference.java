@@ -0,0 +1,93 @@
+package com.dazo66.data.turbo.model;
+
+import com.dazo66.data.turbo.util.DataTurboConstants;
+
+/**
+ * v6版本字段级别的引用
+ * 格式为 \u0014 + pos + ',' + len pos是引用数据块内的偏移量 len是字节长度
+ * pos和len都是64进制的文本 每一位是 '0' + 数字 高位在前
+ * 引用中只有ASCII字符 不会和分隔符冲突 解码成字符串之后也可以直接解析
+ *
+ * @author dazo66
+ * @see DataFileEnum#NORMAL
+ **/
+public final class NormalReference {
+
+    public static final char MARK = DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_4.charAt(0);
+    private static final char SEPARATOR = ',';
+    private static final char ZERO = '0';
+    private static final int SHIFT = 6;
+
+    private NormalReference() {
+    }
+
+    /**
+     * @param position 引用数据块内的偏移量
+     * @param length   引用数据的字节长度
+     * @return 引用字符串
+     */
+    public static String encode(long position, int length) {
+        StringBuilder builder = new StringBuilder(16).append(MARK);
+        appendNumber(builder, position);
+        builder.append(SEPARATOR);
+        appendNumber(builder, length);
+        return builder.toString();
+    }
+
+    private static void appendNumber(StringBuilder builder, long number) {
+        int shift = 0;
+        while (shift + SHIFT < 64 && (number >>> (shift + SHIFT)) != 0) {
+            shift += SHIFT;
+        }
+        for (; shift >= 0; shift -= SHIFT) {
+            builder.append((char) (ZERO + ((number >>> shift) & 63)));
+        }
+    }
+
+    /**
+     * 解析字符串形式的引用 字段值已经被切分出来
+     *
+     * @param value 字段值 需要以 {@link #MARK} 开头
+     * @return 偏移量
+     */
+    public static long getPosition(CharSequence value) {
+        long number = 0;
+        for (int i = 1; i < value.length() && value.charAt(i) != SEPARATOR; i++) {
+            number = (number << SHIFT) | (value.charAt(i) - ZERO);
+        }
+        return number;
+    }
+
+    public static int getLength(CharSequence value) {
+        int number = 0;
+        for (int i = value.length() - 1, shift = 0; i > 0 && value.charAt(i) != SEPARATOR;
+             i--, shift += SHIFT) {
+            number |= (value.charAt(i) - ZERO) << shift;
+        }
+        return number;
+    }
+
+    /**
+     * 解析字节形式的引用
+     *
+     * @param bytes 记录的字节
+     * @param from  引用开始的位置 也就是 {@link #MARK} 的位置
+     * @param to    引用结束的位置 不包括
+     * @return 偏移量
+     */
+    public static long getPosition(byte[] bytes, int from, int to) {
+        long number = 0;
+        for (int i = from + 1; i < to && bytes[i] != SEPARATOR; i++) {
+            number = (number << SHIFT) | (bytes[i] - ZERO);
+        }
+        return number;
+    }
+
+    public static int getLength(byte[] bytes, int from, int to) {
+        int number = 0;
+        for (int i = to - 1, shift = 0; i > from && bytes[i] != SEPARATOR; i--, shift += SHIFT) {
+            number |= (bytes[i] - ZERO) << shift;
+        }
+        return number;
+    }
+}
@@ -0,0 +1,253 @@
+package com.dazo66.data.turbo.util;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 最小完美hash BBHash
+ * 把n个不同的64位hash一一映射到 [0, n) 的序号上 每个key大约只需要3个bit
+ * 构建时分多层 每层的位数组大小是剩余key数的gamma倍 只落在一个位置上的key在这一层确定
+ * 冲突的key进入下一层 最后还剩下的key按hash排序保存 查询时二分
+ * 序号是key所在的位在所有层的位数组中的排名 通过每512位一个的排名表加速
+ * <p>
+ * 不在构建集合中的hash也会返回一个序号或者-1 调用方需要自己校验
+ * <p>
+ * 二进制格式 数字都是大端序：
+ * 4位int 层数m + m个4位int 每层的long个数 + 所有层的位数组(long) + 4位int 剩余key数k + k个8位long hash
+ * 排名表不写入文件 加载时重新计算
+ *
+ * @author dazo66
+ * @see com.dazo66.data.turbo.model.DataFileEnum#HASH
+ **/
+public class BBHash {
+
+    /**
+     * 最多的层数 gamma为2时超过这个层数的key几乎不存在
+     */
+    private static final int MAX_LEVELS = 32;
+    /**
+     * 排名表每一项覆盖的long个数
+     */
+    private static final int RANK_WORDS = 8;
+    private static final long LEVEL_SEED = 0x9E3779B97F4A7C15L;
+
+    /**
+     * 每层在bits中开始的long下标 最后一项是总长度
+     */
+    private final int[] levelStarts;
+    private final long[] bits;
+    /**
+     * ranks[i] 是前 i * RANK_WORDS 个long中1的个数
+     */
+    private final int[] ranks;
+    /**
+     * 所有层中1的个数 也是剩余key的起始序号
+     */
+    private final int levelKeys;
+    private final long[] fallback;
+
+    private BBHash(int[] levelStarts, long[] bits, long[] fallback) {
+        this.levelStarts = levelStarts;
+        this.bits = bits;
+        this.fallback = fallback;
+        this.ranks = new int[bits.length / RANK_WORDS + 1];
+        int rank = 0;
+        for (int i = 0; i < bits.length; i++) {
+            if (i % RANK_WORDS == 0) {
+                ranks[i / RANK_WORDS] = rank;
+            }
+            rank += Long.bitCount(bits[i]);
+        }
+        this.levelKeys = rank;
+    }
+
+    /**
+     * 构建最小完美hash
+     *
+     * @param hashes 互不相同的hash 不会被修改
+     * @param gamma  每层位数组大小和剩余key数的比例 越大构建和查询越快 占用的空间越大 至少为1
+     * @return 最小完美hash
+     * @throws IllegalArgumentException hash有重复
+     */
+    public static BBHash build(long[] hashes, double gamma) {
+        Preconditions.checkArgument(gamma >= 1, "gamma must not be less than 1: %s", gamma);
+        long[] remaining = hashes;
+        int remainingCount = hashes.length;
+        long[][] levels = new long[MAX_LEVELS][];
+        int levelCount = 0;
+        while (remainingCount > 0 && levelCount < MAX_LEVELS) {
+            int words = Ints.checkedCast(((long) Math.ceil(remainingCount * gamma) + 63) >>> 6);
+            long size = ((long) words) << 6;
+            long[] seen = new long[words];
+            long[] collide = new long[words];
+            for (int i = 0; i < remainingCount; i++) {
+                long p = position(remaining[i], levelCount, size);
+                int w = (int) (p >>> 6);
+                long mask = 1L << p;
+                if ((seen[w] & mask) != 0) {
+                    collide[w] |= mask;
+                } else {
+                    seen[w] |= mask;
+                }
+            }
+            for (int i = 0; i < words; i++) {
+                seen[i] &= ~collide[i];
+            }
+            // 冲突的key进入下一层
+            long[] next = new long[remainingCount];
+            int nextCount = 0;
+            for (int i = 0; i < remainingCount; i++) {
+                long p = position(remaining[i], levelCount, size);
+                if ((collide[(int) (p >>> 6)] & (1L << p)) != 0) {
+                    next[nextCount++] = remaining[i];
+                }
+            }
+            levels[levelCount++] = seen;
+            remaining = next;
+            remainingCount = nextCount;
+        }
+        long[] fallback = Arrays.copyOf(remaining, remainingCount);
+        Arrays.sort(fallback);
+        for (int i = 1; i < fallback.length; i++) {
+            if (fallback[i] == fallback[i - 1]) {
+                throw new IllegalArgumentException("duplicate hash: " + fallback[i]);
+            }
+        }
+        int[] levelStarts = new int[levelCount + 1];
+        for (int i = 0; i < levelCount; i++) {
+            levelStarts[i + 1] = levelStarts[i] + levels[i].length;
+        }
+        long[] bits = new long[levelStarts[levelCount]];
+        for (int i = 0; i < levelCount; i++) {
+            System.arraycopy(levels[i], 0, bits, levelStarts[i], levels[i].length);
+        }
+        return new BBHash(levelStarts, bits, fallback);
+    }
+
+    public static BBHash readFrom(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            int levelCount = buffer.getInt();
+            int[] levelStarts = new int[levelCount + 1];
+            for (int i = 0; i < levelCount; i++) {
+                levelStarts[i + 1] = levelStarts[i] + buffer.getInt();
+            }
+            long[] bits = new long[levelStarts[levelCount]];
+            buffer.asLongBuffer().get(bits);
+            buffer.position(buffer.position() + bits.length * 8);
+            long[] fallback = new long[buffer.getInt()];
+            buffer.asLongBuffer().get(fallback);
+            return new BBHash(levelStarts, bits, fallback);
+        } catch (RuntimeException e) {
+            throw new IOException("mphf block has error", e);
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream dataOut = new DataOutputStream(out);
+        int levelCount = levelStarts.length - 1;
+        dataOut.writeInt(levelCount);
+        for (int i = 0; i < levelCount; i++) {
+            dataOut.writeInt(levelStarts[i + 1] - levelStarts[i]);
+        }
+        for (long word : bits) {
+            dataOut.writeLong(word);
+        }
+        dataOut.writeInt(fallback.length);
+        for (long hash : fallback) {
+            dataOut.writeLong(hash);
+        }
+        dataOut.flush();
+    }
+
+    /**
+     * @return 序列化之后的字节数
+     */
+    public long getSerializedLength() {
+        return 4L + 4L * (levelStarts.length - 1) + 8L * bits.length + 4L + 8L * fallback.length;
+    }
+
+    /**
+     * 查询hash的序号
+     *
+     * @param hash hash
+     * @return 构建集合中的hash返回唯一的 [0, n) 其他的hash返回任意序号或者-1
+     */
+    public long lookup(long hash) {
+        for (int level = 0; level < levelStarts.length - 1; level++) {
+            int start = levelStarts[level];
+            long size = ((long) (levelStarts[level + 1] - start)) << 6;
+            long p = position(hash, level, size);
+            int w = start + (int) (p >>> 6);
+            long word = bits[w];
+            if ((word & (1L << p)) != 0) {
+                return rank(w) + Long.bitCount(word & ((1L << p) - 1));
+            }
+        }
+        int i = Arrays.binarySearch(fallback, hash);
+        return i < 0 ? -1 : levelKeys + i;
+    }
+
+    /**
+     * @return key的数量
+     */
+    public long size() {
+        return (long) levelKeys + fallback.length;
+    }
+
+    private int rank(int word) {
+        int rank = ranks[word / RANK_WORDS];
+        for (int i = word - word % RANK_WORDS; i < word; i++) {
+            rank += Long.bitCount(bits[i]);
+        }
+        return rank;
+    }
+
+    private static long position(long hash, int level, long size) {
+        return Long.remainderUnsigned(mix(hash + level * LEVEL_SEED), size);
+    }
+
+    /**
+     * murmur3的64位混合
+     *
+     * @param h 输入
+     * @return 混合之后的值
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 字节数组的64位hash 按8个字节一组混合
+     * 打包和查询都通过这里计算hash 修改算法会导致之前打包的文件查不到数据
+     *
+     * @param bytes  数据
+     * @param offset 开始的位置
+     * @param length 长度
+     * @param seed   种子
+     * @return hash
+     */
+    public static long hash(byte[] bytes, int offset, int length, long seed) {
+        long h = mix(seed ^ LEVEL_SEED) ^ length;
+        int end = offset + length;
+        int i = offset;
+        for (; i + 8 <= end; i += 8) {
+            long k = Longs.fromBytes(bytes[i], bytes[i + 1], bytes[i + 2], bytes[i + 3],
+                    bytes[i + 4], bytes[i + 5], bytes[i + 6], bytes[i + 7]);
+            h = Long.rotateLeft(h ^ mix(k), 27) * 0x87c37b91114253d5L + 0x52dce729;
+        }
+        long tail = 0;
+        for (int shift = 0; i < end; i++, shift += 8) {
+            tail |= (bytes[i] & 0xFFL) << shift;
+        }
+        return mix(h ^ mix(tail));
+    }
+}
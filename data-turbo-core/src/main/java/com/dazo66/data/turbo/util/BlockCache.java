@@ -0,0 +1,255 @@
+package com.dazo66.data.turbo.util;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有界的并发块缓存
+ * 把数据块按固定大小对齐切分 以块为单位缓存 使用CLOCK算法淘汰
+ * 同一个缓存可以被多个客户端共享 所有客户端共用一个字节预算
+ * 块的大小可以不一样 (例如解压后的数据块) 超出字节预算时会继续淘汰
+ * 命中时不加锁 只有未命中时写入缓存才会加锁
+ *
+ * @author dazo66
+ **/
+public class BlockCache {
+
+    /**
+     * 默认缓存大小的系统属性 单位字节
+     */
+    public static final String DEFAULT_CAPACITY_PROPERTY = "data.turbo.block.cache.bytes";
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    private static final long DEFAULT_CAPACITY = 256 * 1024 * 1024L;
+    private static final AtomicLong OWNER_ID = new AtomicLong();
+    private static volatile BlockCache defaultCache;
+
+    private final int blockSize;
+    private final long capacity;
+    private final Map<BlockKey, Block> blocks = new ConcurrentHashMap<>();
+    /**
+     * CLOCK算法的环 以及指针 只在加锁时访问
+     */
+    private final Block[] ring;
+    private final LongAddable hitCount = LongAddables.create();
+    private final LongAddable missCount = LongAddables.create();
+    private final LongAddable evictionCount = LongAddables.create();
+    /**
+     * 当前缓存的字节数和块数 只在加锁时修改
+     */
+    private volatile long size;
+    private int count;
+    private int hand;
+
+    /**
+     * @param capacity  缓存的字节预算
+     * @param blockSize 块大小
+     */
+    public BlockCache(long capacity, int blockSize) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        Preconditions.checkArgument(blockSize > 0, "blockSize must be positive");
+        this.capacity = capacity;
+        this.blockSize = blockSize;
+        this.ring = new Block[Math.max(1, Ints.saturatedCast(capacity / blockSize))];
+    }
+
+    /**
+     * 获得默认的共享缓存 大小通过系统属性 {@link #DEFAULT_CAPACITY_PROPERTY} 指定 默认256M
+     *
+     * @return 共享的缓存
+     */
+    public static BlockCache getDefault() {
+        if (defaultCache == null) {
+            synchronized (BlockCache.class) {
+                if (defaultCache == null) {
+                    long capacity = Long.getLong(DEFAULT_CAPACITY_PROPERTY, DEFAULT_CAPACITY);
+                    defaultCache = new BlockCache(capacity, DEFAULT_BLOCK_SIZE);
+                }
+            }
+        }
+        return defaultCache;
+    }
+
+    /**
+     * 替换默认的共享缓存 只影响之后加载的客户端
+     *
+     * @param blockCache 新的缓存
+     */
+    public static void setDefault(BlockCache blockCache) {
+        synchronized (BlockCache.class) {
+            defaultCache = blockCache;
+        }
+    }
+
+    /**
+     * @return 一个新的缓存使用者id 不同的数据块需要使用不同的id
+     */
+    public static long newOwnerId() {
+        return OWNER_ID.incrementAndGet();
+    }
+
+    /**
+     * 获得一个块 如果不在缓存中会通过loader读取并放入缓存
+     *
+     * @param owner  使用者id
+     * @param block  块序号
+     * @param loader 读取器 未命中时调用
+     * @return 块的数据 调用方不能修改
+     * @throws IOException 读取异常
+     */
+    public byte[] get(long owner, long block, BlockLoader loader) throws IOException {
+        BlockKey key = new BlockKey(owner, block);
+        Block cached = blocks.get(key);
+        if (cached != null) {
+            cached.referenced = true;
+            hitCount.increment();
+            return cached.data;
+        }
+        missCount.increment();
+        byte[] data = loader.load(block);
+        return put(key, data);
+    }
+
+    private synchronized byte[] put(BlockKey key, byte[] data) {
+        Block exist = blocks.get(key);
+        if (exist != null) {
+            return exist.data;
+        }
+        // 先按字节预算淘汰 再保证环上有空位
+        while (count > 0 && size + data.length > capacity) {
+            evict();
+        }
+        if (count == ring.length) {
+            evict();
+        }
+        while (ring[hand] != null) {
+            hand = (hand + 1) % ring.length;
+        }
+        Block block = new Block(key, data);
+        ring[hand] = block;
+        blocks.put(key, block);
+        size += data.length;
+        count++;
+        hand = (hand + 1) % ring.length;
+        return data;
+    }
+
+    /**
+     * 按CLOCK算法淘汰一个块 跳过最近被访问过的块 同时清除访问标记
+     * 调用时至少要有一个块 淘汰之后指针停在空出来的位置
+     */
+    private void evict() {
+        while (ring[hand] == null || ring[hand].referenced) {
+            if (ring[hand] != null) {
+                ring[hand].referenced = false;
+            }
+            hand = (hand + 1) % ring.length;
+        }
+        Block victim = ring[hand];
+        blocks.remove(victim.key);
+        ring[hand] = null;
+        size -= victim.data.length;
+        count--;
+        evictionCount.increment();
+    }
+
+    /**
+     * 移除一个使用者的所有块 一般在关闭客户端时调用
+     *
+     * @param owner 使用者id
+     */
+    public synchronized void invalidate(long owner) {
+        for (int i = 0; i < ring.length; i++) {
+            Block block = ring[i];
+            if (block != null && block.key.owner == owner) {
+                blocks.remove(block.key);
+                size -= block.data.length;
+                count--;
+                ring[i] = null;
+            }
+        }
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * @return 当前缓存的字节数
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * 未命中时读取块的方法
+     */
+    public interface BlockLoader {
+
+        /**
+         * 读取一个块
+         *
+         * @param block 块序号
+         * @return 块的数据
+         * @throws IOException 读取异常
+         */
+        byte[] load(long block) throws IOException;
+    }
+
+    private static final class BlockKey {
+
+        private final long owner;
+        private final long block;
+
+        private BlockKey(long owner, long block) {
+            this.owner = owner;
+            this.block = block;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey that = (BlockKey) o;
+            return owner == that.owner && block == that.block;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(owner * 31 + block);
+        }
+    }
+
+    private static final class Block {
+
+        private final BlockKey key;
+        private final byte[] data;
+        private volatile boolean referenced;
+
+        private Block(BlockKey key, byte[] data) {
+            this.key = key;
+            this.data = data;
+        }
+    }
+}
@@ -82,6 +82,23 @@ enum BloomFilterStrategies implements HeapBloomFilter.Strategy {
             }
             return true;
         }
+
+        @Override
+        boolean mightContain(long h1, long h2, int numHashFunctions, LockFreeBitArray bits) {
+            long bitSize = bits.bitSize();
+            int hash1 = (int) h1;
+            int hash2 = (int) (h1 >>> 32);
+            for (int i = 1; i <= numHashFunctions; i++) {
+                int combinedHash = hash1 + (i * hash2);
+                if (combinedHash < 0) {
+                    combinedHash = ~combinedHash;
+                }
+                if (!bits.get(combinedHash % bitSize)) {
+                    return false;
+                }
+            }
+            return true;
+        }
     },
 
     MURMUR128_MITZ_64() {
@@ -123,6 +140,19 @@ enum BloomFilterStrategies implements HeapBloomFilter.Strategy {
             return true;
         }
 
+        @Override
+        boolean mightContain(long h1, long h2, int numHashFunctions, LockFreeBitArray bits) {
+            long bitSize = bits.bitSize();
+            long combinedHash = h1;
+            for (int i = 0; i < numHashFunctions; i++) {
+                if (!bits.get((combinedHash & Long.MAX_VALUE) % bitSize)) {
+                    return false;
+                }
+                combinedHash += h2;
+            }
+            return true;
+        }
+
         private /* static */ long lowerEight(byte[] bytes) {
             return Longs.fromBytes(bytes[7], bytes[6], bytes[5], bytes[4], bytes[3], bytes[2],
                     bytes[1], bytes[0]);
@@ -134,6 +164,12 @@ enum BloomFilterStrategies implements HeapBloomFilter.Strategy {
         }
     };
 
+    /**
+     * 使用已经算好的murmur3_128哈希值查询 h1 h2 分别是哈希值的低8字节和高8字节(小端序)
+     * 和 {@link #mightContain(Object, Funnel, int, LockFreeBitArray)} 的结果一致 但不需要分配对象
+     */
+    abstract boolean mightContain(long h1, long h2, int numHashFunctions, LockFreeBitArray bits);
+
     /**
      * Models a lock-free array of bits.
      *
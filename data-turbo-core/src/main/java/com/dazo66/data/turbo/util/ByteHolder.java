@@ -2,111 +2,343 @@ package com.dazo66.data.turbo.util;
 
 import com.dazo66.data.turbo.model.LoadEnum;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 
 /**
+ * 数据块的持有者 根据加载模式从堆内存 / 映射 / 磁盘中读取数据
+ * 所有读取方法都是绝对位置读取 偏移量都是相对于数据块开头的
+ * 一个holder可以同时被多个查询线程使用
+ *
  * @author dazo66
  **/
 public class ByteHolder {
 
+    /**
+     * mmap模式下每一段映射的大小 单个MappedByteBuffer最大只能映射2G
+     */
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+    /**
+     * mmap模式下不超过这个长度的读取逐字节进行 避免每次读取都创建视图对象
+     */
+    private static final int SMALL_READ_LENGTH = 1024;
+
     private final LoadEnum loadEnum;
     private final int stepCount;
     private final ThreadLocal<FileChannel> channelThreadLocal = new ThreadLocal<>();
     private long baseOffset;
     private long length;
-    private ByteBuffer byteBuffer;
+    private byte[] heapBytes;
+    private MappedByteBuffer[] segments;
     private FileChannelPool fileChannelPool;
+    /**
+     * 磁盘模式下的块缓存 为null时直接读取文件
+     */
+    private BlockCache blockCache;
+    private long cacheOwnerId;
 
     public ByteHolder(LoadEnum loadEnum, FileChannelPool fileChannelPool, long baseOffset,
                       long length, int stepCount) {
+        // 堆内存放不下的数据块直接使用映射
+        if (loadEnum == LoadEnum.HEAP && length >= Integer.MAX_VALUE) {
+            loadEnum = LoadEnum.MMAP;
+        }
         this.loadEnum = loadEnum;
         this.stepCount = stepCount;
         if (loadEnum == LoadEnum.HEAP) {
-            if (length < Integer.MAX_VALUE) {
-                try {
-                    FileChannel fileChannel = fileChannelPool.getFileChannel();
-                    byteBuffer = IOUtils.readHeapBytes(fileChannel, baseOffset,
-                            Ints.checkedCast(length));
-                    this.baseOffset = 0;
-                    this.length = length;
-                    fileChannelPool.putFileChannel(fileChannel);
-                    fileChannelPool.shutDown();
-                } catch (Exception e) {
-                    throw new RuntimeException("load from disk has error:", e);
-                }
+            try {
+                FileChannel fileChannel = fileChannelPool.getFileChannel();
+                heapBytes = IOUtils.readHeapBytes(fileChannel, baseOffset,
+                        Ints.checkedCast(length)).array();
+                this.baseOffset = 0;
+                this.length = length;
+                fileChannelPool.putFileChannel(fileChannel);
+                fileChannelPool.shutDown();
+            } catch (Exception e) {
+                throw new RuntimeException("load from disk has error:", e);
             }
         } else if (loadEnum == LoadEnum.DISK) {
             this.fileChannelPool = fileChannelPool;
             this.baseOffset = baseOffset;
             this.length = length;
+        } else if (loadEnum == LoadEnum.MMAP) {
+            FileChannel fileChannel = fileChannelPool.getFileChannel();
+            try {
+                segments = map(fileChannel, baseOffset, length);
+                this.baseOffset = 0;
+                this.length = length;
+            } catch (Exception e) {
+                throw new RuntimeException("map from disk has error:", e);
+            } finally {
+                fileChannelPool.putFileChannel(fileChannel);
+            }
         } else {
             throw new RuntimeException();
         }
     }
 
+    /**
+     * 给自己管理数据的子类使用 不会读取文件
+     * 子类需要重写读取数据的方法
+     *
+     * @param loadEnum  加载方式
+     * @param length    数据块的长度
+     * @param stepCount 查找结束字节时每次读取的字节数
+     */
+    protected ByteHolder(LoadEnum loadEnum, long length, int stepCount) {
+        this.loadEnum = loadEnum;
+        this.length = length;
+        this.stepCount = stepCount;
+    }
+
+    /**
+     * 把文件的一段分段映射到内存 每段最大 {@link #SEGMENT_SIZE}
+     * 映射在通道关闭之后依然有效
+     *
+     * @param fileChannel 文件通道
+     * @param baseOffset  开始的偏移量
+     * @param length      映射的长度
+     * @return 分段的映射
+     * @throws IOException 映射失败
+     */
+    private static MappedByteBuffer[] map(FileChannel fileChannel, long baseOffset,
+                                          long length) throws IOException {
+        int count = Ints.checkedCast((length + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long position = ((long) i) << SEGMENT_SHIFT;
+            long size = Math.min(SEGMENT_SIZE, length - position);
+            segments[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, baseOffset + position,
+                    size);
+        }
+        return segments;
+    }
+
+    /**
+     * 设置块缓存 只对磁盘模式生效 其他模式的数据已经在内存中了
+     *
+     * @param blockCache 块缓存 为null时不使用缓存
+     * @return this
+     */
+    public ByteHolder setBlockCache(BlockCache blockCache) {
+        if (loadEnum == LoadEnum.DISK) {
+            if (this.blockCache != null) {
+                this.blockCache.invalidate(cacheOwnerId);
+            }
+            this.blockCache = blockCache;
+            this.cacheOwnerId = BlockCache.newOwnerId();
+        }
+        return this;
+    }
+
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
     public long getBaseOffset() {
         return baseOffset;
     }
 
+    /**
+     * @return 数据块的长度
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * 读取一段数据到新的数组中
+     *
+     * @param offset 数据块内的偏移量
+     * @param length 读取的长度
+     * @return 读取到的数据
+     * @throws IOException 磁盘模式下可能出现io异常
+     */
     public byte[] read(long offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        read(offset, bytes, 0, length);
+        return bytes;
+    }
+
+    /**
+     * 绝对位置读取 不会修改任何共享的position 多线程同时读取是安全的
+     *
+     * @param offset    数据块内的偏移量
+     * @param dst       目标数组
+     * @param dstOffset 目标数组的偏移量
+     * @param length    读取的长度
+     * @throws IOException 磁盘模式下可能出现io异常
+     */
+    public void read(long offset, byte[] dst, int dstOffset, int length) throws IOException {
         if (loadEnum == LoadEnum.HEAP) {
-            byte[] bytes = new byte[length];
-            byteBuffer.position(Ints.checkedCast(offset));
-            byteBuffer.get(bytes, 0, length);
-            return bytes;
+            System.arraycopy(heapBytes, Ints.checkedCast(offset), dst, dstOffset, length);
         } else if (loadEnum == LoadEnum.DISK) {
-            if (channelThreadLocal.get() == null) {
-                channelThreadLocal.set(fileChannelPool.getFileChannel());
+            if (blockCache != null) {
+                readFromCache(offset, dst, dstOffset, length);
+            } else {
+                readFromChannel(offset, ByteBuffer.wrap(dst, dstOffset, length));
+            }
+        } else if (loadEnum == LoadEnum.MMAP) {
+            int start = (int) (offset & SEGMENT_MASK);
+            ByteBuffer first = segments[(int) (offset >>> SEGMENT_SHIFT)];
+            if (length <= SMALL_READ_LENGTH && start + length <= first.limit()) {
+                // 短数据逐字节绝对读取 不需要创建duplicate
+                for (int i = 0; i < length; i++) {
+                    dst[dstOffset + i] = first.get(start + i);
+                }
+                return;
+            }
+            int copied = 0;
+            while (copied < length) {
+                long position = offset + copied;
+                ByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)].duplicate();
+                int inSegment = (int) (position & SEGMENT_MASK);
+                int len = Math.min(length - copied, segment.limit() - inSegment);
+                segment.position(inSegment);
+                segment.get(dst, dstOffset + copied, len);
+                copied += len;
             }
-            FileChannel fileChannel = channelThreadLocal.get();
-            ByteBuffer byteBuffer = ByteBuffer.allocate(length);
-            fileChannel.position(baseOffset + offset);
-            fileChannel.read(byteBuffer);
-            return byteBuffer.array();
         } else {
             throw new RuntimeException();
         }
     }
 
-    public long indexOf(long offset, String endString) throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        while (true) {
-            if (offset >= baseOffset + length) {
-                return -1;
+    /**
+     * 获得一段数据的只读视图
+     * 内存模式和映射模式下直接返回底层数据 没有拷贝 (跨映射分段时会拷贝一次)
+     * 磁盘模式下会读取到一个新的buffer中 如果使用了块缓存并且没有跨块 直接返回缓存块的视图
+     * 返回的buffer position为0 limit为length 各线程持有各自的视图 互不影响
+     *
+     * @param offset 数据块内的偏移量
+     * @param length 长度
+     * @return 只读的数据视图
+     * @throws IOException 磁盘模式下可能出现io异常
+     */
+    public ByteBuffer slice(long offset, int length) throws IOException {
+        if (loadEnum == LoadEnum.HEAP) {
+            return ByteBuffer.wrap(heapBytes, Ints.checkedCast(offset), length).slice().asReadOnlyBuffer();
+        } else if (loadEnum == LoadEnum.MMAP) {
+            int inSegment = (int) (offset & SEGMENT_MASK);
+            ByteBuffer segment = segments[(int) (offset >>> SEGMENT_SHIFT)].duplicate();
+            if (inSegment + length <= segment.limit()) {
+                segment.position(inSegment);
+                segment.limit(inSegment + length);
+                return segment.slice().asReadOnlyBuffer();
             }
-            long min = baseOffset + length - offset;
-            int len = min > stepCount ? stepCount : ((Long) min).intValue();
-            byte[] bytes = read(offset, len);
-            buffer.write(bytes);
-            String s = buffer.toString();
-            int i = s.indexOf(endString);
-            if (i != -1) {
-                return i;
+        } else if (blockCache != null) {
+            int blockSize = blockCache.getBlockSize();
+            int inBlock = (int) (offset % blockSize);
+            if (inBlock + length <= blockSize) {
+                byte[] block = blockCache.get(cacheOwnerId, offset / blockSize, this::loadBlock);
+                return ByteBuffer.wrap(block, inBlock, length).slice().asReadOnlyBuffer();
             }
-            offset += len;
         }
+        return ByteBuffer.wrap(read(offset, length)).asReadOnlyBuffer();
     }
 
-    public String read(long offset, String endString) throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        while (true) {
-            if (offset >= baseOffset + length) {
-                return null;
+    /**
+     * 按块从缓存中读取 未命中的块会从磁盘读取后放入缓存
+     */
+    private void readFromCache(long offset, byte[] dst, int dstOffset, int length) throws IOException {
+        int blockSize = blockCache.getBlockSize();
+        int copied = 0;
+        while (copied < length) {
+            long position = offset + copied;
+            byte[] block = blockCache.get(cacheOwnerId, position / blockSize, this::loadBlock);
+            int inBlock = (int) (position % blockSize);
+            int len = Math.min(length - copied, block.length - inBlock);
+            if (len <= 0) {
+                throw new IOException("read out of block range: " + position);
             }
-            long min = baseOffset + length - offset;
-            int len = min > stepCount ? stepCount : ((Long) min).intValue();
-            byte[] bytes = read(offset, len);
-            buffer.write(bytes);
-            String s = buffer.toString();
-            int i = s.indexOf(endString);
+            System.arraycopy(block, inBlock, dst, dstOffset + copied, len);
+            copied += len;
+        }
+    }
+
+    /**
+     * 读取一个完整的块 最后一个块可能不满
+     */
+    private byte[] loadBlock(long block) throws IOException {
+        long start = block * blockCache.getBlockSize();
+        byte[] bytes = new byte[(int) Math.min(blockCache.getBlockSize(), length - start)];
+        readFromChannel(start, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * 使用通道的绝对位置读取 不依赖通道本身的position
+     */
+    private void readFromChannel(long offset, ByteBuffer dst) throws IOException {
+        if (channelThreadLocal.get() == null) {
+            channelThreadLocal.set(fileChannelPool.getFileChannel());
+        }
+        FileChannel fileChannel = channelThreadLocal.get();
+        long position = baseOffset + offset;
+        while (dst.hasRemaining()) {
+            int read = fileChannel.read(dst, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * 从给定的偏移量开始寻找结束字符串
+     *
+     * @param offset    数据块内的偏移量
+     * @param endString 结束字符串
+     * @return 结束字符串在数据块内的偏移量 不存在返回-1
+     * @throws IOException 磁盘模式下可能出现io异常
+     */
+    public long indexOf(long offset, String endString) throws IOException {
+        return indexOf(offset, endString.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 从给定的偏移量开始寻找结束字节序列
+     *
+     * @param offset 数据块内的偏移量
+     * @param end    结束字节序列
+     * @return 结束字节序列在数据块内的偏移量 不存在返回-1
+     * @throws IOException 磁盘模式下可能出现io异常
+     */
+    public long indexOf(long offset, byte[] end) throws IOException {
+        while (offset < length) {
+            int len = (int) Math.min(stepCount, length - offset);
+            ByteBuffer slice = slice(offset, len);
+            int i = ByteUtils.indexOf(slice, end, 0);
             if (i != -1) {
-                return s.substring(0, i);
+                return offset + i;
             }
-            offset += len;
+            if (len < end.length) {
+                return -1;
+            }
+            // 结束字节序列可能被截断 回退一点
+            offset += len - end.length + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * 读取从偏移量开始到结束字符串之前的内容
+     *
+     * @param offset    数据块内的偏移量
+     * @param endString 结束字符串
+     * @return 读取到的字符串 没有找到结束字符串返回null
+     * @throws IOException 磁盘模式下可能出现io异常
+     */
+    public String read(long offset, String endString) throws IOException {
+        long end = indexOf(offset, endString);
+        if (end == -1) {
+            return null;
         }
+        return new String(read(offset, Ints.checkedCast(end - offset)), StandardCharsets.UTF_8);
     }
 
     public void clean() {
@@ -121,4 +353,14 @@ public class ByteHolder {
         }
     }
 
+    /**
+     * 释放这个holder在块缓存中占用的空间
+     * 不会关闭文件通道 文件通道由通道池统一关闭
+     */
+    public void close() {
+        if (blockCache != null) {
+            blockCache.invalidate(cacheOwnerId);
+        }
+    }
+
 }
@@ -14,6 +14,8 @@
 
 package com.dazo66.data.turbo.util;
 
+import java.nio.ByteBuffer;
+
 import static com.dazo66.data.turbo.util.Preconditions.checkArgument;
 
 /**
@@ -112,13 +114,70 @@ public class ByteUtils {
                 ret += 1;
             } else if (c < '\u0800') {
                 ret += 2;
-            } else {
+            } else if (!Character.isSurrogate(c)) {
                 ret += 3;
+            } else if (Character.isHighSurrogate(c) && i + 1 < src.length()
+                    && Character.isLowSurrogate(src.charAt(i + 1))) {
+                // 增补字符 一个代理对编码成4个字节
+                ret += 4;
+                i++;
+            } else {
+                // 单独的代理字符 编码时会被替换成 '?'
+                ret += 1;
             }
         }
         return ret;
     }
 
+    /**
+     * 把字符串按UTF-8编码写入给定的数组 结果和 {@link String#getBytes(java.nio.charset.Charset)} 一致
+     * 单独的代理字符会被替换成 '?'
+     * 数组长度不小于字符串长度的3倍时一定足够
+     *
+     * @param src 给定的字符串
+     * @param dst 目标数组
+     * @return 编码后的长度
+     */
+    public static int encodeUTF8(CharSequence src, byte[] dst) {
+        return encodeUTF8(src, dst, 0);
+    }
+
+    /**
+     * 把字符串按UTF-8编码写入给定数组的指定位置 用于把多段字符串拼接编码到同一个数组中
+     *
+     * @param src    给定的字符串
+     * @param dst    目标数组 剩余空间不小于字符串长度的3倍时一定足够
+     * @param offset 开始写入的位置
+     * @return 写入之后的位置
+     */
+    public static int encodeUTF8(CharSequence src, byte[] dst, int offset) {
+        int j = offset;
+        int length = src.length();
+        for (int i = 0; i < length; i++) {
+            char c = src.charAt(i);
+            if (c < '\u0080') {
+                dst[j++] = (byte) c;
+            } else if (c < '\u0800') {
+                dst[j++] = (byte) (0xC0 | (c >> 6));
+                dst[j++] = (byte) (0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                dst[j++] = (byte) (0xE0 | (c >> 12));
+                dst[j++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dst[j++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(src.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, src.charAt(++i));
+                dst[j++] = (byte) (0xF0 | (codePoint >> 18));
+                dst[j++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                dst[j++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                dst[j++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                dst[j++] = '?';
+            }
+        }
+        return j;
+    }
+
     /**
      * 返回target在src中第一个出现的序号 包括target
      *
@@ -141,4 +200,26 @@ public class ByteUtils {
         return -1;
     }
 
+    /**
+     * 返回target在buffer中第一个出现的序号 使用绝对位置读取 不修改buffer的position
+     *
+     * @param src    原始buffer 序号相对于buffer的开头
+     * @param target 搜索数组
+     * @param offset 开始搜索的位置
+     * @return 不存在返回-1
+     */
+    public static int indexOf(ByteBuffer src, byte[] target, int offset) {
+        int limit = src.limit() - target.length;
+        out:
+        for (int i = offset; i <= limit; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (src.get(i + j) != target[j]) {
+                    continue out;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
 }
@@ -0,0 +1,69 @@
+package com.dazo66.data.turbo.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 4行的count-min sketch 每个计数器1个字节 最大到255
+ * 估计值只会偏大不会偏小 用于在固定内存中统计大量对象的出现次数
+ * 和 {@link FrequencyCache} 中的sketch不同 计数器不会衰减
+ * 每4个计数器打包在一个int中通过CAS更新 多个线程同时计数不需要加锁
+ *
+ * @author dazo66
+ **/
+public class CountMinSketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 255;
+    private static final long[] SEEDS = {0x97cb3127b2c1b45dL, 0x3c8e7d316a09e667L,
+            0xbb67ae853c6ef372L, 0xa54ff53a510e527fL};
+
+    private final AtomicIntegerArray table;
+    private final int width;
+    private final int mask;
+
+    /**
+     * @param width 每行的计数器个数 会向上取整到2的幂 总内存是4倍的width字节
+     */
+    public CountMinSketch(int width) {
+        Preconditions.checkArgument(width > 0 && width <= 1 << 28, "width out of range: %s", width);
+        this.width = width == 1 ? 1 : Integer.highestOneBit(width - 1) << 1;
+        this.mask = this.width - 1;
+        this.table = new AtomicIntegerArray(this.width * DEPTH / 4);
+    }
+
+    private int counter(long hash, int row) {
+        return row * width + ((int) BBHash.mix(hash ^ SEEDS[row]) & mask);
+    }
+
+    /**
+     * 增加一次计数
+     *
+     * @param hash 对象的64位hash 32位的hash在几百万个对象时就会有很多冲突
+     */
+    public void increment(long hash) {
+        for (int row = 0; row < DEPTH; row++) {
+            int i = counter(hash, row);
+            int shift = (i & 3) << 3;
+            while (true) {
+                int packed = table.get(i >>> 2);
+                if (((packed >>> shift) & 0xFF) >= MAX_COUNT
+                        || table.compareAndSet(i >>> 2, packed, packed + (1 << shift))) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param hash 对象的hash
+     * @return 估计的出现次数 最大为255
+     */
+    public int estimate(long hash) {
+        int min = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            int i = counter(hash, row);
+            min = Math.min(min, (table.get(i >>> 2) >>> ((i & 3) << 3)) & 0xFF);
+        }
+        return min;
+    }
+}
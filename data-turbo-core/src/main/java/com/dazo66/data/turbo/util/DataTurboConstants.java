@@ -15,8 +15,29 @@ public class DataTurboConstants {
     public static String BUILDER_CONFIG_NORMAL_INDEX_COUNT = "build.config.normal.index.count";
     public static String BUILDER_CONFIG_NORMAL_MAX_COUNT_SPLIT = "build.config.normal.max.count" +
             ".split";
+    public static String BUILDER_CONFIG_NORMAL_MAX_BYTES_SPLIT = "build.config.normal.max.bytes" +
+            ".split";
     public static String BUILDER_CONFIG_NORMAL_WRITE_TIME = "build.config.normal.write.time";
     public static String BUILDER_CONFIG_NORMAL_ERROR_TOLERATING = "build.config.normal.error" +
             ".tolerating";
+    public static String BUILDER_CONFIG_NORMAL_VERSION = "build.config.normal.version";
+    public static String BUILDER_CONFIG_NORMAL_BLOOM_FPP = "build.config.normal.bloom.fpp";
+    public static String BUILDER_CONFIG_NORMAL_COMPRESS = "build.config.normal.compress";
+    public static String BUILDER_CONFIG_NORMAL_COMPRESS_BLOCK_SIZE = "build.config.normal.compress" +
+            ".block.size";
+    public static String BUILDER_CONFIG_NORMAL_REFERENCE_MIN_REPEAT = "build.config.normal" +
+            ".reference.min.repeat";
+    public static String BUILDER_CONFIG_NORMAL_REFERENCE_MAX_SIZE = "build.config.normal" +
+            ".reference.max.size";
+    public static String BUILDER_CONFIG_NORMAL_INPUT_BUFFERS = "build.config.normal.input.buffers";
+    public static String BUILDER_CONFIG_NORMAL_SPLINE_ERROR = "build.config.normal.spline.error";
+    public static String BUILDER_CONFIG_HASH_GAMMA = "build.config.hash.gamma";
+    public static String BUILDER_CONFIG_HASH_FINGERPRINT_BITS = "build.config.hash.fingerprint.bits";
+    public static String BUILDER_CONFIG_SHARDED_COUNT = "build.config.sharded.count";
+    public static String BUILDER_CONFIG_SHARDED_THREADS = "build.config.sharded.threads";
+    public static String CLIENT_CONFIG_BLOCK_CACHE_ENABLE = "client.config.block.cache.enable";
+    public static String CLIENT_CONFIG_RESULT_CACHE_SIZE = "client.config.result.cache.size";
+    public static String CLIENT_CONFIG_WARM_ENABLE = "client.config.warm.enable";
+    public static String CLIENT_CONFIG_SPLINE_MAX_ERROR = "client.config.spline.max.error";
 
 }
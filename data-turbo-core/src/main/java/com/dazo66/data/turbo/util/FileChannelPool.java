@@ -115,6 +115,13 @@ public class FileChannelPool {
 
         if (filePool.offer(channel)) {
             inNum.incrementAndGet();
+            // 归还的同时关闭了通道池 不能把通道留在池中
+            if (!running) {
+                FileChannel c;
+                while ((c = filePool.poll()) != null) {
+                    closeChannel(c);
+                }
+            }
         } else {
             closeChannel(channel);
         }
@@ -130,13 +137,13 @@ public class FileChannelPool {
 
     public synchronized void shutDown() throws Exception {
         if (running) {
-
+            // 先停止接收归还的通道 之后归还的通道会直接关闭
+            running = false;
             while (!filePool.isEmpty()) {
                 closeChannel(filePool.poll());
             }
             writeThread.interrupt();
             writerChannel.close();
-            running = false;
         }
     }
 
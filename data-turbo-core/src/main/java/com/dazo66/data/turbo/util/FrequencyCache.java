@@ -0,0 +1,212 @@
+package com.dazo66.data.turbo.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按访问频率准入的有界缓存
+ * 使用count-min sketch统计最近的访问频率 缓存满了之后
+ * 只有比CLOCK算法选出的淘汰对象访问更频繁的新对象才会被放入缓存
+ * 这样偶尔出现一次的key不会把热点key挤出去
+ * 读取不加锁 只有写入时加锁
+ *
+ * @author dazo66
+ **/
+public class FrequencyCache<K, V> {
+
+    private final Map<K, Node<K, V>> map = new ConcurrentHashMap<>();
+    private final Node<K, V>[] ring;
+    private final FrequencySketch sketch;
+    private final LongAddable hitCount = LongAddables.create();
+    private final LongAddable missCount = LongAddables.create();
+    private int hand;
+    private int size;
+
+    /**
+     * @param capacity 最多缓存的对象个数
+     */
+    @SuppressWarnings("unchecked")
+    public FrequencyCache(int capacity) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        this.ring = new Node[capacity];
+        this.sketch = new FrequencySketch(capacity);
+    }
+
+    /**
+     * 获得缓存的对象 同时记录一次访问
+     *
+     * @param key key
+     * @return 缓存的对象 没有缓存返回null
+     */
+    public V get(K key) {
+        sketch.increment(key.hashCode());
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            missCount.increment();
+            return null;
+        }
+        node.referenced = true;
+        hitCount.increment();
+        return node.value;
+    }
+
+    /**
+     * 尝试放入缓存 缓存满了并且访问频率不够时会被丢弃
+     *
+     * @param key   key
+     * @param value 对象 不能为null
+     * @return 是否被放入了缓存
+     */
+    public synchronized boolean put(K key, V value) {
+        if (map.containsKey(key)) {
+            return true;
+        }
+        if (size < ring.length) {
+            while (ring[hand] != null) {
+                hand = (hand + 1) % ring.length;
+            }
+            size++;
+        } else {
+            // 跳过最近被访问过的对象 同时清除访问标记
+            while (ring[hand].referenced) {
+                ring[hand].referenced = false;
+                hand = (hand + 1) % ring.length;
+            }
+            Node<K, V> victim = ring[hand];
+            if (sketch.frequency(key.hashCode()) <= sketch.frequency(victim.key.hashCode())) {
+                return false;
+            }
+            map.remove(victim.key);
+        }
+        Node<K, V> node = new Node<>(key, value);
+        ring[hand] = node;
+        map.put(key, node);
+        hand = (hand + 1) % ring.length;
+        return true;
+    }
+
+    /**
+     * 清空缓存 访问频率的统计会保留
+     */
+    public synchronized void clear() {
+        map.clear();
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = null;
+        }
+        size = 0;
+        hand = 0;
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    private static final class Node<K, V> {
+
+        private final K key;
+        private final V value;
+        private volatile boolean referenced;
+
+        private Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * 4行的count-min sketch 每个计数器4位 最大到15 一个long里放16个计数器
+     * 总计数达到容量的10倍之后所有计数器减半 让频率统计跟随最近的访问
+     */
+    private static final class FrequencySketch {
+
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final long HALF_MASK = 0x7777777777777777L;
+        private static final int[] SEEDS = {0x97cb3127, 0xb2c1b45d, 0x3c8e7d31, 0x6a09e667};
+
+        private final AtomicLongArray table;
+        /**
+         * 每行的计数器个数 是4倍容量向上取整的2的幂
+         */
+        private final int mask;
+        private final int longsPerRow;
+        private final int sampleSize;
+        private final LongAddable additions = LongAddables.create();
+
+        private FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(16, Math.min(capacity, 1 << 26)) * 4 - 1) << 1;
+            this.longsPerRow = width >>> 4;
+            this.table = new AtomicLongArray(longsPerRow * DEPTH);
+            this.mask = width - 1;
+            this.sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * capacity);
+        }
+
+        private int counter(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+            h ^= h >>> 16;
+            return h & mask;
+        }
+
+        private void increment(int hash) {
+            boolean added = false;
+            for (int row = 0; row < DEPTH; row++) {
+                int counter = counter(hash, row);
+                int i = row * longsPerRow + (counter >>> 4);
+                int shift = (counter & 15) << 2;
+                long value;
+                do {
+                    value = table.get(i);
+                    if (((value >>> shift) & MAX_COUNT) == MAX_COUNT) {
+                        break;
+                    }
+                    if (table.compareAndSet(i, value, value + (1L << shift))) {
+                        added = true;
+                        break;
+                    }
+                } while (true);
+            }
+            if (added) {
+                additions.increment();
+                if (additions.sum() >= sampleSize) {
+                    reset();
+                }
+            }
+        }
+
+        private int frequency(int hash) {
+            int min = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                int counter = counter(hash, row);
+                long value = table.get(row * longsPerRow + (counter >>> 4));
+                min = Math.min(min, (int) ((value >>> ((counter & 15) << 2)) & MAX_COUNT));
+            }
+            return min;
+        }
+
+        private synchronized void reset() {
+            if (additions.sum() < sampleSize) {
+                return;
+            }
+            for (int i = 0; i < table.length(); i++) {
+                long value;
+                do {
+                    value = table.get(i);
+                } while (!table.compareAndSet(i, value, (value >>> 1) & HALF_MASK));
+            }
+            additions.add(-sampleSize);
+        }
+    }
+}
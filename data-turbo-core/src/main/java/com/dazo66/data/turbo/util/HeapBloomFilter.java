@@ -390,6 +390,26 @@ public class HeapBloomFilter<T extends Object> implements Predicate<T>, IBloomFi
         return strategy.mightContain(object, funnel, numHashFunctions, bits);
     }
 
+    /**
+     * 直接使用对象的字节查询 不创建Hasher 不分配对象
+     * 只有funnel写入的正好是这些字节时结果才和 {@link #mightContain(Object)} 一致
+     * 例如 {@link Funnels#stringFunnel} 对应字符串编码后的字节
+     *
+     * @param bytes  对象的字节
+     * @param off    开始位置
+     * @param len    长度
+     * @param hashes 长度至少为2的临时数组 由调用方复用
+     * @return 返回false时一定不存在
+     */
+    public boolean mightContain(byte[] bytes, int off, int len, long[] hashes) {
+        if (!(strategy instanceof BloomFilterStrategies)) {
+            throw new UnsupportedOperationException("unsupported strategy: " + strategy);
+        }
+        Murmur3_128HashFunction.hash128(0, bytes, off, len, hashes);
+        return ((BloomFilterStrategies) strategy).mightContain(hashes[0], hashes[1],
+                numHashFunctions, bits);
+    }
+
     /**
      * @deprecated Provided only to satisfy the {@link Predicate} interface; use
      * {@link #mightContain}
@@ -77,6 +77,64 @@ final class Murmur3_128HashFunction extends AbstractHashFunction implements Seri
         return "Hashing.murmur3_128(" + seed + ")";
     }
 
+    /**
+     * 直接计算一段字节的哈希 不创建Hasher 结果和 {@link #hashBytes(byte[], int, int)} 一致
+     *
+     * @param seed  种子
+     * @param input 输入
+     * @param off   开始位置
+     * @param len   长度
+     * @param out   长度至少为2 依次写入h1和h2 即哈希值的低8字节和高8字节(小端序)
+     */
+    static void hash128(int seed, byte[] input, int off, int len, long[] out) {
+        long h1 = seed;
+        long h2 = seed;
+        int i = 0;
+        for (; i + 16 <= len; i += 16) {
+            long k1 = getLongLittleEndian(input, off + i);
+            long k2 = getLongLittleEndian(input, off + i + 8);
+            h1 ^= Murmur3_128Hasher.mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= Murmur3_128Hasher.mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        int remaining = len - i;
+        if (remaining > 0) {
+            long k1 = 0;
+            long k2 = 0;
+            for (int j = remaining - 1; j >= 8; j--) {
+                k2 ^= (long) ByteUtils.toIntIgnoreSign(input[off + i + j]) << ((j - 8) * 8);
+            }
+            for (int j = Math.min(remaining, 8) - 1; j >= 0; j--) {
+                k1 ^= (long) ByteUtils.toIntIgnoreSign(input[off + i + j]) << (j * 8);
+            }
+            h1 ^= Murmur3_128Hasher.mixK1(k1);
+            h2 ^= Murmur3_128Hasher.mixK2(k2);
+        }
+        h1 ^= len;
+        h2 ^= len;
+        h1 += h2;
+        h2 += h1;
+        h1 = Murmur3_128Hasher.fmix64(h1);
+        h2 = Murmur3_128Hasher.fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        out[0] = h1;
+        out[1] = h2;
+    }
+
+    private static long getLongLittleEndian(byte[] input, int off) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (input[off + i] & 0xFF);
+        }
+        return value;
+    }
+
     private static final class Murmur3_128Hasher extends AbstractStreamingHasher {
         private static final int CHUNK_SIZE = 16;
         private static final long C1 = 0x87c37b91114253d5L;
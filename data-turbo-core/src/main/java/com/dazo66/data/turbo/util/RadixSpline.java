@@ -0,0 +1,280 @@
+package com.dazo66.data.turbo.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 整数key到记录序号的分段线性模型 RadixSpline
+ * 打包时按key的顺序一次遍历 用贪心的误差走廊选出若干个样条点 任意一条记录的预测序号和真实序号之差不超过误差上限
+ * 查询时先用key的高位查基数表 缩小样条点的范围 再在相邻两个样条点之间线性插值
+ * key分布比较均匀时样条点的数量远小于稀疏索引 查询只需要在 预测值±误差 的窗口内二分
+ * <p>
+ * 二进制格式 数字都是大端序：
+ * 4位int 误差上限 + 4位int 样条点数量n + n个(8位long key + 8位long 记录序号)
+ * 基数表不写入文件 加载时根据样条点重新计算
+ *
+ * @author dazo66
+ * @see com.dazo66.data.turbo.model.NormalBlockEnum#SPLINE
+ **/
+public class RadixSpline {
+
+    /**
+     * 基数表最多使用的key的高位数
+     */
+    private static final int MAX_RADIX_BITS = 20;
+
+    private final int errorBound;
+    private final int size;
+    private final long[] keys;
+    private final long[] positions;
+    /**
+     * 样条点的key减去最小key之后的值 按无符号数比较
+     */
+    private final long[] deltas;
+    /**
+     * radix[p] 是高位小于p的样条点数量
+     */
+    private final int[] radix;
+    private final int shift;
+
+    private RadixSpline(int errorBound, int size, long[] keys, long[] positions) {
+        this.errorBound = errorBound;
+        this.size = size;
+        this.keys = keys;
+        this.positions = positions;
+        this.deltas = new long[size];
+        for (int i = 0; i < size; i++) {
+            deltas[i] = keys[i] - keys[0];
+        }
+        long maxDelta = size == 0 ? 0 : deltas[size - 1];
+        int radixBits = Math.min(MAX_RADIX_BITS, 64 - Long.numberOfLeadingZeros(size) + 1);
+        this.shift = Math.max(0, 64 - Long.numberOfLeadingZeros(maxDelta) - radixBits);
+        int tableSize = (int) (maxDelta >>> shift) + 2;
+        this.radix = new int[tableSize];
+        int p = 0;
+        for (int i = 0; i < size; i++) {
+            int prefix = (int) (deltas[i] >>> shift);
+            while (p <= prefix) {
+                radix[p++] = i;
+            }
+        }
+        while (p < tableSize) {
+            radix[p++] = size;
+        }
+    }
+
+    /**
+     * @param errorBound 误差上限 大于0
+     * @return 模型构造器
+     */
+    public static Builder builder(int errorBound) {
+        return new Builder(errorBound);
+    }
+
+    public static RadixSpline readFrom(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int errorBound = in.readInt();
+        int size = in.readInt();
+        if (size <= 0) {
+            throw new IOException("spline block has error");
+        }
+        long[] keys = new long[size];
+        long[] positions = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = in.readLong();
+            positions[i] = in.readLong();
+        }
+        return new RadixSpline(errorBound, size, keys, positions);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(errorBound);
+        dataOut.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            dataOut.writeLong(keys[i]);
+            dataOut.writeLong(positions[i]);
+        }
+        dataOut.flush();
+    }
+
+    /**
+     * 预测key所在的记录序号 key需要在 [最小key, 最大key] 之间
+     *
+     * @param key 目标key
+     * @return 预测的记录序号 真实序号在 ±误差上限 之内
+     */
+    public long predict(long key) {
+        long delta = key - keys[0];
+        int p = (int) (delta >>> shift);
+        // 第一个大于等于key的样条点一定在这个范围内
+        int low = radix[p];
+        int high = radix[p + 1];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(deltas[mid], delta) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == size) {
+            return positions[size - 1];
+        }
+        if (deltas[low] == delta || low == 0) {
+            return positions[low];
+        }
+        double x0 = toDouble(deltas[low - 1]);
+        double x1 = toDouble(deltas[low]);
+        double y0 = positions[low - 1];
+        double y1 = positions[low];
+        return Math.round(y0 + (toDouble(delta) - x0) * (y1 - y0) / (x1 - x0));
+    }
+
+    /**
+     * 无符号数转换成double
+     */
+    private static double toDouble(long unsigned) {
+        if (unsigned >= 0) {
+            return unsigned;
+        }
+        return ((unsigned >>> 1) | (unsigned & 1)) * 2.0;
+    }
+
+    public int getErrorBound() {
+        return errorBound;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getMinKey() {
+        return keys[0];
+    }
+
+    public long getMaxKey() {
+        return keys[size - 1];
+    }
+
+    /**
+     * 按key递增的顺序添加记录 使用贪心的误差走廊选择样条点
+     * 以上一个样条点为原点 维护所有已经加入的点都满足误差的斜率范围 新的点超出范围时把前一个点作为样条点
+     */
+    public static class Builder {
+
+        private final int errorBound;
+        private int size;
+        private long[] keys = new long[64];
+        private long[] positions = new long[64];
+        private long count;
+        private long prevKey;
+        private long prevPosition;
+        private double upperX;
+        private double upperY;
+        private double lowerX;
+        private double lowerY;
+
+        private Builder(int errorBound) {
+            Preconditions.checkArgument(errorBound > 0, "error bound must be positive: %s",
+                    errorBound);
+            this.errorBound = errorBound;
+        }
+
+        /**
+         * @param key      key 必须严格递增
+         * @param position 记录序号
+         * @return this
+         */
+        public Builder add(long key, long position) {
+            if (count > 0 && key <= prevKey) {
+                throw new IllegalArgumentException("spline key must be increasing");
+            }
+            if (count == 0) {
+                addPoint(key, position);
+            } else {
+                double x = toDouble(key - keys[0]);
+                double upper = position + errorBound;
+                double lower = Math.max(0, position - errorBound);
+                if (count == 1) {
+                    setUpper(x, upper);
+                    setLower(x, lower);
+                } else {
+                    double baseX = toDouble(keys[size - 1] - keys[0]);
+                    double baseY = positions[size - 1];
+                    double dx = x - baseX;
+                    if (cross(upperX - baseX, upperY - baseY, dx, position - baseY) > 0
+                            || cross(lowerX - baseX, lowerY - baseY, dx, position - baseY) < 0) {
+                        // 超出了误差走廊 前一个点作为新的样条点
+                        addPoint(prevKey, prevPosition);
+                        setUpper(x, upper);
+                        setLower(x, lower);
+                    } else {
+                        if (cross(upperX - baseX, upperY - baseY, dx, upper - baseY) < 0) {
+                            setUpper(x, upper);
+                        }
+                        if (cross(lowerX - baseX, lowerY - baseY, dx, lower - baseY) > 0) {
+                            setLower(x, lower);
+                        }
+                    }
+                }
+            }
+            prevKey = key;
+            prevPosition = position;
+            count++;
+            return this;
+        }
+
+        /**
+         * 两个向量的叉积 x都大于0时 大于0表示第二个向量的斜率更大
+         */
+        private static double cross(double x1, double y1, double x2, double y2) {
+            return x1 * y2 - y1 * x2;
+        }
+
+        private void setUpper(double x, double y) {
+            upperX = x;
+            upperY = y;
+        }
+
+        private void setLower(double x, double y) {
+            lowerX = x;
+            lowerY = y;
+        }
+
+        private void addPoint(long key, long position) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            keys[size] = key;
+            positions[size] = position;
+            size++;
+        }
+
+        /**
+         * @return 当前的样条点数量 不包括最后一个点
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return 模型 没有添加过记录时返回null
+         */
+        public RadixSpline build() {
+            if (count == 0) {
+                return null;
+            }
+            if (keys[size - 1] != prevKey) {
+                addPoint(prevKey, prevPosition);
+            }
+            return new RadixSpline(errorBound, size, Arrays.copyOf(keys, size),
+                    Arrays.copyOf(positions, size));
+        }
+    }
+}
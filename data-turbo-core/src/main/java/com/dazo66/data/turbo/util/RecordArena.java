@@ -0,0 +1,290 @@
+package com.dazo66.data.turbo.util;
+
+import com.dazo66.data.turbo.key.predictor.ByteKeyComparator;
+import com.dazo66.data.turbo.key.predictor.IKeyComparator;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 打包时使用的记录缓冲区
+ * 记录的key和value按UTF-8编码之后连续追加在若干个大的字节数组页中 每条记录只有几个基本类型的元数据
+ * 不会为每条记录创建字符串和树节点 同样的内存可以缓存多得多的记录 也几乎不会产生垃圾
+ * 写入时通过一个开放寻址的记录序号表检查重复的key 每条记录只多占用几个字节
+ * 排序时只对记录序号数组排序 使用的是稳定的归并排序
+ * 按字节序比较时先比较key的前8个字节组成的前缀 大部分比较不需要访问页中的数据
+ * <p>
+ * 不是线程安全的 需要调用方加锁
+ *
+ * @author dazo66
+ **/
+public class RecordArena {
+
+    /**
+     * 第一次写入时元数据数组的记录数
+     */
+    private static final int INIT_CAPACITY = 64;
+    /**
+     * 小于这个长度的区间使用插入排序
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    /**
+     * 每条记录元数据占用的字节数 地址 + 前缀 + key长度 + value长度 hash表另外占用至少8个字节
+     */
+    private static final int RECORD_META_BYTES = 8 + 8 + 4 + 4;
+    private static final int EMPTY_SLOT = -1;
+    private static final long[] EMPTY_LONGS = new long[0];
+    private static final int[] EMPTY_INTS = new int[0];
+
+    private final int pageSize;
+    private final List<byte[]> pages = new ArrayList<>();
+    /**
+     * 当前页已经使用的字节数
+     */
+    private int pageUsed;
+    private int size;
+    /**
+     * 记录的地址 高32位是页序号 低32位是页内偏移量
+     */
+    private long[] addresses = EMPTY_LONGS;
+    /**
+     * key的前8个字节 按大端序组成的long 不足8个字节时补0
+     */
+    private long[] prefixes = EMPTY_LONGS;
+    private int[] keyLengths = EMPTY_INTS;
+    private int[] valueLengths = EMPTY_INTS;
+    /**
+     * key的hash表 保存记录序号 大小是2的幂 最多使用一半 没有记录时不申请
+     */
+    private int[] slots = EMPTY_INTS;
+
+    /**
+     * @param pageSize 每页的字节数 比一页大的记录会单独占用一页
+     */
+    public RecordArena(int pageSize) {
+        Preconditions.checkArgument(pageSize > 0, "page size must be positive: %s", pageSize);
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * 追加一条记录
+     *
+     * @param key         key的UTF-8编码
+     * @param value       value的UTF-8编码 可以是复用的缓冲区 写入时会复制
+     * @param valueLength value的字节数 从0开始
+     * @return 已经存在字节相同的key时不写入 返回false
+     */
+    public boolean add(byte[] key, byte[] value, int valueLength) {
+        if (slots.length == 0) {
+            slots = newSlots(INIT_CAPACITY * 2);
+        }
+        int slot = findSlot(key);
+        if (slots[slot] != EMPTY_SLOT) {
+            return false;
+        }
+        int length = key.length + valueLength;
+        if (pages.isEmpty() || pageUsed + length > pages.get(pages.size() - 1).length) {
+            pages.add(new byte[Math.max(pageSize, length)]);
+            pageUsed = 0;
+        }
+        byte[] page = pages.get(pages.size() - 1);
+        System.arraycopy(key, 0, page, pageUsed, key.length);
+        System.arraycopy(value, 0, page, pageUsed + key.length, valueLength);
+        if (size == addresses.length) {
+            int capacity = Math.max(INIT_CAPACITY, size + (size >> 1));
+            addresses = Arrays.copyOf(addresses, capacity);
+            prefixes = Arrays.copyOf(prefixes, capacity);
+            keyLengths = Arrays.copyOf(keyLengths, capacity);
+            valueLengths = Arrays.copyOf(valueLengths, capacity);
+        }
+        addresses[size] = ((long) (pages.size() - 1) << 32) | pageUsed;
+        prefixes[size] = prefix(key);
+        keyLengths[size] = key.length;
+        valueLengths[size] = valueLength;
+        slots[slot] = size;
+        size++;
+        pageUsed += length;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    /**
+     * @return key所在的槽位 不存在时是一个空槽位
+     */
+    private int findSlot(byte[] key) {
+        int mask = slots.length - 1;
+        int slot = Arrays.hashCode(key) * 0x9E3779B9 >>> 1 & mask;
+        while (slots[slot] != EMPTY_SLOT && !keyEquals(slots[slot], key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean keyEquals(int record, byte[] key) {
+        if (keyLengths[record] != key.length) {
+            return false;
+        }
+        byte[] page = pages.get((int) (addresses[record] >>> 32));
+        int from = (int) addresses[record];
+        for (int i = 0; i < key.length; i++) {
+            if (page[from + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        slots = newSlots(slots.length * 2);
+        for (int i = 0; i < size; i++) {
+            slots[findSlot(getKeyBytes(i))] = i;
+        }
+    }
+
+    private static int[] newSlots(int length) {
+        int[] slots = new int[length];
+        Arrays.fill(slots, EMPTY_SLOT);
+        return slots;
+    }
+
+    private static long prefix(byte[] key) {
+        long prefix = 0;
+        for (int i = 0; i < 8; i++) {
+            prefix = (prefix << 8) | (i < key.length ? key[i] & 0xFF : 0);
+        }
+        return prefix;
+    }
+
+    /**
+     * @return 记录数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 已经申请的页和元数据数组占用的字节数 包括没有用到的页尾和数组的预留空间
+     * 内存预算按这个值计算 保证缓冲区实际占用的堆内存不会超出预算太多
+     */
+    public long getAllocatedBytes() {
+        long bytes = (long) addresses.length * RECORD_META_BYTES + (long) slots.length * 4;
+        for (byte[] page : pages) {
+            bytes += page.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * 清空所有的记录 释放所有的页和元数据数组
+     * 写入临时文件之后缓冲区不再占用内存 空闲的缓冲区很多时也不会占用预算
+     */
+    public void clear() {
+        pages.clear();
+        addresses = EMPTY_LONGS;
+        prefixes = EMPTY_LONGS;
+        keyLengths = EMPTY_INTS;
+        valueLengths = EMPTY_INTS;
+        slots = EMPTY_INTS;
+        pageUsed = 0;
+        size = 0;
+    }
+
+    /**
+     * 按key排序 比较器认为相等的key保持写入的顺序
+     *
+     * @param comparator key比较器
+     * @return 排好序的记录序号
+     */
+    public int[] sort(IKeyComparator comparator) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        boolean bytewise = comparator.getClass() == ByteKeyComparator.class;
+        mergeSort(order.clone(), order, 0, size, comparator, bytewise);
+        return order;
+    }
+
+    /**
+     * 归并排序 src和dst的初始内容相同 结果写在dst中
+     */
+    private void mergeSort(int[] src, int[] dst, int from, int to, IKeyComparator comparator,
+                           boolean bytewise) {
+        if (to - from < INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                int record = dst[i];
+                int j = i - 1;
+                while (j >= from && compare(dst[j], record, comparator, bytewise) > 0) {
+                    dst[j + 1] = dst[j];
+                    j--;
+                }
+                dst[j + 1] = record;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        // 交替使用两个数组 两半排好序之后在src中
+        mergeSort(dst, src, from, mid, comparator, bytewise);
+        mergeSort(dst, src, mid, to, comparator, bytewise);
+        if (compare(src[mid - 1], src[mid], comparator, bytewise) <= 0) {
+            System.arraycopy(src, from, dst, from, to - from);
+            return;
+        }
+        for (int i = from, p = from, q = mid; i < to; i++) {
+            if (q >= to || (p < mid && compare(src[p], src[q], comparator, bytewise) <= 0)) {
+                dst[i] = src[p++];
+            } else {
+                dst[i] = src[q++];
+            }
+        }
+    }
+
+    private int compare(int a, int b, IKeyComparator comparator, boolean bytewise) {
+        if (bytewise && prefixes[a] != prefixes[b]) {
+            return Long.compareUnsigned(prefixes[a], prefixes[b]);
+        }
+        byte[] pageA = pages.get((int) (addresses[a] >>> 32));
+        byte[] pageB = pages.get((int) (addresses[b] >>> 32));
+        int fromA = (int) addresses[a];
+        int fromB = (int) addresses[b];
+        return comparator.compareBytes(pageA, fromA, fromA + keyLengths[a], pageB, fromB,
+                fromB + keyLengths[b]);
+    }
+
+    private byte[] getKeyBytes(int record) {
+        int from = (int) addresses[record];
+        return Arrays.copyOfRange(pages.get((int) (addresses[record] >>> 32)), from,
+                from + keyLengths[record]);
+    }
+
+    /**
+     * @param record 记录序号
+     * @return key的字节数
+     */
+    public int getKeyLength(int record) {
+        return keyLengths[record];
+    }
+
+    /**
+     * @param record 记录序号
+     * @return value的字节数
+     */
+    public int getValueLength(int record) {
+        return valueLengths[record];
+    }
+
+    /**
+     * 把一条记录的key和value连续写入buffer
+     *
+     * @param record 记录序号
+     * @param buffer 剩余空间不能小于key和value的字节数之和
+     */
+    public void copyRecord(int record, ByteBuffer buffer) {
+        buffer.put(pages.get((int) (addresses[record] >>> 32)), (int) addresses[record],
+                keyLengths[record] + valueLengths[record]);
+    }
+}
@@ -0,0 +1,59 @@
+package com.dazo66.data.turbo.util;
+
+import com.dazo66.data.turbo.model.KeyEnum;
+
+/**
+ * 分片模式下key和分片的对应关系
+ * 打包和查询都通过这里计算分片 修改算法会导致之前打包的文件查不到数据
+ *
+ * @author dazo66
+ * @see com.dazo66.data.turbo.model.DataFileEnum#SHARDED
+ **/
+public class ShardUtils {
+
+    /**
+     * 使用 {@link String#hashCode()} 再做一次murmur3的混合
+     * String的hash算法是固定的 不同的jvm计算结果一致 混合之后相近的key也能分散到不同的分片
+     *
+     * @param key        key null分到第0个分片
+     * @param shardCount 分片数
+     * @return 分片的序号 [0, shardCount)
+     */
+    public static int getShard(String key, int shardCount) {
+        return mix(key, shardCount);
+    }
+
+    /**
+     * 整数类型的key按存储key计算分片 "7" "007" "+7" 是同一个key 需要分到同一个分片
+     * 不合法的整数key按原文计算 对应的分片会把它当作错误数据或者查不到
+     *
+     * @param key        key null分到第0个分片
+     * @param keyEnum    key的类型 null按字符串处理
+     * @param shardCount 分片数
+     * @return 分片的序号 [0, shardCount)
+     * @see KeyEnum#toStoreKey(String)
+     */
+    public static int getShard(String key, KeyEnum keyEnum, int shardCount) {
+        if (key == null || shardCount <= 1 || keyEnum == null || !keyEnum.isNumber()) {
+            return mix(key, shardCount);
+        }
+        try {
+            return mix(keyEnum.toStoreKey(key), shardCount);
+        } catch (NumberFormatException e) {
+            return mix(key, shardCount);
+        }
+    }
+
+    private static int mix(String key, int shardCount) {
+        if (key == null || shardCount <= 1) {
+            return 0;
+        }
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % shardCount;
+    }
+}
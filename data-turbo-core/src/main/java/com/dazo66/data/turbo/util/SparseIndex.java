@@ -0,0 +1,396 @@
+package com.dazo66.data.turbo.util;
+
+import com.dazo66.data.turbo.key.predictor.ByteKeyComparator;
+import com.dazo66.data.turbo.key.predictor.IKeyComparator;
+import com.dazo66.data.turbo.key.predictor.StringKeyComparator;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * 紧凑的稀疏索引 只读
+ * 所有key按UTF-8编码连续存放在一个byte数组中 通过int偏移量定位
+ * 每个key的位置存放在long数组中 另外保存每个key的前8个字节用于快速比较
+ * 相比TreeMap没有装箱和树节点 可以容纳百万级别的索引
+ * <p>
+ * key的顺序由 {@link IKeyComparator} 决定 默认和 {@link String#compareTo(String)} 一致
+ * 内置的两种比较器可以直接比较前缀 其他比较器每次比较都会调用比较器的字节比较方法
+ *
+ * @author dazo66
+ **/
+public class SparseIndex {
+
+    /**
+     * 读取二进制索引时每次读取的最大字节数
+     */
+    private static final int READ_CHUNK = 8 * 1024 * 1024;
+    private static final int PREFIX_NONE = 0;
+    private static final int PREFIX_STRING = 1;
+    private static final int PREFIX_BYTE = 2;
+
+    private final IKeyComparator comparator;
+    /**
+     * 前缀的字节映射方式 见 {@link #prefixMode(IKeyComparator)}
+     */
+    private final int prefixMode;
+    private final int size;
+    private final byte[] keyBytes;
+    /**
+     * 第i个key在keyBytes中的范围是 [keyOffsets[i], keyOffsets[i + 1])
+     */
+    private final int[] keyOffsets;
+    private final long[] positions;
+    /**
+     * 每个key修正后的前8个字节 不足8个字节的补0 按无符号数比较 比较器不支持前缀比较时为null
+     */
+    private final long[] prefixes;
+
+    private SparseIndex(IKeyComparator comparator, int size, byte[] keyBytes, int[] keyOffsets,
+                        long[] positions) {
+        this.comparator = comparator;
+        this.prefixMode = prefixMode(comparator);
+        this.size = size;
+        this.keyBytes = keyBytes;
+        this.keyOffsets = keyOffsets;
+        this.positions = positions;
+        if (prefixMode == PREFIX_NONE) {
+            this.prefixes = null;
+        } else {
+            this.prefixes = new long[size];
+            for (int i = 0; i < size; i++) {
+                prefixes[i] = prefix(keyBytes, keyOffsets[i], keyOffsets[i + 1]);
+            }
+        }
+    }
+
+    /**
+     * 子类可能修改了比较的语义 所以必须是内置的类本身才能使用前缀比较
+     */
+    private static int prefixMode(IKeyComparator comparator) {
+        if (comparator.getClass() == StringKeyComparator.class) {
+            return PREFIX_STRING;
+        }
+        if (comparator.getClass() == ByteKeyComparator.class) {
+            return PREFIX_BYTE;
+        }
+        return PREFIX_NONE;
+    }
+
+    /**
+     * @return 按 {@link String#compareTo(String)} 排序的索引构造器
+     */
+    public static Builder builder() {
+        return new Builder(new StringKeyComparator());
+    }
+
+    /**
+     * @param comparator key的比较器 添加的key必须按这个比较器排好序
+     * @return 索引构造器
+     */
+    public static Builder builder(IKeyComparator comparator) {
+        return new Builder(comparator);
+    }
+
+    /**
+     * 从文件中读取二进制格式的索引 格式见 {@link #writeTo(OutputStream)}
+     * 各个数组都是直接批量拷贝的 不需要逐条解析 也不需要整个索引放进一个数组
+     *
+     * @param channel  文件通道
+     * @param position 索引在文件中的偏移量
+     * @param length   索引的长度
+     * @return 索引
+     * @throws IOException 读取异常
+     */
+    public static SparseIndex readFrom(FileChannel channel, long position, long length) throws IOException {
+        return readFrom(channel, position, length, new StringKeyComparator());
+    }
+
+    /**
+     * 从文件中读取二进制格式的索引
+     *
+     * @param channel    文件通道
+     * @param position   索引在文件中的偏移量
+     * @param length     索引的长度
+     * @param comparator 写入索引时使用的比较器
+     * @return 索引
+     * @throws IOException 读取异常
+     */
+    public static SparseIndex readFrom(FileChannel channel, long position, long length,
+                                       IKeyComparator comparator) throws IOException {
+        ByteBuffer head = read(channel, position, 4);
+        int size = head.getInt();
+        long keyLength = length - 4 - 8L * size - 4L * (size + 1);
+        if (size < 0 || keyLength < 0 || keyLength > Integer.MAX_VALUE) {
+            throw new IOException("index block has error");
+        }
+        position += 4;
+        long[] positions = new long[size];
+        for (int i = 0; i < size; ) {
+            int n = Math.min(size - i, READ_CHUNK / 8);
+            read(channel, position, n * 8).asLongBuffer().get(positions, i, n);
+            position += n * 8L;
+            i += n;
+        }
+        int[] keyOffsets = new int[size + 1];
+        for (int i = 0; i < size + 1; ) {
+            int n = Math.min(size + 1 - i, READ_CHUNK / 4);
+            read(channel, position, n * 4).asIntBuffer().get(keyOffsets, i, n);
+            position += n * 4L;
+            i += n;
+        }
+        byte[] keyBytes = new byte[(int) keyLength];
+        ByteBuffer dst = ByteBuffer.wrap(keyBytes);
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, position + dst.position()) < 0) {
+                throw new IOException("index block has error");
+            }
+        }
+        if (keyOffsets[size] != keyBytes.length) {
+            throw new IOException("index block has error");
+        }
+        return new SparseIndex(comparator, size, keyBytes, keyOffsets, positions);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("index block has error");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private long prefix(byte[] bytes, int from, int to) {
+        long prefix = 0;
+        for (int i = 0; i < 8; i++) {
+            prefix <<= 8;
+            if (from + i < to) {
+                prefix |= prefixMode == PREFIX_STRING ? StringKeyComparator.order(bytes[from + i])
+                        : bytes[from + i] & 0xFF;
+            }
+        }
+        return prefix;
+    }
+
+    /**
+     * 二进制格式的长度
+     *
+     * @return 长度
+     */
+    public long getSerializedLength() {
+        return 4 + 8L * size + 4L * (size + 1) + keyOffsets[size];
+    }
+
+    /**
+     * 写入二进制格式的索引 数字都是大端序
+     * 4位int 索引数量n + n个8位long 位置 + n+1个4位int key的偏移量 + 所有key的UTF-8字节
+     *
+     * @param out 输出流
+     * @throws IOException 写入异常
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            dataOut.writeLong(positions[i]);
+        }
+        for (int i = 0; i <= size; i++) {
+            dataOut.writeInt(keyOffsets[i]);
+        }
+        dataOut.write(keyBytes, 0, keyOffsets[size]);
+        dataOut.flush();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public IKeyComparator getComparator() {
+        return comparator;
+    }
+
+    public long getPosition(int i) {
+        return positions[i];
+    }
+
+    public String getKey(int i) {
+        return new String(keyBytes, keyOffsets[i], keyOffsets[i + 1] - keyOffsets[i],
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return 第i个索引 key - 位置
+     */
+    public Map.Entry<String, Long> getEntry(int i) {
+        return new AbstractMap.SimpleImmutableEntry<>(getKey(i), positions[i]);
+    }
+
+    /**
+     * 第i个key是否和目标key相等
+     *
+     * @param i   索引序号
+     * @param key 目标key的UTF-8编码
+     * @return 是否相等
+     */
+    public boolean keyEquals(int i, byte[] key) {
+        int from = keyOffsets[i];
+        int to = keyOffsets[i + 1];
+        if (to - from != key.length) {
+            return false;
+        }
+        for (int j = 0; j < key.length; j++) {
+            if (keyBytes[from + j] != key[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 用比较器比较第i个key和目标key
+     *
+     * @param i   索引序号
+     * @param key 目标key的UTF-8编码
+     * @return 比较结果
+     */
+    public int compareKey(int i, byte[] key) {
+        return compareKey(i, key, key.length);
+    }
+
+    /**
+     * 用比较器比较第i个key和目标key 目标key可以放在复用的数组中
+     *
+     * @param i         索引序号
+     * @param key       目标key的UTF-8编码
+     * @param keyLength 目标key的长度
+     * @return 比较结果
+     */
+    public int compareKey(int i, byte[] key, int keyLength) {
+        return comparator.compareBytes(keyBytes, keyOffsets[i], keyOffsets[i + 1], key, 0, keyLength);
+    }
+
+    private int compareAt(int i, byte[] key, int keyLength, long keyPrefix) {
+        if (prefixes != null) {
+            int c = Long.compareUnsigned(prefixes[i], keyPrefix);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return compareKey(i, key, keyLength);
+    }
+
+    /**
+     * 第一个大于等于目标key的索引
+     *
+     * @param key 目标key的UTF-8编码
+     * @return 索引序号 不存在时返回-1
+     */
+    public int ceiling(byte[] key) {
+        return ceiling(key, key.length);
+    }
+
+    /**
+     * 第一个大于等于目标key的索引 目标key可以放在复用的数组中
+     *
+     * @param key       目标key的UTF-8编码
+     * @param keyLength 目标key的长度
+     * @return 索引序号 不存在时返回-1
+     */
+    public int ceiling(byte[] key, int keyLength) {
+        if (size == 0) {
+            return -1;
+        }
+        long keyPrefix = prefixes == null ? 0 : prefix(key, 0, keyLength);
+        int base = 0;
+        int len = size;
+        while (len > 1) {
+            int half = len >>> 1;
+            base = compareAt(base + half - 1, key, keyLength, keyPrefix) < 0 ? base + half : base;
+            len -= half;
+        }
+        if (compareAt(base, key, keyLength, keyPrefix) < 0) {
+            base++;
+        }
+        return base < size ? base : -1;
+    }
+
+    /**
+     * 最后一个小于等于目标key的索引
+     *
+     * @param key 目标key的UTF-8编码
+     * @return 索引序号 不存在时返回-1
+     */
+    public int floor(byte[] key) {
+        int ceiling = ceiling(key);
+        if (ceiling == -1) {
+            return size - 1;
+        }
+        return compareKey(ceiling, key) == 0 ? ceiling : ceiling - 1;
+    }
+
+    public Map.Entry<String, Long> floorEntry(String key) {
+        int i = floor(key.getBytes(StandardCharsets.UTF_8));
+        return i < 0 ? null : getEntry(i);
+    }
+
+    public Map.Entry<String, Long> ceilingEntry(String key) {
+        int i = ceiling(key.getBytes(StandardCharsets.UTF_8));
+        return i < 0 ? null : getEntry(i);
+    }
+
+    /**
+     * 按顺序添加索引 key必须按比较器递增
+     */
+    public static class Builder {
+
+        private final IKeyComparator comparator;
+        private int size;
+        private byte[] keyBytes = new byte[1024];
+        private int[] keyOffsets = new int[65];
+        private long[] positions = new long[64];
+
+        private Builder(IKeyComparator comparator) {
+            this.comparator = comparator;
+        }
+
+        public Builder add(String key, long position) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            return add(bytes, 0, bytes.length, position);
+        }
+
+        public Builder add(byte[] key, int from, int to, long position) {
+            int length = to - from;
+            int offset = keyOffsets[size];
+            if (size > 0 && comparator.compareBytes(keyBytes, keyOffsets[size - 1], offset, key, from, to) >= 0) {
+                throw new IllegalArgumentException("index key must be increasing");
+            }
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                keyOffsets = Arrays.copyOf(keyOffsets, size * 2 + 1);
+            }
+            if (offset + length > keyBytes.length) {
+                long newLength = Math.max((long) keyBytes.length * 2, (long) offset + length);
+                keyBytes = Arrays.copyOf(keyBytes, Ints.checkedCast(newLength));
+            }
+            System.arraycopy(key, from, keyBytes, offset, length);
+            positions[size] = position;
+            keyOffsets[size + 1] = offset + length;
+            size++;
+            return this;
+        }
+
+        public SparseIndex build() {
+            return new SparseIndex(comparator, size, Arrays.copyOf(keyBytes, keyOffsets[size]),
+                    Arrays.copyOf(keyOffsets, size + 1), Arrays.copyOf(positions, size));
+        }
+    }
+}
@@ -81,6 +81,18 @@ public abstract class AbstractDataTurboBuilder {
      */
     public abstract boolean inputData(String key, Map<String, Object> map);
 
+    /**
+     * 传入整数key的数据 默认转换成十进制字符串传入
+     *
+     * @param key key
+     * @param map 一个map作为一条记录的值
+     * @return 是否插入成功
+     * @see KeyEnum#LONG
+     */
+    public boolean inputData(long key, Map<String, Object> map) {
+        return inputData(String.valueOf(key), map);
+    }
+
     /**
      * 以现有的数据进行构建
      *
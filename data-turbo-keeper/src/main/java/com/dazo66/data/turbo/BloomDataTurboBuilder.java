@@ -40,7 +40,7 @@ public class BloomDataTurboBuilder extends AbstractDataTurboBuilder {
                 "utf-8");
         double fpp =
                 Double.parseDouble(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_BLOOM_FPP, "0.001"));
-        if (dataTurboDetail.getLoadEnum() == LoadEnum.HEAP) {
+        if (dataTurboDetail.getLoadEnum() == LoadEnum.HEAP || dataTurboDetail.getLoadEnum() == LoadEnum.MMAP) {
             bloomFilter = HeapBloomFilter.create(Funnels.stringFunnel(Charset.forName(charset)),
                     expect, fpp);
         } else if (dataTurboDetail.getLoadEnum() == LoadEnum.DISK) {
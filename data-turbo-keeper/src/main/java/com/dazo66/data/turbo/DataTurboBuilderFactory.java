@@ -15,6 +15,8 @@ public class DataTurboBuilderFactory extends AbstractFactory<String, DataTurboDe
     static {
         instance.register(DataFileEnum.BLOOM.getId(), BloomDataTurboBuilder::new);
         instance.register(DataFileEnum.NORMAL.getId(), NormalDataTurboBuilder::new);
+        instance.register(DataFileEnum.SHARDED.getId(), ShardedDataTurboBuilder::new);
+        instance.register(DataFileEnum.HASH.getId(), HashDataTurboBuilder::new);
     }
 
     public static DataTurboBuilderFactory getInstance() {
@@ -0,0 +1,430 @@
+package com.dazo66.data.turbo;
+
+import com.dazo66.data.turbo.model.DataFileEnum;
+import com.dazo66.data.turbo.model.DataTurboDetail;
+import com.dazo66.data.turbo.model.HashFileHeader;
+import com.dazo66.data.turbo.model.KeeperVersion;
+import com.dazo66.data.turbo.model.KeyEnum;
+import com.dazo66.data.turbo.util.BBHash;
+import com.dazo66.data.turbo.util.DataTurboConstants;
+import com.dazo66.data.turbo.util.DateUtils;
+import com.dazo66.data.turbo.util.Ints;
+import com.dazo66.data.turbo.util.Longs;
+import com.dazo66.data.turbo.util.SplitUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.dazo66.data.turbo.util.IOUtils.createTempFile;
+
+/**
+ * 最小完美hash数据的打包类
+ * 输入的记录按顺序追加到临时文件中 构建时计算所有key的hash生成最小完美hash
+ * 再把每条记录写到自己槽位的位置上 整个过程只在内存中保存每条记录的hash和偏移量
+ * 重复的key只保留第一条 其他的记录为错误数据
+ * 极少数情况下两个不同的key的64位hash相同 这时会换一个种子重新计算
+ * <p>
+ * 可用配置如下
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_HASH_GAMMA} 最小完美hash每层的空间系数 默认为2
+ * 越大构建和查询越快 每个key占用的空间越大 2的时候大约每个key占用3.7个bit
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_HASH_FINGERPRINT_BITS} 每个槽位的指纹位数
+ * 可选0 8 16 32 默认为8 不存在的key有 1/2^bits 的概率需要读取一次记录
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_ERROR_TOLERATING} 容忍的错误数
+ * 和 {@link NormalDataTurboBuilder} 共用
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_WRITE_TIME} 是否写入打包时间
+ * 和 {@link NormalDataTurboBuilder} 共用
+ *
+ * @author dazo66
+ * @see DataFileEnum#HASH
+ **/
+public class HashDataTurboBuilder extends AbstractDataTurboBuilder {
+
+    /**
+     * 出现真正的hash冲突时最多尝试的种子数
+     */
+    private static final int MAX_SEED_TRY = 16;
+    private static final int INIT_CAPACITY = 1024;
+
+    private final List<String> fields;
+    private final KeyEnum keyEnum;
+    private final double gamma;
+    private final int fingerprintBytes;
+    private final boolean writeTime;
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong errorTolerating;
+    /**
+     * 输入的记录数 包括重复的key
+     */
+    private int inputCount;
+    /**
+     * 输入记录临时文件 每条记录是 4位int key的长度 + 4位int 记录的长度 + 记录
+     */
+    private final String inputTempFile;
+    private final DataOutputStream inputStream;
+    private String errorFile;
+    private OutputStream errorMsgOutputStream;
+
+    public HashDataTurboBuilder(DataTurboDetail dataTurboDetail) {
+        super(dataTurboDetail);
+        this.fields = Arrays.asList(dataTurboDetail.getFields());
+        if (fields.stream().anyMatch(s -> s.contains(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_1))) {
+            throw new IllegalArgumentException("field name has illegal char: \\u0011");
+        }
+        keyEnum = dataTurboDetail.getKeyEnum() == null ? KeyEnum.STRING : dataTurboDetail.getKeyEnum();
+        gamma = Double.parseDouble(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_HASH_GAMMA, "2"));
+        if (gamma < 1) {
+            throw new IllegalArgumentException("hash gamma must not be less than 1");
+        }
+        int fingerprintBits =
+                Integer.parseInt(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_HASH_FINGERPRINT_BITS, "8"));
+        if (fingerprintBits != 0 && fingerprintBits != 8 && fingerprintBits != 16 && fingerprintBits != 32) {
+            throw new IllegalArgumentException("unsupported fingerprint bits: " + fingerprintBits);
+        }
+        fingerprintBytes = fingerprintBits / 8;
+        writeTime =
+                Boolean.parseBoolean(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "true"));
+        errorTolerating =
+                new AtomicLong(Long.parseLong(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_ERROR_TOLERATING, "9223372036854775807")));
+        try {
+            inputTempFile = createTempFile(String.format("%s-input.temp", dataTurboDetail.getDataId()));
+            inputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(inputTempFile)));
+        } catch (IOException e) {
+            throw new RuntimeException("create temp file with error", e);
+        }
+        try {
+            errorFile = createTempFile(String.format("%s-error.txt", dataTurboDetail.getDataId()));
+            errorMsgOutputStream = new BufferedOutputStream(new FileOutputStream(errorFile));
+        } catch (Exception e) {
+            errorMsgOutputStream = System.err;
+            System.out.println("creat error with error switch to system error out");
+        }
+    }
+
+    /**
+     * 不需要分块 记录直接追加到临时文件中
+     *
+     * @return 0
+     */
+    @Override
+    public int getMaxCountPreSplit() {
+        return 0;
+    }
+
+    /**
+     * 打包数据输入口 可以多个线程同时传入
+     *
+     * @param key key
+     * @param map 一个map作为一条记录的值
+     * @return key不合法时返回false 重复的key在构建时才会发现
+     */
+    @Override
+    public boolean inputData(String key, Map<String, Object> map) {
+        if (key == null) {
+            addErrorCount("null key");
+            return false;
+        }
+        if (keyEnum.isNumber()) {
+            // 整数key统一成十进制文本 查询时使用同样的格式
+            try {
+                key = keyEnum.toKey(keyEnum.toStoreKey(key));
+            } catch (NumberFormatException e) {
+                addErrorCount(String.format("illegal %s key: %s", keyEnum.getId(), key));
+                return false;
+            }
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = getValueString(key, map).getBytes(StandardCharsets.UTF_8);
+        synchronized (inputStream) {
+            try {
+                inputStream.writeInt(keyBytes.length);
+                inputStream.writeInt(keyBytes.length + 1 + valueBytes.length);
+                inputStream.write(keyBytes);
+                inputStream.write(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2.charAt(0));
+                inputStream.write(valueBytes);
+            } catch (IOException e) {
+                throw new RuntimeException("write temp file with error", e);
+            }
+            inputCount = Math.addExact(inputCount, 1);
+        }
+        return true;
+    }
+
+    @Override
+    public DataTurboDetail build() throws Exception {
+        inputStream.close();
+        try {
+            long seed = 0;
+            long[] hashes;
+            BitSet duplicates;
+            while (true) {
+                hashes = readHashes(seed);
+                duplicates = findDuplicates(hashes);
+                if (duplicates != null) {
+                    break;
+                }
+                if (++seed >= MAX_SEED_TRY) {
+                    throw new RuntimeException("too many hash collisions");
+                }
+            }
+            int count = inputCount - duplicates.cardinality();
+            long[] keyHashes = new long[count];
+            for (int i = 0, j = 0; i < inputCount; i++) {
+                if (!duplicates.get(i)) {
+                    keyHashes[j++] = hashes[i];
+                }
+            }
+            BBHash mphf = BBHash.build(keyHashes, gamma);
+            // 每个槽位的记录长度 之后原地转换成偏移量
+            long[] offsets = new long[count + 1];
+            byte[] fingerprints = new byte[Ints.checkedCast((long) count * fingerprintBytes)];
+            int[] slots = new int[inputCount];
+            try (DataInputStream in = openInput()) {
+                for (int i = 0; i < inputCount; i++) {
+                    in.readInt();
+                    int length = in.readInt();
+                    skipFully(in, length);
+                    if (duplicates.get(i)) {
+                        slots[i] = -1;
+                        continue;
+                    }
+                    int slot = (int) mphf.lookup(hashes[i]);
+                    slots[i] = slot;
+                    offsets[slot + 1] = length;
+                    writeFingerprint(fingerprints, slot, hashes[i]);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            byte[] fieldBlock =
+                    SplitUtils.join(fields, DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_1).getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream mphfBlock = new ByteArrayOutputStream();
+            mphf.writeTo(mphfBlock);
+            HashFileHeader header = new HashFileHeader()
+                    .setBuildTime(writeTime ? System.currentTimeMillis() : 0L)
+                    .setCount(count)
+                    .setSeed(seed)
+                    .setFingerprintBytes(fingerprintBytes)
+                    .setFieldBlockLength(fieldBlock.length)
+                    .setMphfBlockLength(mphfBlock.size())
+                    .setValueBlockLength(offsets[count]);
+            String realFile = createTempFile(String.format("%s.hash", getDataTurboDetail().getDataId()));
+            try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(realFile))) {
+                header.writeTo(out);
+                out.write(fieldBlock);
+                mphfBlock.writeTo(out);
+                out.write(fingerprints);
+                for (long offset : offsets) {
+                    out.write(Longs.toByteArray(offset));
+                }
+            }
+            writeValueBlock(realFile, header.getValueBlockOffset(), slots, offsets);
+            getDataTurboDetail().setDataFile(realFile).setDataVersion(DateUtils.getDataVersion()).setKeeperVersion(KeeperVersion.VERSION);
+            return getDataTurboDetail();
+        } finally {
+            cleanTempFile();
+        }
+    }
+
+    /**
+     * 把每条记录写到自己槽位的位置上
+     */
+    private void writeValueBlock(String realFile, long valueBlockOffset, int[] slots,
+                                 long[] offsets) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(realFile, "rw");
+             DataInputStream in = openInput()) {
+            FileChannel channel = file.getChannel();
+            byte[] record = new byte[256];
+            for (int i = 0; i < inputCount; i++) {
+                in.readInt();
+                int length = in.readInt();
+                if (slots[i] < 0) {
+                    skipFully(in, length);
+                    continue;
+                }
+                if (record.length < length) {
+                    record = new byte[Math.max(length, record.length * 2)];
+                }
+                in.readFully(record, 0, length);
+                ByteBuffer buffer = ByteBuffer.wrap(record, 0, length);
+                long position = valueBlockOffset + offsets[slots[i]];
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+        }
+    }
+
+    /**
+     * 计算所有输入记录的hash
+     */
+    private long[] readHashes(long seed) throws IOException {
+        long[] hashes = new long[inputCount];
+        byte[] key = new byte[INIT_CAPACITY];
+        try (DataInputStream in = openInput()) {
+            for (int i = 0; i < inputCount; i++) {
+                int keyLength = in.readInt();
+                int length = in.readInt();
+                if (key.length < keyLength) {
+                    key = new byte[Math.max(keyLength, key.length * 2)];
+                }
+                in.readFully(key, 0, keyLength);
+                skipFully(in, length - keyLength);
+                hashes[i] = BBHash.hash(key, 0, keyLength, seed);
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * 找出重复的key 相同的hash再比较一次key 区分重复的key和hash冲突
+     *
+     * @return 重复的记录 第一次出现的记录不算重复 出现hash冲突时返回null
+     */
+    private BitSet findDuplicates(long[] hashes) throws IOException {
+        long[] sorted = hashes.clone();
+        Arrays.sort(sorted);
+        Set<Long> repeated = new HashSet<>();
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] == sorted[i - 1]) {
+                repeated.add(sorted[i]);
+            }
+        }
+        BitSet duplicates = new BitSet(inputCount);
+        if (repeated.isEmpty()) {
+            return duplicates;
+        }
+        Map<Long, byte[]> firstKeys = new HashMap<>();
+        List<String> duplicateKeys = new ArrayList<>();
+        try (DataInputStream in = openInput()) {
+            for (int i = 0; i < inputCount; i++) {
+                int keyLength = in.readInt();
+                int length = in.readInt();
+                if (!repeated.contains(hashes[i])) {
+                    skipFully(in, length);
+                    continue;
+                }
+                byte[] key = new byte[keyLength];
+                in.readFully(key);
+                skipFully(in, length - keyLength);
+                byte[] first = firstKeys.putIfAbsent(hashes[i], key);
+                if (first == null) {
+                    continue;
+                }
+                if (!Arrays.equals(first, key)) {
+                    // 64位hash冲突 调用方换一个种子重新计算
+                    return null;
+                }
+                duplicates.set(i);
+                duplicateKeys.add(new String(key, StandardCharsets.UTF_8));
+            }
+        }
+        for (String key : duplicateKeys) {
+            addErrorCount("duplicate key: " + key);
+        }
+        return duplicates;
+    }
+
+    private void writeFingerprint(byte[] fingerprints, int slot, long hash) {
+        long fingerprint = BBHash.mix(~hash);
+        int start = slot * fingerprintBytes;
+        for (int i = 0; i < fingerprintBytes; i++) {
+            fingerprints[start + i] = (byte) (fingerprint >>> (i * 8));
+        }
+    }
+
+    private DataInputStream openInput() throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(inputTempFile), 1 << 16));
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        if (in.skipBytes(length) != length) {
+            throw new IOException("temp file has error");
+        }
+    }
+
+    protected String getValueString(String key, Map<String, Object> values) {
+        List<String> list = new ArrayList<>(fields.size());
+        // 一条记录只添加一次错误数
+        boolean flag = true;
+        for (String field : fields) {
+            String value = Objects.toString(values.getOrDefault(field, ""));
+            if (value.contains(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2)) {
+                if (flag) {
+                    addErrorCount(String.format("illegal char, key: %s, field: %s, value: %s", key, field, value));
+                    flag = false;
+                }
+                // 修复错误数据
+                value = value.replace(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2, "");
+            }
+            list.add(value);
+        }
+        return SplitUtils.join(list, DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2);
+    }
+
+    protected void addErrorCount(String errorMsg) {
+        synchronized (errorCount) {
+            try {
+                errorMsgOutputStream.write((errorMsg + "\n").getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        if (errorTolerating.get() > errorCount.get()) {
+            errorCount.getAndIncrement();
+        } else {
+            try {
+                errorMsgOutputStream.flush();
+            } catch (IOException e) {
+                // ignore
+            }
+            throw new RuntimeException("error count is over than tolerated count");
+        }
+    }
+
+    private void cleanTempFile() {
+        try {
+            new File(inputTempFile).delete();
+        } catch (Exception e) {
+            // ignore
+        }
+        try {
+            errorMsgOutputStream.flush();
+            if (errorMsgOutputStream != System.err) {
+                errorMsgOutputStream.close();
+            }
+        } catch (Exception e) {
+            // ignore
+        }
+        // 如果没有错误数据就删除错误文件
+        if (errorCount.get() == 0 && errorFile != null) {
+            try {
+                new File(errorFile).delete();
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -1,49 +1,65 @@
 package com.dazo66.data.turbo;
 
+import com.dazo66.data.turbo.compress.CompressBlockIndex;
+import com.dazo66.data.turbo.compress.CompressorFactory;
+import com.dazo66.data.turbo.compress.ICompressor;
+import com.dazo66.data.turbo.key.predictor.ByteKeyComparator;
+import com.dazo66.data.turbo.key.predictor.IKeyComparator;
 import com.dazo66.data.turbo.model.DataTurboDetail;
 import com.dazo66.data.turbo.model.KeeperVersion;
+import com.dazo66.data.turbo.model.KeyEnum;
+import com.dazo66.data.turbo.model.NormalBlockEnum;
+import com.dazo66.data.turbo.model.NormalFileHeader;
+import com.dazo66.data.turbo.model.NormalReference;
+import com.dazo66.data.turbo.util.BBHash;
+import com.dazo66.data.turbo.util.ByteUtils;
+import com.dazo66.data.turbo.util.CountMinSketch;
 import com.dazo66.data.turbo.util.DataTurboConstants;
 import com.dazo66.data.turbo.util.DateUtils;
+import com.dazo66.data.turbo.util.Funnels;
+import com.dazo66.data.turbo.util.HeapBloomFilter;
 import com.dazo66.data.turbo.util.IOUtils;
 import com.dazo66.data.turbo.util.Ints;
-import com.dazo66.data.turbo.util.LineReader;
 import com.dazo66.data.turbo.util.Longs;
-import com.dazo66.data.turbo.util.MemoryUtils;
-import com.dazo66.data.turbo.util.Pair;
+import com.dazo66.data.turbo.util.RadixSpline;
+import com.dazo66.data.turbo.util.RecordArena;
+import com.dazo66.data.turbo.util.SparseIndex;
 import com.dazo66.data.turbo.util.SplitUtils;
-import com.dazo66.data.turbo.util.SynchronizedTreeMap;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.PriorityQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import static com.dazo66.data.turbo.util.IOUtils.createTempFile;
 
 /**
- * ----注意----
- * 采用分块打包的技术 会手动进行fgc
- * 如果是在线服务非常不推荐在高峰期调用打包服务
- * <p>
  * 普通kv查询数据的打包类
  * 采用分块打包的技术，分块缓存后打包
- * todo 未进行引用能力的实现 但是遵循了协议
+ * 缓存的数据按字节数计算 达到内存预算就写入临时文件 不会手动触发gc 可以在固定大小的容器中和在线服务一起运行
+ * v6版本会把重复出现的字段值写入引用数据块 信息数据块中只保存引用
  * todo 未进行加密能力的实现 但是遵循了协议
  * <p>
  * 可用配置如下
@@ -51,19 +67,98 @@ import static com.dazo66.data.turbo.util.IOUtils.createTempFile;
  * 默认是long的最大值
  * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_INDEX_COUNT} 索引数 默认是512
  * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_MAX_COUNT_SPLIT} 多少key数量进行一次分块
- * 默认为-1 在内存不够时会自动分片
+ * 默认为-1 只按内存预算分块 是所有排序缓冲区中的key的总数
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_MAX_BYTES_SPLIT} 排序缓冲区的内存预算 单位是字节
+ * 默认是最大堆内存的1/4 是所有排序缓冲区申请的字节数 包括页尾和元数据数组 见 {@link RecordArena#getAllocatedBytes()}
+ * 和key数量同时生效 任意一个达到就写入当前缓冲区
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_INPUT_BUFFERS} 排序缓冲区的数量 默认是cpu核数
+ * 每个写入线程按线程id固定使用其中一个 各自加锁 超出预算时写入数据最多的缓冲区 构建时统一合并
+ * 每页的大小是预算平分到每个缓冲区之后的1/4 最大1M 没有写满的页尾最多占用每个缓冲区预算的1/4
+ * 排序缓冲区见 {@link RecordArena} 记录以UTF-8字节保存 写入临时文件之前才排序
+ * 不同缓冲区中的重复key只能在合并时发现
  * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_WRITE_TIME} 是否写入打包时间
  * 一般会在文件头写入打包时间 测试时使用 用于校验不同模式下打包的文件是否一致
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_VERSION} 数据文件版本 默认为最新版本
+ * 需要给旧版本客户端使用时可以指定为1到5 v4版本默认按UTF-8字节序排序 之前的版本按String排序
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_BLOOM_FPP} 内置布隆过滤器的误判率 默认为0.01
+ * 小于等于0时不写入布隆过滤器 v1版本和自定义key比较器时也不会写入
+ * 自定义key比较器需要保证 {@link IKeyComparator#compareBytes} 和字符串的比较结果一致 客户端需要使用同一个比较器
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_COMPRESS} 信息数据块的压缩器名称 默认不压缩
+ * 可选的压缩器见 {@link CompressorFactory} 需要v5及以上版本
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_COMPRESS_BLOCK_SIZE} 压缩块的大小 默认64K
+ * 压缩时索引数量由块数决定 {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_INDEX_COUNT} 不再生效
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_REFERENCE_MIN_REPEAT} 字段值至少出现多少次才会被引用
+ * 默认为0 小于2时不使用引用 需要v6及以上版本 适合少量取值大量重复的字段
+ * 输入时用sketch估计出现次数 只有估计值达到要求的值才是候选 合并时再精确计数 从第n次出现开始引用
+ * 只出现一次的值不会被引用 不同的值很多时sketch会饱和 候选值会变多
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_REFERENCE_MAX_SIZE} 打包时在内存中保存的候选值和引用值的总字节数
+ * 默认64M 不包括map和字符串对象本身的开销 候选值占满预算时会全部清空重新计数 已经计过的次数会丢失
+ * 引用值占满预算之后新的重复值不再引用
+ * <p>
+ * detail的 {@link KeyEnum} 为整数类型时 key按固定宽度编码之后写入 按数值排序 需要v4及以上版本
+ * 传入的字符串key需要是十进制整数 不合法的key会记录为错误数据
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_SPLINE_ERROR} 学习型索引的误差上限 默认为0不写入
+ * 只支持整数类型的key 推荐32左右 样条点超过记录数的1/4时说明key的分布不适合 不会写入
  *
  * @author dazo66
  **/
 public class NormalDataTurboBuilder extends AbstractDataTurboBuilder {
 
     /**
-     * 临时打包数据的缓存类 形式为 key + value体
+     * 统计字段值出现次数的sketch每行的计数器个数 总共占用4M内存
+     */
+    private static final int REFERENCE_SKETCH_WIDTH = 1 << 20;
+    private static final long REFERENCE_HASH_SEED = 0x5bd1e9955bd1e995L;
+    /**
+     * 最短的引用 \u0014 + 1位pos + ',' + 1位len 比这个还短的字段值不需要统计
+     */
+    private static final int MIN_REFERENCE_LENGTH = 4;
+    /**
+     * 排序缓冲区每页最大的字节数
+     */
+    private static final int SORT_BUFFER_PAGE_SIZE = 1 << 20;
+    /**
+     * 写入临时文件时每个线程使用的直接内存缓冲区大小
+     */
+    private static final int SPILL_WRITE_BUFFER_SIZE = 1 << 20;
+    /**
+     * 合并时每个临时文件的读取缓冲区大小 临时文件很多时总的直接内存也不会太大
+     */
+    private static final int SPILL_READ_BUFFER_SIZE = 1 << 16;
+    /**
+     * 临时文件中每条记录的头 4位int key长度 + 4位int value长度
+     */
+    private static final int SPILL_RECORD_HEAD = 8;
+
+    /**
+     * 输入数据的排序缓冲区 每个线程固定使用其中一个 通过自身加锁
+     */
+    private final RecordArena[] sortBuffers;
+    /**
+     * 所有排序缓冲区中的key数
      */
-    private final SynchronizedTreeMap<String, String> tempMap =
-            new SynchronizedTreeMap<>(new TreeMap<>((o1, o2) -> getKeyPredictor().compare(o1, o2)));
+    private final AtomicLong bufferedCount = new AtomicLong();
+    /**
+     * 所有排序缓冲区申请的字节数
+     */
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    /**
+     * 每个排序缓冲区申请的字节数 不需要加锁就可以找到数据最多的缓冲区
+     */
+    private final AtomicLongArray sortBufferBytes;
+    /**
+     * 已经写入的临时文件数 用于生成不重复的文件名
+     */
+    private final AtomicInteger tempFileCount = new AtomicInteger();
+    /**
+     * 写入临时文件的缓冲区 持有排序缓冲区锁的线程才会使用
+     */
+    private final ThreadLocal<ByteBuffer> spillBuffer =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(SPILL_WRITE_BUFFER_SIZE));
+    /**
+     * 拼接编码字段值的缓冲区 每个写入线程一个 写入排序缓冲区时会复制 可以一直复用
+     */
+    private final ThreadLocal<ValueBuffer> valueBuffer = ThreadLocal.withInitial(ValueBuffer::new);
     /**
      * 初步统计的keyCount 不同临时数据块中的key可能有重复，实际的数量会写入文件块中
      */
@@ -77,19 +172,37 @@ public class NormalDataTurboBuilder extends AbstractDataTurboBuilder {
      */
     private final List<String> fields;
     /**
-     * 临时的行读取器 通过指定的分割符进行读取 形式为 临时文件名 + 行读取器
+     * 合并时所有数据块的游标 用于在结束时关闭
+     */
+    private final List<RunCursor> runCursors = new ArrayList<>();
+    /**
+     * 合并用的小顶堆 按游标当前的key排序 key相同时数据块序号小的在前
+     */
+    private PriorityQueue<RunCursor> mergeQueue;
+    /**
+     * 构建时没有写入临时文件的排序缓冲区 直接作为一个数据块参与合并
+     */
+    private RecordArena mergeBuffer;
+    /**
+     * 合并时是否直接比较key的字节 内置比较器的字节比较不需要解码
      */
-    private final Map<String, LineReader> tempReaders = new ConcurrentHashMap<>();
+    private boolean mergeBytewise;
     /**
-     * 临时的文件最小值存储map 在读取临时文件时使用 每次读取会从这里选择最小的往下读取
+     * 合并出的当前记录 key和value的UTF-8字节连续保存 从0开始
      */
-    private final Map<String, String> tempRecentOfFile = new SynchronizedTreeMap<>(new TreeMap<>());
+    private byte[] mergeRecord = new byte[256];
+    private int mergeKeyLength;
+    private int mergeValueLength;
     /**
-     * 临时存储索引的map 索引数量通过
+     * 当前记录解码之后的key 只有索引 布隆过滤器这些需要字符串的地方才会解码
+     */
+    private String mergeKey;
+    /**
+     * 临时存储索引的map 按写入数据的顺序保存 索引数量通过
      * {@see DataTurboConstants.BUILDER_CONFIG_NORMAL_INDEX_COUNT}
      * 指定
      */
-    private final Map<String, Long> indexMap = new TreeMap<>();
+    private final Map<String, Long> indexMap = new LinkedHashMap<>();
     /**
      * 错误数 如果包含非法字符 / 重复key 则是错误数据
      */
@@ -102,6 +215,10 @@ public class NormalDataTurboBuilder extends AbstractDataTurboBuilder {
      * 多少数量分块一次 如果为负数 则自动根据内存情况来
      */
     private final int maxCountPreSplit;
+    /**
+     * 排序缓冲区的内存预算
+     */
+    private final long maxBytesPreSplit;
     /**
      * 是否写入打包时间，一般不用处理，测试用于比较文件相等的一种手段
      */
@@ -112,6 +229,67 @@ public class NormalDataTurboBuilder extends AbstractDataTurboBuilder {
      * 指定
      */
     private final int indexCount;
+    /**
+     * 数据文件版本
+     */
+    private final int version;
+    /**
+     * key的类型
+     */
+    private final KeyEnum keyEnum;
+    /**
+     * 内置布隆过滤器的误判率
+     */
+    private final double bloomFpp;
+    /**
+     * 信息数据块的压缩器 不压缩时为null
+     */
+    private final ICompressor compressor;
+    /**
+     * 压缩块的大小 一个块至少包含一条记录 所以实际的块可能会更大
+     */
+    private final int compressBlockSize;
+    /**
+     * 压缩块索引 不压缩时为null
+     */
+    private CompressBlockIndex compressBlockIndex;
+    /**
+     * 字段值至少出现多少次才会被引用
+     */
+    private final int referenceMinRepeat;
+    /**
+     * 引用值在内存中的字节预算
+     */
+    private final long referenceMaxSize;
+    /**
+     * 输入数据时统计字段值的出现次数 不使用引用时为null
+     */
+    private final CountMinSketch referenceSketch;
+    /**
+     * 已经写入引用数据块的字段值 形式为 字段值 + 引用字符串
+     */
+    private final Map<String, String> referenceMap = new HashMap<>();
+    /**
+     * 合并时精确统计的候选字段值的出现次数 达到 {@link #referenceMinRepeat} 之后移到referenceMap中
+     * sketch的估计值只会偏大 这里保证只有确实重复的值才会被引用
+     */
+    private final Map<String, Integer> referenceCandidates = new HashMap<>();
+    /**
+     * referenceCandidates中字段值的字节数
+     */
+    private long referenceCandidateSize;
+    /**
+     * referenceMap中字段值的字节数
+     */
+    private long referenceMapSize;
+    /**
+     * 引用数据块的长度
+     */
+    private long referenceBlockLength;
+    /**
+     * 打包values数据块时顺便构建的布隆过滤器 不需要时为null
+     */
+    private HeapBloomFilter<CharSequence> bloomFilter;
     /**
      * 错误文件名
      */
@@ -128,6 +306,30 @@ public class NormalDataTurboBuilder extends AbstractDataTurboBuilder {
      * value临时文件名
      */
     private String valueTempFile;
+    /**
+     * 记录偏移量临时文件输出流 v2版本使用
+     */
+    private BufferedOutputStream offsetDataStream;
+    /**
+     * 记录偏移量临时文件名
+     */
+    private String offsetTempFile;
+    /**
+     * 引用数据块临时文件输出流 v6版本使用
+     */
+    private BufferedOutputStream referenceDataStream;
+    /**
+     * 引用数据块临时文件名
+     */
+    private String referenceTempFile;
+    /**
+     * 学习型索引的误差上限 小于等于0时不写入
+     */
+    private final int splineError;
+    /**
+     * 打包时按顺序构建的学习型索引
+     */
+    private RadixSpline.Builder splineBuilder;
 
     public NormalDataTurboBuilder(DataTurboDetail dataTurboDetail) {
         super(dataTurboDetail);
@@ -141,8 +343,62 @@ public class NormalDataTurboBuilder extends AbstractDataTurboBuilder {
                 Integer.parseInt(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_INDEX_COUNT, "512"));
         maxCountPreSplit =
                 Integer.parseInt(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_MAX_COUNT_SPLIT, "-1"));
+        maxBytesPreSplit =
+                Long.parseLong(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_MAX_BYTES_SPLIT,
+                        String.valueOf(getDefaultMaxBytesPreSplit())));
+        if (maxBytesPreSplit <= 0) {
+            throw new IllegalArgumentException("max bytes split must be positive");
+        }
         writeTime =
                 Boolean.parseBoolean(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "true"));
+        version =
+                Integer.parseInt(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_VERSION, String.valueOf(NormalFileHeader.CURRENT_VERSION)));
+        if (version < NormalFileHeader.VERSION_1 || version > NormalFileHeader.VERSION_6) {
+            throw new IllegalArgumentException("unsupported normal file version: " + version);
+        }
+        keyEnum = dataTurboDetail.getKeyEnum() == null ? KeyEnum.STRING : dataTurboDetail.getKeyEnum();
+        if (keyEnum.isNumber() && version < NormalFileHeader.VERSION_4) {
+            throw new IllegalArgumentException("number key need normal file version 4 or above");
+        }
+        if (version >= NormalFileHeader.VERSION_4) {
+            // v4版本按字节序排序 查询时可以直接比较文件中的字节
+            setKeyPredictor(new ByteKeyComparator());
+        }
+        bloomFpp =
+                Double.parseDouble(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_BLOOM_FPP, "0.01"));
+        String compressorName = dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_COMPRESS, null);
+        if (compressorName != null && version < NormalFileHeader.VERSION_5) {
+            throw new IllegalArgumentException("compress need normal file version 5 or above");
+        }
+        compressor = compressorName == null ? null : CompressorFactory.get(compressorName);
+        compressBlockSize =
+                Integer.parseInt(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_COMPRESS_BLOCK_SIZE, "65536"));
+        if (compressBlockSize <= 0) {
+            throw new IllegalArgumentException("compress block size must be positive");
+        }
+        referenceMinRepeat =
+                Integer.parseInt(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_REFERENCE_MIN_REPEAT, "0"));
+        referenceMaxSize =
+                Long.parseLong(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_REFERENCE_MAX_SIZE, "67108864"));
+        splineError =
+                Integer.parseInt(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_SPLINE_ERROR, "0"));
+        if (splineError > 0 && !keyEnum.isNumber()) {
+            throw new IllegalArgumentException("spline index need number key");
+        }
+        int inputBuffers =
+                Integer.parseInt(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_INPUT_BUFFERS,
+                        String.valueOf(Runtime.getRuntime().availableProcessors())));
+        if (inputBuffers <= 0) {
+            throw new IllegalArgumentException("input buffers must be positive");
+        }
+        sortBuffers = new RecordArena[inputBuffers];
+        sortBufferBytes = new AtomicLongArray(inputBuffers);
+        int pageSize = (int) Math.max(1, Math.min(SORT_BUFFER_PAGE_SIZE, maxBytesPreSplit / inputBuffers / 4));
+        for (int i = 0; i < inputBuffers; i++) {
+            sortBuffers[i] = new RecordArena(pageSize);
+        }
+        referenceSketch = version >= NormalFileHeader.VERSION_6 && referenceMinRepeat >= 2
+                && referenceMaxSize > 0 ? new CountMinSketch(REFERENCE_SKETCH_WIDTH) : null;
         try {
             errorFile = createTempFile(String.format("%s-error.txt", dataTurboDetail.getDataId()));
             errorMsgOutputStream = new BufferedOutputStream(new FileOutputStream(errorFile));
@@ -164,10 +420,21 @@ public class NormalDataTurboBuilder extends AbstractDataTurboBuilder {
         return maxCountPreSplit;
     }
 
+    public long getMaxBytesPreSplit() {
+        return maxBytesPreSplit;
+    }
+
     /**
-     * 打包数据输入口
-     * 打包服务会存在手动fGC的情况。
-     * 非常不推荐在在线服务中嵌入打包服务。
+     * @return 默认的内存预算 最大堆内存的1/4
+     */
+    static long getDefaultMaxBytesPreSplit() {
+        return Math.max(1, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * 打包数据输入口 可以多个线程同时传入
+     * 缓存的数据超过 {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_MAX_BYTES_SPLIT} 时会在调用线程中写临时文件
+     * 打包时会占用这部分内存和磁盘io 不推荐在在线服务中嵌入打包服务。
      *
      * @param key key
      * @param map 一个map作为一条记录的值
@@ -177,23 +444,130 @@ public class NormalDataTurboBuilder extends AbstractDataTurboBuilder {
      */
     @Override
     public boolean inputData(String key, Map<String, Object> map) {
-        if (isSplit()) {
+        if (keyEnum.isNumber()) {
             try {
-                String tempFile = storeTemp();
-                tempMap.clear();
-                tempFiles.add(tempFile);
-                System.gc();
-            } catch (IOException e) {
-                throw new RuntimeException("store temp file with error", e);
+                return inputStoreData(keyEnum.toStoreKey(key), map);
+            } catch (NumberFormatException e) {
+                addErrorCount(String.format("illegal %s key: %s", keyEnum.getId(), key));
+                return false;
             }
         }
-        if (tempMap.containsKey(key)) {
-            addErrorCount("duplicate key: " + key);
+        return inputStoreData(key, map);
+    }
+
+    /**
+     * 整数类型的key直接编码 不需要解析十进制文本
+     *
+     * @param key key
+     * @param map 一个map作为一条记录的值
+     * @return 如果数据重复则返回false
+     */
+    @Override
+    public boolean inputData(long key, Map<String, Object> map) {
+        if (!keyEnum.isNumber()) {
+            return inputStoreData(String.valueOf(key), map);
+        }
+        try {
+            return inputStoreData(keyEnum.encode(key), map);
+        } catch (IllegalArgumentException e) {
+            addErrorCount(String.format("illegal %s key: %d", keyEnum.getId(), key));
             return false;
-        } else {
-            tempMap.put(key, getValueString(key, map));
+        }
+    }
+
+    private boolean inputStoreData(String key, Map<String, Object> map) {
+        // 拼接和编码字段值不需要持有锁
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ValueBuffer value = encodeValue(key, map);
+        int index = (int) (Thread.currentThread().getId() % sortBuffers.length);
+        RecordArena buffer = sortBuffers[index];
+        synchronized (buffer) {
+            if (!buffer.add(keyBytes, value.bytes, value.length)) {
+                addErrorCount("duplicate key: " + keyEnum.toKey(key));
+                return false;
+            }
             keyCount.getAndIncrement();
-            return true;
+            bufferedCount.getAndIncrement();
+            updateBufferedBytes(index);
+        }
+        if (isSplit()) {
+            spillLargest();
+        }
+        return true;
+    }
+
+    /**
+     * 超出预算时写入数据最多的排序缓冲区 而不是当前线程的缓冲区
+     * 其他线程的缓冲区占了大部分预算时 当前线程的缓冲区只有很少的数据 写入它会产生大量很小的临时文件
+     * 调用时不能持有任何排序缓冲区的锁 否则不同线程互相等待会死锁
+     */
+    private void spillLargest() {
+        int largest = 0;
+        for (int i = 1; i < sortBuffers.length; i++) {
+            if (sortBufferBytes.get(i) > sortBufferBytes.get(largest)) {
+                largest = i;
+            }
+        }
+        synchronized (sortBuffers[largest]) {
+            // 拿到锁之前其他线程可能已经写入过临时文件了
+            if (isSplit()) {
+                spill(largest);
+            }
+        }
+    }
+
+    /**
+     * 把一个排序缓冲区写入临时文件 调用方需要持有这个缓冲区的锁
+     * 其他缓冲区的写入不受影响
+     *
+     * @param index 排序缓冲区的序号
+     */
+    private void spill(int index) {
+        RecordArena buffer = sortBuffers[index];
+        if (buffer.size() == 0) {
+            return;
+        }
+        try {
+            tempFiles.add(storeTemp(buffer));
+        } catch (IOException e) {
+            throw new RuntimeException("store temp file with error", e);
+        }
+        bufferedCount.addAndGet(-buffer.size());
+        buffer.clear();
+        updateBufferedBytes(index);
+    }
+
+    /**
+     * 重新计算一个排序缓冲区申请的字节数 调用方需要持有这个缓冲区的锁
+     *
+     * @param index 排序缓冲区的序号
+     */
+    private void updateBufferedBytes(int index) {
+        long allocated = sortBuffers[index].getAllocatedBytes();
+        bufferedBytes.addAndGet(allocated - sortBufferBytes.getAndSet(index, allocated));
+    }
+
+    /**
+     * 输入结束之后整理排序缓冲区 数据最多的缓冲区直接在内存中参与合并 其他的写入临时文件
+     */
+    private void drainSortBuffers() {
+        int largest = 0;
+        for (int i = 1; i < sortBuffers.length; i++) {
+            if (sortBuffers[i].size() > sortBuffers[largest].size()) {
+                largest = i;
+            }
+        }
+        for (int i = 0; i < sortBuffers.length; i++) {
+            if (i != largest) {
+                synchronized (sortBuffers[i]) {
+                    spill(i);
+                }
+            }
+        }
+        synchronized (sortBuffers[largest]) {
+            mergeBuffer = sortBuffers[largest];
+            bufferedCount.addAndGet(-mergeBuffer.size());
+            bufferedBytes.addAndGet(-sortBufferBytes.getAndSet(largest, 0));
         }
     }
 
@@ -202,39 +576,100 @@ public class NormalDataTurboBuilder extends AbstractDataTurboBuilder {
         valueTempFile = createTempFile(String.format("%s-value.temp",
                 getDataTurboDetail().getDataId()));
         valueDataStream = new BufferedOutputStream(new FileOutputStream(valueTempFile));
-        initTempFileReader();
+        if (version >= NormalFileHeader.VERSION_2) {
+            offsetTempFile = createTempFile(String.format("%s-offset.temp",
+                    getDataTurboDetail().getDataId()));
+            offsetDataStream = new BufferedOutputStream(new FileOutputStream(offsetTempFile));
+        }
+        if (referenceSketch != null) {
+            referenceTempFile = createTempFile(String.format("%s-reference.temp",
+                    getDataTurboDetail().getDataId()));
+            referenceDataStream = new BufferedOutputStream(new FileOutputStream(referenceTempFile));
+        }
+        drainSortBuffers();
+        initMergeQueue();
         long valueBlockLength = buildValueBlock();
-        byte[] indexBlock = buildIndexBlock();
+        // v3版本使用二进制索引 之前的版本使用文本索引
+        SparseIndex binaryIndex = version >= NormalFileHeader.VERSION_3 ? buildBinaryIndex() : null;
+        byte[] indexBlock = binaryIndex == null ? buildIndexBlock() : null;
         byte[] fieldBlock = buildFieldBlock();
+        byte[] bloomBlock = buildBloomBlock();
+        byte[] compressBlock = buildCompressBlock();
+        byte[] splineBlock = buildSplineBlock();
         String realFile = createTempFile(String.format("%s.normal",
                 getDataTurboDetail().getDataId()));
         BufferedOutputStream realStream = new BufferedOutputStream(new FileOutputStream(realFile));
-        // 写入打包日期
-        if (writeTime) {
-            realStream.write(Longs.toByteArray(System.currentTimeMillis()));
-        } else {
-            realStream.write(Longs.toByteArray(0L));
-        }
-        // 写入关键词数量
-        realStream.write(Longs.toByteArray(keyCount.get()));
-        // 写入索引数据块大小
-        realStream.write(Longs.toByteArray(indexBlock.length));
-        // 写入values数据块的大小
-        realStream.write(Longs.toByteArray(valueBlockLength));
-        // 写入引用数据块大小
-        realStream.write(Longs.toByteArray(0L));
-        // 写入字段数据块长度
-        realStream.write(Ints.toByteArray(fieldBlock.length));
+        NormalFileHeader header = new NormalFileHeader()
+                .setVersion(version)
+                // 写入打包日期
+                .setBuildTime(writeTime ? System.currentTimeMillis() : 0L)
+                // 写入关键词数量
+                .setCount(keyCount.get())
+                // 写入索引数据块大小
+                .setIndexBlockLength(binaryIndex != null ? binaryIndex.getSerializedLength() :
+                        indexBlock.length)
+                // 写入values数据块的大小
+                .setValueBlockLength(valueBlockLength)
+                // 写入引用数据块大小
+                .setReferenceBlockLength(referenceBlockLength)
+                // 写入字段数据块长度
+                .setFieldBlockLength(fieldBlock.length);
+        if (offsetDataStream != null) {
+            // 每条记录一个8位的偏移量
+            header.addExtensionBlock(NormalBlockEnum.OFFSET, keyCount.get() * 8);
+        }
+        if (bloomBlock != null) {
+            header.addExtensionBlock(NormalBlockEnum.BLOOM, bloomBlock.length);
+        }
+        if (compressBlock != null) {
+            header.addExtensionBlock(NormalBlockEnum.COMPRESS, compressBlock.length);
+        }
+        if (splineBlock != null) {
+            header.addExtensionBlock(NormalBlockEnum.SPLINE, splineBlock.length);
+        }
+        header.writeTo(realStream);
         // 写入字段数据
         realStream.write(fieldBlock);
         // 写入索引数据块
-        realStream.write(indexBlock);
+        if (binaryIndex != null) {
+            binaryIndex.writeTo(realStream);
+        } else {
+            realStream.write(indexBlock);
+        }
         BufferedInputStream valueBlockInputStream =
                 new BufferedInputStream(new FileInputStream(valueTempFile));
         // 写入真实数据块长度
         IOUtils.inputStreamToOutputStream(valueBlockInputStream, realStream);
         valueBlockInputStream.close();
         valueDataStream.close();
+        // 写入引用数据块
+        if (referenceDataStream != null) {
+            referenceDataStream.close();
+            BufferedInputStream referenceInputStream =
+                    new BufferedInputStream(new FileInputStream(referenceTempFile));
+            IOUtils.inputStreamToOutputStream(referenceInputStream, realStream);
+            referenceInputStream.close();
+        }
+        // 写入记录偏移量数据块
+        if (offsetDataStream != null) {
+            offsetDataStream.close();
+            BufferedInputStream offsetInputStream =
+                    new BufferedInputStream(new FileInputStream(offsetTempFile));
+            IOUtils.inputStreamToOutputStream(offsetInputStream, realStream);
+            offsetInputStream.close();
+        }
+        // 写入布隆过滤器数据块
+        if (bloomBlock != null) {
+            realStream.write(bloomBlock);
+        }
+        // 写入压缩块索引
+        if (compressBlock != null) {
+            realStream.write(compressBlock);
+        }
+        // 写入学习型索引
+        if (splineBlock != null) {
+            realStream.write(splineBlock);
+        }
         realStream.close();
         cleanTempFile();
         getDataTurboDetail().setDataFile(realFile).setDataVersion(DateUtils.getDataVersion()).setKeeperVersion(KeeperVersion.VERSION);
@@ -259,58 +694,104 @@ public class NormalDataTurboBuilder extends AbstractDataTurboBuilder {
         }
     }
 
-    protected String getValueString(String key, Map<String, Object> values) {
-        List<String> list = new ArrayList<>();
+    /**
+     * 把字段值按UTF-8编码 以 \u0012 分隔写入当前线程的缓冲区 不会为每条记录创建列表和拼接的字符串
+     *
+     * @param key    key 用于记录错误数据
+     * @param values 一条记录的值
+     * @return 当前线程的缓冲区 下一次调用之前有效
+     */
+    private ValueBuffer encodeValue(String key, Map<String, Object> values) {
+        ValueBuffer buffer = valueBuffer.get();
+        int length = 0;
         // 一条记录只添加一次错误数
         boolean flag = true;
-        for (String field : fields) {
-            Object o = values.getOrDefault(field, "");
-            String value = Objects.toString(o);
-            if (value == null) {
-                value = "";
-            }
-            if (value.contains(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2) || value.contains(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_3)) {
+        for (int i = 0; i < fields.size(); i++) {
+            String field = fields.get(i);
+            String value = Objects.toString(values.getOrDefault(field, ""));
+            if (value.contains(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2) || value.contains(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_3)
+                    || value.contains(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_4)) {
                 if (flag) {
                     addErrorCount(String.format("illegal char, key: %s, field: %s, value: %s", key, field, value));
                     flag = false;
                 }
                 // 修复错误数据
                 value = value.replace(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2, "")
-                        .replace(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_3, "");
+                        .replace(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_3, "")
+                        .replace(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_4, "");
+            }
+            if (i > 0) {
+                buffer.ensureCapacity(length + 1);
+                buffer.bytes[length++] = (byte) DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2.charAt(0);
+            }
+            // 按最长的编码估计 不够时才精确计算 避免超长的值让缓冲区变得过大
+            if (buffer.bytes.length - length < (long) value.length() * 3) {
+                buffer.ensureCapacity(length + ByteUtils.getByteCountUTF8(value));
             }
-            list.add(value);
+            int end = ByteUtils.encodeUTF8(value, buffer.bytes, length);
+            if (referenceSketch != null && value.length() > MIN_REFERENCE_LENGTH) {
+                referenceSketch.increment(referenceHash(buffer.bytes, length, end - length));
+            }
+            length = end;
         }
-        return SplitUtils.join(list, DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2);
+        buffer.length = length;
+        return buffer;
     }
 
     /**
-     * 先把临时文件储存起来
+     * 把排序缓冲区排序之后储存到临时文件中 记录的字节直接写入 不需要解码
+     * 临时文件是二进制格式 每条记录为 4位int key长度 + 4位int value长度 + key + value
+     * 字段值中的分隔符不影响读取
      *
+     * @param buffer 排序缓冲区
      * @return 返回临时文件名
      */
-    protected String storeTemp() throws IOException {
-        synchronized (tempMap) {
-            String pathname = createTempFile(String.format("%s-%d.temp",
-                    getDataTurboDetail().getDataId(), tempFiles.size()));
-            BufferedOutputStream outputStream =
-                    new BufferedOutputStream(new FileOutputStream(pathname));
-            for (Map.Entry<String, String> entry : tempMap.entrySet()) {
-                String s = entry.getKey() + DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_1 + entry.getValue() + DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2;
-                outputStream.write(s.getBytes(StandardCharsets.UTF_8));
+    protected String storeTemp(RecordArena buffer) throws IOException {
+        String pathname = createTempFile(String.format("%s-%d.temp",
+                getDataTurboDetail().getDataId(), tempFileCount.getAndIncrement()));
+        int[] order = buffer.sort(getKeyPredictor());
+        ByteBuffer out = spillBuffer.get();
+        out.clear();
+        try (FileChannel channel = FileChannel.open(Paths.get(pathname), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int record : order) {
+                int length = buffer.getKeyLength(record) + buffer.getValueLength(record);
+                if (out.remaining() < SPILL_RECORD_HEAD + length) {
+                    writeFully(channel, out);
+                }
+                out.putInt(buffer.getKeyLength(record)).putInt(buffer.getValueLength(record));
+                if (out.remaining() >= length) {
+                    buffer.copyRecord(record, out);
+                } else {
+                    // 比缓冲区还大的记录单独写入
+                    writeFully(channel, out);
+                    ByteBuffer large = ByteBuffer.allocate(length);
+                    buffer.copyRecord(record, large);
+                    writeFully(channel, large);
+                }
             }
-            outputStream.flush();
-            outputStream.close();
-            return pathname;
+            writeFully(channel, out);
+        }
+        return pathname;
+    }
+
+    /**
+     * 把buffer中已经写入的数据全部写到文件 之后buffer可以继续写入
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
         }
+        buffer.clear();
     }
 
     protected boolean isSplit() {
-        if (getMaxCountPreSplit() <= 0) {
-            // 检查是否有1G空余内存
-            return !MemoryUtils.checkFreeMemory(1024 * 1024 * 1024L);
+        if (bufferedBytes.get() > getMaxBytesPreSplit()) {
+            return true;
         }
         // 如果是固定临界值
-        return getMaxCountPreSplit() < tempMap.size();
+        return getMaxCountPreSplit() > 0 && getMaxCountPreSplit() < bufferedCount.get();
     }
 
     protected void cleanTempFile() {
@@ -327,6 +808,20 @@ public class NormalDataTurboBuilder extends AbstractDataTurboBuilder {
         } catch (Exception e) {
             // ignore
         }
+        if (offsetTempFile != null) {
+            try {
+                new File(offsetTempFile).delete();
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+        if (referenceTempFile != null) {
+            try {
+                new File(referenceTempFile).delete();
+            } catch (Exception e) {
+                // ignore
+            }
+        }
         // 如果没有错误数据就删除错误文件
         if (errorCount.get() == 0) {
             try {
@@ -338,9 +833,9 @@ public class NormalDataTurboBuilder extends AbstractDataTurboBuilder {
     }
 
     private void closeTempFile() {
-        for (LineReader lineReader : tempReaders.values()) {
+        for (RunCursor cursor : runCursors) {
             try {
-                lineReader.close();
+                cursor.close();
             } catch (IOException e) {
                 // ignore
             }
@@ -378,108 +873,505 @@ public class NormalDataTurboBuilder extends AbstractDataTurboBuilder {
         return byteArrayOutputStream.toByteArray();
     }
 
+    /**
+     * 把打包时构建的布隆过滤器序列化
+     *
+     * @return 布隆过滤器数据块 不需要时返回null
+     * @throws IOException 序列化异常
+     */
+    protected byte[] buildBloomBlock() throws IOException {
+        if (bloomFilter == null) {
+            return null;
+        }
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        bloomFilter.writeTo(byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * 序列化压缩块索引
+     *
+     * @return 压缩块索引数据块 不压缩时返回null
+     * @throws IOException 序列化异常
+     */
+    protected byte[] buildCompressBlock() throws IOException {
+        if (compressBlockIndex == null) {
+            return null;
+        }
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        compressBlockIndex.writeTo(byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * 序列化学习型索引 样条点太多时模型没有意义 不写入
+     *
+     * @return 学习型索引数据块 不需要时返回null
+     * @throws IOException 序列化异常
+     */
+    protected byte[] buildSplineBlock() throws IOException {
+        RadixSpline spline = splineBuilder == null ? null : splineBuilder.build();
+        if (spline == null || spline.size() > Math.max(2, keyCount.get() / 4)) {
+            return null;
+        }
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        spline.writeTo(byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * 构建二进制格式的索引 v3及之后的版本使用
+     *
+     * @return 索引
+     */
+    protected SparseIndex buildBinaryIndex() {
+        SparseIndex.Builder builder = SparseIndex.builder(getKeyPredictor());
+        indexMap.forEach(builder::add);
+        return builder.build();
+    }
+
+    /**
+     * 按key的顺序写入信息数据块 记录的字节直接从临时文件写入 不需要解码
+     * 只有使用引用时才会解码value 只有作为索引或者写入布隆过滤器和学习型索引时才会解码key
+     *
+     * @return 信息数据块的长度
+     * @throws IOException 读写临时文件异常
+     */
     protected long buildValueBlock() throws IOException {
-        Pair<String, String> nextFromCache;
+        byte split2 = (byte) DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2.charAt(0);
+        byte split3 = (byte) DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_3.charAt(0);
         long count = 0L;
         long byteCount = 0L;
-        // 初始化最小hash
-        for (String s : tempFiles) {
-            tempRecentOfFile.put(s, "");
+        // 自定义比较器时查询key和存储key可能不一样 不能使用布隆过滤器
+        if (version >= NormalFileHeader.VERSION_2 && bloomFpp > 0
+                && IKeyComparator.isBuiltIn(getKeyPredictor())) {
+            bloomFilter = HeapBloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8),
+                    keyCount.get(), bloomFpp);
+        }
+        // 数据量小于索引数时每条记录都是索引
+        long l = Math.max(1L, keyCount.get() / indexCount);
+        // 压缩时先把记录放到块缓冲区中 块满了再压缩写入
+        ByteArrayOutputStream blockBuffer = null;
+        if (compressor != null) {
+            compressBlockIndex = new CompressBlockIndex(compressor.getName());
+            blockBuffer = new ByteArrayOutputStream(compressBlockSize + 1024);
+        }
+        if (splineError > 0) {
+            splineBuilder = RadixSpline.builder(splineError);
         }
-        while ((nextFromCache = getNextFromCache()) != null) {
-            byte[] bytes = (nextFromCache.getLeft() + DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2 + nextFromCache.getRight() + DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_3).getBytes(StandardCharsets.UTF_8);
-            valueDataStream.write(bytes);
-            long l = keyCount.get() / indexCount;
-            if ((tempRecentOfFile.isEmpty() && tempMap.isEmpty()) || count % l == 0) {
-                indexMap.put(nextFromCache.getLeft(), byteCount);
+        OutputStream out = blockBuffer != null ? blockBuffer : valueDataStream;
+        while (getNextFromCache()) {
+            byte[] value = mergeRecord;
+            int valueFrom = mergeKeyLength;
+            int valueLength = mergeValueLength;
+            if (referenceDataStream != null) {
+                String decoded = new String(mergeRecord, mergeKeyLength, mergeValueLength, StandardCharsets.UTF_8);
+                String replaced = replaceReference(decoded);
+                if (replaced != decoded) {
+                    value = replaced.getBytes(StandardCharsets.UTF_8);
+                    valueFrom = 0;
+                    valueLength = value.length;
+                }
+            }
+            // 压缩时每个块的第一条记录作为索引 查询时只需要解压一个块
+            boolean blockStart = blockBuffer != null && blockBuffer.size() == 0;
+            out.write(mergeRecord, 0, mergeKeyLength);
+            out.write(split2);
+            out.write(value, valueFrom, valueLength);
+            out.write(split3);
+            if (bloomFilter != null) {
+                bloomFilter.put(getMergeKey());
+            }
+            if (offsetDataStream != null) {
+                offsetDataStream.write(Longs.toByteArray(byteCount));
+            }
+            if (splineBuilder != null) {
+                splineBuilder.add(keyEnum.decode(getMergeKey()), count);
+            }
+            boolean last = mergeQueue.isEmpty();
+            if (last || (blockBuffer != null ? blockStart : count % l == 0)) {
+                // v1版本索引记录偏移量 v2版本索引记录序号
+                indexMap.put(getMergeKey(), offsetDataStream != null ? count : byteCount);
             }
             count++;
-            byteCount += bytes.length;
+            byteCount += mergeKeyLength + valueLength + 2;
+            if (blockBuffer != null && (blockBuffer.size() >= compressBlockSize || last)) {
+                writeCompressBlock(blockBuffer);
+            }
+        }
+        if (blockBuffer != null && blockBuffer.size() > 0) {
+            writeCompressBlock(blockBuffer);
         }
         // 重新设置key数量 防止多个分片文件中出现重复key
         keyCount.set(count);
         valueDataStream.flush();
-        return byteCount;
+        // 压缩时文件头中记录压缩后的长度
+        return compressBlockIndex != null ? compressBlockIndex.getCompressedLength() : byteCount;
     }
 
-    protected void initTempFileReader() {
-        tempFiles.forEach(s -> {
-            try {
-                tempReaders.put(s, new LineReader(new FileReader(s), DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2.charAt(0)));
-            } catch (FileNotFoundException e) {
-                closeTempFile();
-                throw new RuntimeException("can not find file: " + s);
+    /**
+     * 把重复出现的字段值替换成引用
+     * 第一次遇到时写入引用数据块 之后直接使用同一个引用
+     *
+     * @param value 所有字段值 以 \u0012 分隔
+     * @return 替换之后的字段值
+     * @throws IOException 写入引用数据块异常
+     */
+    protected String replaceReference(String value) throws IOException {
+        char split2 = DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_2.charAt(0);
+        StringBuilder builder = null;
+        int start = 0;
+        while (start <= value.length()) {
+            int end = value.indexOf(split2, start);
+            if (end < 0) {
+                end = value.length();
             }
-        });
+            String reference = end - start > MIN_REFERENCE_LENGTH ?
+                    getReference(value.substring(start, end)) : null;
+            if (reference != null && builder == null) {
+                builder = new StringBuilder(value.length()).append(value, 0, start);
+            }
+            if (builder != null) {
+                if (reference != null) {
+                    builder.append(reference);
+                } else {
+                    builder.append(value, start, end);
+                }
+                if (end < value.length()) {
+                    builder.append(split2);
+                }
+            }
+            start = end + 1;
+        }
+        return builder == null ? value : builder.toString();
     }
 
-    protected Pair<String, String> getNextFromCache() throws IOException {
-        // 如果缓存map为空 就一次获取多点缓存
-        if (tempMap.size() == 0) {
-            for (String file : tempReaders.keySet()) {
-                if (tempRecentOfFile.get(file) != null) {
-                    loadFromCache(tempReaders.get(file));
+    private String getReference(String field) throws IOException {
+        String reference = referenceMap.get(field);
+        if (reference != null) {
+            return reference;
+        }
+        byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+        if (referenceSketch.estimate(referenceHash(bytes, 0, bytes.length)) < referenceMinRepeat) {
+            return null;
+        }
+        reference = NormalReference.encode(referenceBlockLength, bytes.length);
+        // 引用不比原值短时不引用
+        if (reference.length() >= bytes.length) {
+            return null;
+        }
+        // 精确计数 之前的出现都保存了原值
+        Integer seen = referenceCandidates.get(field);
+        if (seen == null) {
+            // 候选值和引用值共用一个预算
+            if (referenceCandidateSize + referenceMapSize + bytes.length > referenceMaxSize) {
+                // 不同的值很多时候选值大多不会再出现 清空之后后面真正重复的值还可以成为候选
+                referenceCandidates.clear();
+                referenceCandidateSize = 0;
+                // 引用值已经占满了预算 不再引用新的值
+                if (referenceMapSize + bytes.length > referenceMaxSize) {
+                    return null;
                 }
             }
+            referenceCandidateSize += bytes.length;
+            seen = 0;
         }
-        // 如果还是为空map 说明已经全部获取完毕了
-        if (tempMap.size() == 0) {
+        if (++seen < referenceMinRepeat) {
+            referenceCandidates.put(field, seen);
             return null;
         }
-        // 先获得最小的key
-        String currentMin = tempRecentOfFile.isEmpty() ? null : tempRecentOfFile.values().stream().min((o1, o2) -> getKeyPredictor().compare(o1, o2)).get();
-        String first = tempMap.firstKey();
-        // 如果已经比文件中的下一个要小了 就先返回
-        if (first != null && (currentMin == null || getKeyPredictor().compare(currentMin, first) > 0)) {
-            return Pair.of(first, tempMap.remove(first));
-        }
-        // 如果当前缓存的没有最小的 就从lineReader中取
-        for (String file : tempReaders.keySet()) {
-            if (getKeyPredictor().compare(tempRecentOfFile.get(file), first) <= 0) {
-                String value = loadFromCache(tempReaders.get(file));
-                if (value == null) {
-                    tempRecentOfFile.remove(file);
-                } else {
-                    tempRecentOfFile.put(file, value);
-                }
+        // 候选值的字节数转给引用值 总数不变 不会超出预算
+        referenceCandidates.remove(field);
+        referenceCandidateSize -= bytes.length;
+        referenceDataStream.write(bytes);
+        referenceBlockLength += bytes.length;
+        referenceMapSize += bytes.length;
+        referenceMap.put(field, reference);
+        return reference;
+    }
+
+    private static long referenceHash(byte[] bytes, int from, int length) {
+        return BBHash.hash(bytes, from, length, REFERENCE_HASH_SEED);
+    }
+
+    private void writeCompressBlock(ByteArrayOutputStream blockBuffer) throws IOException {
+        byte[] block = blockBuffer.toByteArray();
+        byte[] compressed = compressor.compress(block, 0, block.length);
+        valueDataStream.write(compressed);
+        compressBlockIndex.add(block.length, compressed.length);
+        blockBuffer.reset();
+    }
+
+    /**
+     * 打开所有数据块的游标 放入合并用的小顶堆
+     */
+    protected void initMergeQueue() throws IOException {
+        mergeBytewise = IKeyComparator.isBuiltIn(getKeyPredictor());
+        mergeQueue = new PriorityQueue<>(Math.max(1, tempFiles.size() + 1), (o1, o2) -> {
+            int compare = mergeBytewise ?
+                    getKeyPredictor().compareBytes(o1.data, 0, o1.keyLength, o2.data, 0, o2.keyLength) :
+                    getKeyPredictor().compare(o1.getKey(), o2.getKey());
+            return compare != 0 ? compare : Integer.compare(o1.run, o2.run);
+        });
+        for (String file : tempFiles) {
+            try {
+                runCursors.add(new FileRunCursor(runCursors.size(), file));
+            } catch (IOException e) {
+                closeTempFile();
+                throw new RuntimeException("can not open file: " + file, e);
             }
         }
-        String retKey = tempMap.firstKey();
-        return Pair.of(retKey, tempMap.remove(retKey));
+        if (mergeBuffer != null && mergeBuffer.size() > 0) {
+            runCursors.add(new ArenaRunCursor(runCursors.size(), mergeBuffer));
+        }
+        for (RunCursor cursor : runCursors) {
+            advance(cursor);
+        }
+    }
+
+    /**
+     * 多路归并 每次取出堆顶的记录复制到 {@link #mergeRecord} 中 其他数据块中相同的key只保留第一条 记录为错误数据
+     *
+     * @return 全部取完时返回false
+     * @throws IOException 读取临时文件异常
+     */
+    protected boolean getNextFromCache() throws IOException {
+        RunCursor head = mergeQueue.poll();
+        if (head == null) {
+            return false;
+        }
+        int length = head.keyLength + head.valueLength;
+        if (mergeRecord.length < length) {
+            mergeRecord = new byte[Math.max(length, mergeRecord.length * 2)];
+        }
+        System.arraycopy(head.data, 0, mergeRecord, 0, length);
+        mergeKeyLength = head.keyLength;
+        mergeValueLength = head.valueLength;
+        // 按字符串比较时堆中已经解码过了
+        mergeKey = mergeBytewise ? null : head.getKey();
+        advance(head);
+        while (!mergeQueue.isEmpty() && compareMergeKey(mergeQueue.peek()) == 0) {
+            RunCursor duplicate = mergeQueue.poll();
+            addErrorCount("duplicate key: " + keyEnum.toKey(duplicate.getKey()));
+            advance(duplicate);
+        }
+        return true;
     }
 
-    protected String loadFromCache(LineReader reader) throws IOException {
-        String ret = null;
-        while (true) {
-            String s = reader.readLine();
-            // 文件到头
-            if (s == null) {
-                return ret;
+    private int compareMergeKey(RunCursor cursor) {
+        return mergeBytewise ?
+                getKeyPredictor().compareBytes(cursor.data, 0, cursor.keyLength, mergeRecord, 0, mergeKeyLength) :
+                getKeyPredictor().compare(cursor.getKey(), getMergeKey());
+    }
+
+    /**
+     * @return 合并出的当前记录的key 第一次调用时才解码
+     */
+    private String getMergeKey() {
+        if (mergeKey == null) {
+            mergeKey = new String(mergeRecord, 0, mergeKeyLength, StandardCharsets.UTF_8);
+        }
+        return mergeKey;
+    }
+
+    /**
+     * 游标移动到下一条记录 还有记录时重新放回堆中
+     */
+    private void advance(RunCursor cursor) throws IOException {
+        if (cursor.next()) {
+            mergeQueue.add(cursor);
+        } else {
+            cursor.close();
+        }
+    }
+
+    /**
+     * 编码一条记录的字段值的缓冲区 只会变大
+     */
+    private static final class ValueBuffer {
+
+        private byte[] bytes = new byte[256];
+        /**
+         * 当前记录的字节数
+         */
+        private int length;
+
+        private void ensureCapacity(int capacity) {
+            if (bytes.length < capacity) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+    }
+
+    /**
+     * 一个排好序的数据块的游标
+     */
+    private abstract static class RunCursor implements Closeable {
+
+        /**
+         * 数据块序号
+         */
+        private final int run;
+        /**
+         * 当前记录 key和value的UTF-8字节连续保存 从0开始
+         */
+        protected byte[] data = new byte[256];
+        protected int keyLength;
+        protected int valueLength;
+        /**
+         * 解码之后的key 只有按字符串比较时才会解码
+         */
+        private String key;
+
+        private RunCursor(int run) {
+            this.run = run;
+        }
+
+        /**
+         * @return 是否移动到了下一条记录
+         * @throws IOException 读取异常
+         */
+        private boolean next() throws IOException {
+            key = null;
+            return read();
+        }
+
+        /**
+         * 读取下一条记录到 {@link #data} 中
+         *
+         * @return 没有记录时返回false
+         * @throws IOException 读取异常
+         */
+        protected abstract boolean read() throws IOException;
+
+        protected void ensureCapacity(int length) {
+            if (data.length < length) {
+                data = new byte[Math.max(length, data.length * 2)];
             }
-            // 可能会写入空行
-            if (s.isEmpty()) {
-                continue;
+        }
+
+        private String getKey() {
+            if (key == null) {
+                key = new String(data, 0, keyLength, StandardCharsets.UTF_8);
             }
-            // 根据分隔符分割
-            String[] split = s.split(DataTurboConstants.BUILDER_CONSTANTS_NORMAL_SPLIT_CHAR_1, 2);
-            if (split.length == 2) {
-                String key = split[0];
-                if (ret == null) {
-                    ret = key;
-                }
-                if (tempMap.containsKey(key)) {
-                    addErrorCount("duplicate key: " + key);
-                    continue;
-                }
-                tempMap.put(key, split[1]);
-                if (getKeyPredictor().compare(key, ret) != 0) {
-                    return key;
+            return key;
+        }
+    }
+
+    /**
+     * 临时文件的游标 通过直接内存缓冲区顺序读取 见 {@link #storeTemp(RecordArena)}
+     */
+    private final class FileRunCursor extends RunCursor {
+
+        private final String file;
+        private final FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(SPILL_READ_BUFFER_SIZE);
+
+        private FileRunCursor(int run, String file) throws IOException {
+            super(run);
+            this.file = file;
+            this.channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+            buffer.flip();
+        }
+
+        @Override
+        protected boolean read() throws IOException {
+            if (!fill(SPILL_RECORD_HEAD)) {
+                // 文件到头
+                if (buffer.hasRemaining()) {
+                    throw error();
                 }
+                return false;
+            }
+            int keyLength = buffer.getInt();
+            int valueLength = buffer.getInt();
+            int length = keyLength + valueLength;
+            if (keyLength < 0 || valueLength < 0 || length < 0 || !fill(length)) {
+                throw error();
+            }
+            ensureCapacity(length);
+            buffer.get(data, 0, length);
+            this.keyLength = keyLength;
+            this.valueLength = valueLength;
+            return true;
+        }
+
+        /**
+         * 保证缓冲区中至少有length个字节可以读取
+         *
+         * @return 文件剩余的字节不够时返回false
+         */
+        private boolean fill(int length) throws IOException {
+            if (buffer.remaining() >= length) {
+                return true;
+            }
+            if (buffer.capacity() < length) {
+                ByteBuffer larger = ByteBuffer.allocateDirect(length);
+                larger.put(buffer);
+                buffer = larger;
             } else {
-                addErrorCount("temp file has error: " + s);
-                closeTempFile();
-                throw new RuntimeException("cache file has error");
+                buffer.compact();
+            }
+            while (buffer.position() < length) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
             }
+            buffer.flip();
+            return buffer.remaining() >= length;
+        }
+
+        private RuntimeException error() {
+            addErrorCount("temp file has error: " + file);
+            closeTempFile();
+            return new RuntimeException("cache file has error");
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * 内存中排序缓冲区的游标
+     */
+    private final class ArenaRunCursor extends RunCursor {
+
+        private final RecordArena arena;
+        private final int[] order;
+        private int position;
+        /**
+         * 包装 {@link #data} 用于复制记录 data扩容时重新包装
+         */
+        private ByteBuffer target = ByteBuffer.wrap(data);
+
+        private ArenaRunCursor(int run, RecordArena arena) {
+            super(run);
+            this.arena = arena;
+            this.order = arena.sort(getKeyPredictor());
+        }
+
+        @Override
+        protected boolean read() {
+            if (position >= order.length) {
+                return false;
+            }
+            int record = order[position++];
+            keyLength = arena.getKeyLength(record);
+            valueLength = arena.getValueLength(record);
+            ensureCapacity(keyLength + valueLength);
+            if (target.array() != data) {
+                target = ByteBuffer.wrap(data);
+            }
+            target.clear();
+            arena.copyRecord(record, target);
+            return true;
+        }
+
+        @Override
+        public void close() {
+            arena.clear();
         }
     }
 
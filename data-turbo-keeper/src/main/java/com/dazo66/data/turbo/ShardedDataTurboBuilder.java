@@ -0,0 +1,173 @@
+package com.dazo66.data.turbo;
+
+import com.dazo66.data.turbo.encrypt.IEncryptor;
+import com.dazo66.data.turbo.key.predictor.IKeyComparator;
+import com.dazo66.data.turbo.model.DataFileEnum;
+import com.dazo66.data.turbo.model.DataTurboDetail;
+import com.dazo66.data.turbo.model.KeeperVersion;
+import com.dazo66.data.turbo.util.DataTurboConstants;
+import com.dazo66.data.turbo.util.DateUtils;
+import com.dazo66.data.turbo.util.ShardUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 按key的hash分片打包的构建器
+ * 每个分片是一个独立的 {@link NormalDataTurboBuilder} 数据按key分到不同的分片中各自排序和分块
+ * 构建时每个分片在自己的线程中合并和写文件 最终返回列出所有分片的清单detail
+ * 同一个key总是进入同一个分片 所以重复key的检查不受影响
+ * 可以多个线程同时传入数据 每个分片内部也可以并发写入
+ * <p>
+ * 可用配置如下 其他配置会原样传给每个分片 见 {@link NormalDataTurboBuilder}
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_SHARDED_COUNT} 分片数 默认是cpu核数
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_SHARDED_THREADS} 构建时的并发数 默认是分片数和cpu核数的较小值
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_MAX_COUNT_SPLIT} 大于0时会平分到每个分片
+ * 保证内存中缓存的总key数和不分片时一致
+ * [not must] {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_MAX_BYTES_SPLIT} 同样会平分到每个分片
+ * 没有配置时平分默认的内存预算 所有分片缓存的总字节数和不分片时一致
+ * {@linkplain DataTurboConstants#BUILDER_CONFIG_NORMAL_ERROR_TOLERATING} 是每个分片单独计算的
+ *
+ * @author dazo66
+ * @see DataFileEnum#SHARDED
+ **/
+public class ShardedDataTurboBuilder extends AbstractDataTurboBuilder {
+
+    private final NormalDataTurboBuilder[] shards;
+
+    private final int threads;
+
+    public ShardedDataTurboBuilder(DataTurboDetail dataTurboDetail) {
+        super(dataTurboDetail);
+        int processors = Runtime.getRuntime().availableProcessors();
+        int shardCount =
+                Integer.parseInt(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_SHARDED_COUNT, String.valueOf(processors)));
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shard count must be positive");
+        }
+        threads =
+                Integer.parseInt(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_SHARDED_THREADS, String.valueOf(Math.min(shardCount, processors))));
+        if (threads <= 0) {
+            throw new IllegalArgumentException("shard threads must be positive");
+        }
+        int maxCountPreSplit =
+                Integer.parseInt(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_MAX_COUNT_SPLIT, "-1"));
+        long maxBytesPreSplit =
+                Long.parseLong(dataTurboDetail.getProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_MAX_BYTES_SPLIT,
+                        String.valueOf(NormalDataTurboBuilder.getDefaultMaxBytesPreSplit())));
+        shards = new NormalDataTurboBuilder[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            Map<String, String> config = new HashMap<>(dataTurboDetail.getConfig());
+            if (maxCountPreSplit > 0) {
+                config.put(DataTurboConstants.BUILDER_CONFIG_NORMAL_MAX_COUNT_SPLIT,
+                        String.valueOf(Math.max(1, (maxCountPreSplit + shardCount - 1) / shardCount)));
+            }
+            config.put(DataTurboConstants.BUILDER_CONFIG_NORMAL_MAX_BYTES_SPLIT,
+                    String.valueOf(Math.max(1, maxBytesPreSplit / shardCount)));
+            DataTurboDetail shardDetail = new DataTurboDetail()
+                    .setDataId(String.format("%s-shard-%d", dataTurboDetail.getDataId(), i))
+                    .setDataFileEnum(DataFileEnum.NORMAL)
+                    .setKeyEnum(dataTurboDetail.getKeyEnum())
+                    .setLoadEnum(dataTurboDetail.getLoadEnum())
+                    .setFields(dataTurboDetail.getFields())
+                    .setConfig(config);
+            shards[i] = new NormalDataTurboBuilder(shardDetail);
+        }
+    }
+
+    /**
+     * 同时设置每个分片的比较器
+     *
+     * @param keyPredictor key比较器
+     */
+    @Override
+    public void setKeyPredictor(IKeyComparator keyPredictor) {
+        super.setKeyPredictor(keyPredictor);
+        for (NormalDataTurboBuilder shard : shards) {
+            shard.setKeyPredictor(keyPredictor);
+        }
+    }
+
+    /**
+     * 同时设置每个分片的加密器
+     *
+     * @param encryptor 加密器
+     */
+    @Override
+    public void setEncryptor(IEncryptor encryptor) {
+        super.setEncryptor(encryptor);
+        for (NormalDataTurboBuilder shard : shards) {
+            shard.setEncryptor(encryptor);
+        }
+    }
+
+    /**
+     * @return 每个分片的分块key数
+     */
+    @Override
+    public int getMaxCountPreSplit() {
+        return shards[0].getMaxCountPreSplit();
+    }
+
+    /**
+     * 按key的hash传入对应的分片 整数类型的key按存储key计算hash
+     *
+     * @param key key
+     * @param map 一个map作为一条记录的值
+     * @return 如果数据重复则返回false
+     * @see NormalDataTurboBuilder#inputData(String, Map)
+     */
+    @Override
+    public boolean inputData(String key, Map<String, Object> map) {
+        return shards[ShardUtils.getShard(key, getDataTurboDetail().getKeyEnum(), shards.length)].inputData(key, map);
+    }
+
+    /**
+     * 和十进制文本的key分到同一个分片
+     *
+     * @param key key
+     * @param map 一个map作为一条记录的值
+     * @return 如果数据重复则返回false
+     * @see NormalDataTurboBuilder#inputData(long, Map)
+     */
+    @Override
+    public boolean inputData(long key, Map<String, Object> map) {
+        return shards[ShardUtils.getShard(String.valueOf(key), getDataTurboDetail().getKeyEnum(), shards.length)].inputData(key, map);
+    }
+
+    /**
+     * 并发构建所有的分片 任意一个分片失败时整体失败
+     *
+     * @return 清单detail 分片的detail按序号排列在 {@link DataTurboDetail#getShards()} 中
+     */
+    @Override
+    public DataTurboDetail build() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, shards.length));
+        try {
+            List<Future<DataTurboDetail>> futures = new ArrayList<>(shards.length);
+            for (NormalDataTurboBuilder shard : shards) {
+                futures.add(executor.submit(shard::build));
+            }
+            List<DataTurboDetail> shardDetails = new ArrayList<>(shards.length);
+            for (Future<DataTurboDetail> future : futures) {
+                try {
+                    shardDetails.add(future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw new RuntimeException("build shard with error", e.getCause());
+                }
+            }
+            return getDataTurboDetail().setShards(shardDetails).setDataFile(null).setDataVersion(DateUtils.getDataVersion()).setKeeperVersion(KeeperVersion.VERSION);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -1,19 +1,60 @@
 package com.dazo66;
 
 import com.alibaba.fastjson.JSONObject;
+import com.dazo66.data.turbo.AbstractDataTurboBuilder;
+import com.dazo66.data.turbo.AbstractDataTurboClient;
+import com.dazo66.data.turbo.DataTurboBuilderFactory;
+import com.dazo66.data.turbo.DataTurboClientFactory;
+import com.dazo66.data.turbo.HashDataTurboBuilder;
+import com.dazo66.data.turbo.HashDataTurboClient;
 import com.dazo66.data.turbo.NormalDataTurboBuilder;
 import com.dazo66.data.turbo.NormalDataTurboClient;
+import com.dazo66.data.turbo.PatchDataTurboClient;
+import com.dazo66.data.turbo.ShardedDataTurboClient;
+import com.dazo66.data.turbo.key.predictor.ByteKeyComparator;
+import com.dazo66.data.turbo.key.predictor.IKeyComparator;
+import com.dazo66.data.turbo.key.predictor.StringKeyComparator;
+import com.dazo66.data.turbo.model.DataFileEnum;
 import com.dazo66.data.turbo.model.DataTurboDetail;
 import com.dazo66.data.turbo.model.DataTurboResult;
+import com.dazo66.data.turbo.model.DataTurboResultHolder;
+import com.dazo66.data.turbo.model.KeyEnum;
 import com.dazo66.data.turbo.model.LoadEnum;
+import com.dazo66.data.turbo.model.NormalBlockEnum;
+import com.dazo66.data.turbo.model.NormalFileHeader;
+import com.dazo66.data.turbo.util.BBHash;
+import com.dazo66.data.turbo.util.BlockCache;
 import com.dazo66.data.turbo.util.DataTurboConstants;
+import com.dazo66.data.turbo.util.FrequencyCache;
+import com.dazo66.data.turbo.util.RadixSpline;
+import com.dazo66.data.turbo.util.RecordArena;
+import com.dazo66.data.turbo.util.SparseIndex;
 import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author dazo66
@@ -422,4 +463,1564 @@ public class NormalDataTest {
             }
         }
     }
+
+    @Test
+    public void test2FieldMmap() throws Exception {
+        int testCount = 10000;
+        Random random = new Random(seed);
+        DataTurboDetail dataTurboDetail = new DataTurboDetail();
+        dataTurboDetail.setLoadEnum(LoadEnum.MMAP);
+        dataTurboDetail.setDataId("testNormal5");
+        dataTurboDetail.setFields(new String[]{"text1", "text2"});
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+        NormalDataTurboBuilder normalDataTurboBuilder =
+                new NormalDataTurboBuilder(dataTurboDetail) {
+                    @Override
+                    public int getMaxCountPreSplit() {
+                        return -1;
+                    }
+                };
+        for (int i = 0; i < testCount; i++) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("text1", getRandomString1(random));
+            data.put("text2", getRandomString1(random));
+            normalDataTurboBuilder.inputData(getRandomString(random), data);
+        }
+        DataTurboDetail dataTurboDetail1 = normalDataTurboBuilder.build();
+        NormalDataTurboClient client = new NormalDataTurboClient(dataTurboDetail1);
+        client.load();
+        random = new Random(seed);
+        long l = System.currentTimeMillis();
+        for (int i = 0; i < testCount; i++) {
+            String s1 = getRandomString1(random);
+            String s2 = getRandomString1(random);
+            String key = getRandomString(random);
+            DataTurboResult result = client.search(key);
+            if (result == null || !s1.equals(result.getString("text1")) || !s2.equals(result.getString("text2"))) {
+                System.out.println(key);
+                throw new RuntimeException();
+            }
+        }
+        System.out.println(System.currentTimeMillis() - l);
+        System.out.println(((double) (System.currentTimeMillis() - l) / (testCount)));
+        for (int i = 0; i < 10000; i++) {
+            String s = getRandomString1(random);
+            DataTurboResult result = client.search(s);
+            if (result != null) {
+                System.out.println(s);
+                throw new RuntimeException();
+            }
+        }
+        client.close();
+    }
+
+    @Test
+    public void testConcurrentHeap() throws Exception {
+        int testCount = 10000;
+        int threadCount = 8;
+        Random random = new Random(seed);
+        DataTurboDetail dataTurboDetail = new DataTurboDetail();
+        dataTurboDetail.setLoadEnum(LoadEnum.HEAP);
+        dataTurboDetail.setDataId("testNormal6");
+        dataTurboDetail.setFields(new String[]{"text1", "text2"});
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+        NormalDataTurboBuilder normalDataTurboBuilder =
+                new NormalDataTurboBuilder(dataTurboDetail) {
+                    @Override
+                    public int getMaxCountPreSplit() {
+                        return -1;
+                    }
+                };
+        Map<String, String[]> expect = new HashMap<>();
+        for (int i = 0; i < testCount; i++) {
+            Map<String, Object> data = new HashMap<>();
+            String s1 = getRandomString1(random);
+            String s2 = getRandomString1(random);
+            String key = getRandomString(random);
+            data.put("text1", s1);
+            data.put("text2", s2);
+            if (normalDataTurboBuilder.inputData(key, data)) {
+                expect.put(key, new String[]{s1, s2});
+            }
+        }
+        DataTurboDetail dataTurboDetail1 = normalDataTurboBuilder.build();
+        NormalDataTurboClient client = new NormalDataTurboClient(dataTurboDetail1);
+        client.load();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            futures.add(executor.submit(() -> {
+                int error = 0;
+                for (Map.Entry<String, String[]> entry : expect.entrySet()) {
+                    DataTurboResult result = client.search(entry.getKey());
+                    if (result == null || !entry.getValue()[0].equals(result.getString("text1"))
+                            || !entry.getValue()[1].equals(result.getString("text2"))) {
+                        error++;
+                    }
+                }
+                return error;
+            }));
+        }
+        for (Future<Integer> future : futures) {
+            Assert.assertEquals(0, future.get().intValue());
+        }
+        executor.shutdown();
+        client.close();
+    }
+
+    @Test
+    public void testVersionCompatible() throws Exception {
+        int testCount = 10000;
+        for (int version : new int[]{NormalFileHeader.VERSION_1, NormalFileHeader.VERSION_2,
+                NormalFileHeader.VERSION_3, NormalFileHeader.VERSION_4, NormalFileHeader.VERSION_5,
+                NormalFileHeader.VERSION_6}) {
+            Random random = new Random(seed);
+            DataTurboDetail dataTurboDetail = new DataTurboDetail();
+            dataTurboDetail.setLoadEnum(LoadEnum.DISK);
+            dataTurboDetail.setDataId("testNormal7");
+            dataTurboDetail.setFields(new String[]{"text1"});
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_VERSION,
+                    String.valueOf(version));
+            NormalDataTurboBuilder normalDataTurboBuilder =
+                    new NormalDataTurboBuilder(dataTurboDetail) {
+                        @Override
+                        public int getMaxCountPreSplit() {
+                            return 1000;
+                        }
+                    };
+            for (int i = 0; i < testCount; i++) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("text1", getRandomString1(random));
+                normalDataTurboBuilder.inputData(parseIntIp(i), data);
+            }
+            DataTurboDetail dataTurboDetail1 = normalDataTurboBuilder.build();
+            NormalDataTurboClient client = new NormalDataTurboClient(dataTurboDetail1);
+            client.load();
+            Assert.assertEquals(version, client.getVersion());
+            random = new Random(seed);
+            for (int i = 0; i < testCount; i++) {
+                String s1 = getRandomString1(random);
+                DataTurboResult result = client.search(parseIntIp(i));
+                Assert.assertNotNull(result);
+                Assert.assertEquals(s1, result.getString("text1"));
+            }
+            for (int i = 0; i < 10000; i++) {
+                Assert.assertNull(client.search(getRandomString(random)));
+            }
+            client.close();
+        }
+    }
+
+    @Test
+    public void testSearchBatch() throws Exception {
+        int testCount = 10000;
+        for (int version : new int[]{NormalFileHeader.VERSION_1, NormalFileHeader.VERSION_2,
+                NormalFileHeader.VERSION_3, NormalFileHeader.VERSION_4, NormalFileHeader.VERSION_5,
+                NormalFileHeader.VERSION_6}) {
+            Random random = new Random(seed);
+            DataTurboDetail dataTurboDetail = new DataTurboDetail();
+            dataTurboDetail.setLoadEnum(LoadEnum.DISK);
+            dataTurboDetail.setDataId("testNormal8");
+            dataTurboDetail.setFields(new String[]{"text1"});
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_VERSION,
+                    String.valueOf(version));
+            NormalDataTurboBuilder normalDataTurboBuilder =
+                    new NormalDataTurboBuilder(dataTurboDetail);
+            for (int i = 0; i < testCount; i++) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("text1", getRandomString1(random));
+                normalDataTurboBuilder.inputData(parseIntIp(i * 2), data);
+            }
+            NormalDataTurboClient client =
+                    new NormalDataTurboClient(normalDataTurboBuilder.build());
+            client.load();
+            // 稠密的批量 会顺序扫描
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < testCount * 2; i++) {
+                keys.add(parseIntIp(i));
+            }
+            checkBatch(client, keys);
+            // 稀疏的批量 会逐个二分
+            keys.clear();
+            for (int i = 0; i < 50; i++) {
+                keys.add(parseIntIp(random.nextInt(testCount * 2)));
+            }
+            keys.add("");
+            keys.add("\uffff");
+            checkBatch(client, keys);
+            client.close();
+        }
+    }
+
+    private static void checkBatch(AbstractDataTurboClient client, List<String> keys) {
+        Map<String, DataTurboResult> results = client.searchBatch(keys);
+        Set<String> nameList = client.searchNameListBatch(keys);
+        for (String key : keys) {
+            DataTurboResult expect = client.search(key);
+            DataTurboResult result = results.get(key);
+            if (expect == null) {
+                Assert.assertNull(result);
+                Assert.assertFalse(nameList.contains(key));
+            } else {
+                Assert.assertNotNull(key, result);
+                Assert.assertEquals(expect.getKey(), result.getKey());
+                Assert.assertEquals(expect.getData(), result.getData());
+                Assert.assertTrue(nameList.contains(key));
+            }
+        }
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        int testCount = 10000;
+        for (int version : new int[]{NormalFileHeader.VERSION_1, NormalFileHeader.VERSION_2,
+                NormalFileHeader.VERSION_3, NormalFileHeader.VERSION_4, NormalFileHeader.VERSION_5,
+                NormalFileHeader.VERSION_6}) {
+            Random random = new Random(seed);
+            DataTurboDetail dataTurboDetail = new DataTurboDetail();
+            dataTurboDetail.setLoadEnum(LoadEnum.HEAP);
+            dataTurboDetail.setDataId("testNormal9");
+            dataTurboDetail.setFields(new String[]{"text1"});
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_VERSION,
+                    String.valueOf(version));
+            NormalDataTurboBuilder normalDataTurboBuilder =
+                    new NormalDataTurboBuilder(dataTurboDetail);
+            TreeMap<String, String> expect = new TreeMap<>();
+            for (int i = 0; i < testCount; i++) {
+                Map<String, Object> data = new HashMap<>();
+                String text = getRandomString1(random);
+                data.put("text1", text);
+                normalDataTurboBuilder.inputData(parseIntIp(i), data);
+                expect.put(parseIntIp(i), text);
+            }
+            NormalDataTurboClient client =
+                    new NormalDataTurboClient(normalDataTurboBuilder.build());
+            client.load();
+            checkScan(expect, client.scan(null, null));
+            for (int i = 0; i < 20; i++) {
+                String from = parseIntIp(random.nextInt(testCount));
+                String to = parseIntIp(random.nextInt(testCount));
+                if (from.compareTo(to) > 0) {
+                    String temp = from;
+                    from = to;
+                    to = temp;
+                }
+                checkScan(expect.subMap(from, to), client.scan(from, to));
+                // 不存在的key作为边界
+                checkScan(expect.subMap(from + "!", to + "!"), client.scan(from + "!",
+                        to + "!"));
+            }
+            checkScan(expect.tailMap("0.0.39"), client.scan("0.0.39", null));
+            checkScan(expect.subMap("0.0.1.", "0.0.1/"), client.prefixScan("0.0.1."));
+            Assert.assertEquals(0, client.prefixScanStream("1.").count());
+            Assert.assertEquals(expect.subMap("0.0.2", "0.0.3").size(),
+                    client.scanStream("0.0.2", "0.0.3").count());
+            client.close();
+        }
+    }
+
+    @Test
+    public void testBlockCache() throws Exception {
+        int testCount = 10000;
+        int threadCount = 4;
+        Random random = new Random(seed);
+        DataTurboDetail dataTurboDetail = new DataTurboDetail();
+        dataTurboDetail.setLoadEnum(LoadEnum.DISK);
+        dataTurboDetail.setDataId("testNormal10");
+        dataTurboDetail.setFields(new String[]{"text1"});
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+        dataTurboDetail.setProp(DataTurboConstants.CLIENT_CONFIG_BLOCK_CACHE_ENABLE, "true");
+        NormalDataTurboBuilder normalDataTurboBuilder =
+                new NormalDataTurboBuilder(dataTurboDetail);
+        Map<String, String> expect = new HashMap<>();
+        for (int i = 0; i < testCount; i++) {
+            Map<String, Object> data = new HashMap<>();
+            String s1 = getRandomString1(random);
+            String key = getRandomString(random);
+            data.put("text1", s1);
+            if (normalDataTurboBuilder.inputData(key, data)) {
+                expect.put(key, s1);
+            }
+        }
+        DataTurboDetail dataTurboDetail1 = normalDataTurboBuilder.build();
+        // 缓存远小于数据文件 保证会发生淘汰
+        BlockCache blockCache = new BlockCache(256 * 1024, BlockCache.DEFAULT_BLOCK_SIZE);
+        BlockCache.setDefault(blockCache);
+        NormalDataTurboClient client = new NormalDataTurboClient(dataTurboDetail1);
+        try {
+            client.load();
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                futures.add(executor.submit(() -> {
+                    int error = 0;
+                    for (Map.Entry<String, String> entry : expect.entrySet()) {
+                        DataTurboResult result = client.search(entry.getKey());
+                        if (result == null || !entry.getValue().equals(result.getString("text1"))) {
+                            error++;
+                        }
+                    }
+                    return error;
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                Assert.assertEquals(0, future.get().intValue());
+            }
+            executor.shutdown();
+            Assert.assertTrue(blockCache.getHitCount() > 0);
+            Assert.assertTrue(blockCache.getMissCount() > 0);
+            Assert.assertTrue(blockCache.getEvictionCount() > 0);
+            Assert.assertTrue(blockCache.getSize() <= blockCache.getCapacity());
+            client.close();
+            Assert.assertEquals(0, blockCache.getSize());
+        } finally {
+            BlockCache.setDefault(null);
+        }
+    }
+
+    @Test
+    public void testCompress() throws Exception {
+        int testCount = 10000;
+        long plainLength = 0;
+        for (String compressor : new String[]{null, "DEFLATE", "DEFLATE_FAST"}) {
+            Random random = new Random(seed);
+            DataTurboDetail dataTurboDetail = new DataTurboDetail();
+            dataTurboDetail.setLoadEnum(LoadEnum.HEAP);
+            dataTurboDetail.setDataId("testNormal17" + compressor);
+            dataTurboDetail.setFields(new String[]{"text1", "text2"});
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+            // 只比较压缩的效果
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_REFERENCE_MIN_REPEAT, "0");
+            if (compressor != null) {
+                dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_COMPRESS, compressor);
+                dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_COMPRESS_BLOCK_SIZE,
+                        "4096");
+            }
+            NormalDataTurboBuilder normalDataTurboBuilder =
+                    new NormalDataTurboBuilder(dataTurboDetail);
+            TreeMap<String, String> expect = new TreeMap<>();
+            for (int i = 0; i < testCount; i++) {
+                Map<String, Object> data = new HashMap<>();
+                // 重复度高的数据 压缩效果明显
+                String text = "value-" + random.nextInt(100);
+                data.put("text1", text);
+                data.put("text2", "");
+                normalDataTurboBuilder.inputData(parseIntIp(i), data);
+                expect.put(parseIntIp(i), text);
+            }
+            DataTurboDetail dataTurboDetail1 = normalDataTurboBuilder.build();
+            long length = new File(dataTurboDetail1.getDataFile()).length();
+            if (compressor == null) {
+                plainLength = length;
+                continue;
+            }
+            Assert.assertTrue(length < plainLength / 2);
+            for (LoadEnum loadEnum : new LoadEnum[]{LoadEnum.HEAP, LoadEnum.MMAP, LoadEnum.DISK}) {
+                dataTurboDetail1.setLoadEnum(loadEnum);
+                dataTurboDetail1.setProp(DataTurboConstants.CLIENT_CONFIG_BLOCK_CACHE_ENABLE,
+                        String.valueOf(loadEnum == LoadEnum.DISK));
+                NormalDataTurboClient client = new NormalDataTurboClient(dataTurboDetail1);
+                client.load();
+                DataTurboResultHolder holder = new DataTurboResultHolder();
+                List<String> keys = new ArrayList<>();
+                for (Map.Entry<String, String> entry : expect.entrySet()) {
+                    DataTurboResult result = client.search(entry.getKey());
+                    Assert.assertNotNull(entry.getKey(), result);
+                    Assert.assertEquals(entry.getValue(), result.getString("text1"));
+                    Assert.assertEquals("", result.getString("text2"));
+                    Assert.assertTrue(client.search(entry.getKey(), holder));
+                    Assert.assertEquals(entry.getValue(), holder.getString("text1"));
+                    Assert.assertNull(client.search(entry.getKey() + "!"));
+                    if (keys.size() < 200) {
+                        keys.add(entry.getKey());
+                        keys.add(entry.getKey() + "!");
+                    }
+                }
+                checkBatch(client, keys);
+                checkScan(expect, client.scan(null, null));
+                checkScan(expect.subMap("0.0.1.", "0.0.1/"), client.prefixScan("0.0.1."));
+                Assert.assertEquals(expect.get("0.0.0.1"),
+                        client.searchAsync("0.0.0.1", Runnable::run).get().getString("text1"));
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testReference() throws Exception {
+        int testCount = 10000;
+        String[] countries = {"People's Republic of China", "United States of America",
+                "United Kingdom of Great Britain", "中华人民共和国", "Federal Republic of Germany"};
+        long plainLength = 0;
+        for (int version : new int[]{NormalFileHeader.VERSION_5, NormalFileHeader.VERSION_6}) {
+            for (String compressor : new String[]{null, "DEFLATE"}) {
+                Random random = new Random(seed);
+                DataTurboDetail dataTurboDetail = new DataTurboDetail();
+                dataTurboDetail.setLoadEnum(LoadEnum.HEAP);
+                dataTurboDetail.setDataId("testNormal18");
+                dataTurboDetail.setFields(new String[]{"country", "text", "json"});
+                dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+                dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_REFERENCE_MIN_REPEAT, "2");
+                dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_VERSION,
+                        String.valueOf(version));
+                if (compressor != null) {
+                    dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_COMPRESS, compressor);
+                }
+                NormalDataTurboBuilder normalDataTurboBuilder =
+                        new NormalDataTurboBuilder(dataTurboDetail);
+                TreeMap<String, Map<String, String>> expect = new TreeMap<>();
+                for (int i = 0; i < testCount; i++) {
+                    Map<String, Object> data = new HashMap<>();
+                    data.put("country", countries[random.nextInt(countries.length)]);
+                    // 不重复的值不会被引用
+                    data.put("text", "text-" + i);
+                    // 短的重复值引用之后不会变短 也不会被引用
+                    data.put("json", i % 3 == 0 ? "" : i % 3 == 1 ? "{}" :
+                            "{\"type\":\"category-" + random.nextInt(10) + "\",\"tags\":[1,2,3]}");
+                    normalDataTurboBuilder.inputData(parseIntIp(i), data);
+                    Map<String, String> values = new HashMap<>();
+                    data.forEach((k, v) -> values.put(k, v.toString()));
+                    expect.put(parseIntIp(i), values);
+                }
+                DataTurboDetail dataTurboDetail1 = normalDataTurboBuilder.build();
+                NormalFileHeader header;
+                try (FileInputStream in = new FileInputStream(dataTurboDetail1.getDataFile())) {
+                    header = NormalFileHeader.readFrom(in);
+                }
+                if (version == NormalFileHeader.VERSION_5) {
+                    Assert.assertEquals(0, header.getReferenceBlockLength());
+                    if (compressor == null) {
+                        plainLength = header.getValueBlockLength();
+                    }
+                    continue;
+                }
+                Assert.assertTrue(header.getReferenceBlockLength() > 0);
+                // 只有5个国家和10种json被引用 每个不重复的text都不会进入引用数据块
+                Assert.assertTrue(header.getReferenceBlockLength() < 1024);
+                if (compressor == null) {
+                    Assert.assertTrue(header.getValueBlockLength() < plainLength * 3 / 4);
+                }
+                for (LoadEnum loadEnum : new LoadEnum[]{LoadEnum.HEAP, LoadEnum.MMAP, LoadEnum.DISK}) {
+                    dataTurboDetail1.setLoadEnum(loadEnum);
+                    NormalDataTurboClient client = new NormalDataTurboClient(dataTurboDetail1);
+                    client.load();
+                    DataTurboResultHolder holder = new DataTurboResultHolder();
+                    List<String> keys = new ArrayList<>();
+                    for (Map.Entry<String, Map<String, String>> entry : expect.entrySet()) {
+                        DataTurboResult result = client.search(entry.getKey());
+                        Assert.assertNotNull(entry.getKey(), result);
+                        Assert.assertEquals(entry.getValue(), result.getData());
+                        Assert.assertTrue(client.search(entry.getKey(), holder));
+                        Assert.assertEquals(entry.getValue(), holder.toResult().getData());
+                        if (keys.size() < 200) {
+                            keys.add(entry.getKey());
+                        }
+                    }
+                    checkBatch(client, keys);
+                    // 磁盘模式下引用的值也是异步读取的
+                    for (String key : keys) {
+                        Assert.assertEquals(expect.get(key), client.searchAsync(key, Runnable::run).get()
+                                .getData());
+                    }
+                    Iterator<DataTurboResult> iterator = client.scan(null, null);
+                    for (Map.Entry<String, Map<String, String>> entry : expect.entrySet()) {
+                        Assert.assertTrue(iterator.hasNext());
+                        DataTurboResult result = iterator.next();
+                        Assert.assertEquals(entry.getKey(), result.getKey());
+                        Assert.assertEquals(entry.getValue(), result.getData());
+                    }
+                    Assert.assertFalse(iterator.hasNext());
+                    Assert.assertEquals(expect.get("0.0.0.2"),
+                            client.searchAsync("0.0.0.2", Runnable::run).get().getData());
+                    client.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReferenceBudget() throws Exception {
+        int pairCount = 1000;
+        int repeatCount = 1500;
+        char[] chars = new char[200];
+        Arrays.fill(chars, 'r');
+        String repeated = new String(chars);
+        DataTurboDetail dataTurboDetail = new DataTurboDetail();
+        dataTurboDetail.setLoadEnum(LoadEnum.HEAP);
+        dataTurboDetail.setDataId("testNormal31");
+        dataTurboDetail.setFields(new String[]{"text"});
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_REFERENCE_MIN_REPEAT, "2");
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_REFERENCE_MAX_SIZE, "4096");
+        NormalDataTurboBuilder builder = new NormalDataTurboBuilder(dataTurboDetail);
+        Map<String, String> expect = new HashMap<>();
+        // 前面的key是很多只在最后才重复的值 会先占满候选值的预算
+        for (int i = 0; i < pairCount; i++) {
+            expect.put(String.format("%08d", i), "pair-value-" + String.format("%08d", i));
+            expect.put(String.format("%08d", pairCount + repeatCount + i), "pair-value-" + String.format("%08d", i));
+        }
+        // 中间的key一直重复同一个值 候选值满了也需要被引用
+        for (int i = pairCount; i < pairCount + repeatCount; i++) {
+            expect.put(String.format("%08d", i), repeated);
+        }
+        for (Map.Entry<String, String> entry : expect.entrySet()) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("text", entry.getValue());
+            Assert.assertTrue(builder.inputData(entry.getKey(), data));
+        }
+        DataTurboDetail detail = builder.build();
+        NormalFileHeader header;
+        try (FileInputStream in = new FileInputStream(detail.getDataFile())) {
+            header = NormalFileHeader.readFrom(in);
+        }
+        // 候选值和引用值共用预算
+        Assert.assertTrue(header.getReferenceBlockLength() <= 4096);
+        // 重复的长值被引用 信息数据块比不引用时小得多
+        Assert.assertTrue(header.getValueBlockLength() < (long) repeatCount * repeated.length() / 2);
+        NormalDataTurboClient client = new NormalDataTurboClient(detail);
+        client.load();
+        for (Map.Entry<String, String> entry : expect.entrySet()) {
+            Assert.assertEquals(entry.getValue(), client.search(entry.getKey()).getString("text"));
+        }
+        client.close();
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        int testCount = 10000;
+        int threadCount = 4;
+        DataTurboDetail[] details = new DataTurboDetail[2];
+        for (int d = 0; d < details.length; d++) {
+            DataTurboDetail dataTurboDetail = new DataTurboDetail();
+            dataTurboDetail.setLoadEnum(LoadEnum.DISK);
+            dataTurboDetail.setDataId("testNormal19-" + d);
+            dataTurboDetail.setFields(new String[]{"text1"});
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+            dataTurboDetail.setProp(DataTurboConstants.CLIENT_CONFIG_BLOCK_CACHE_ENABLE, "true");
+            dataTurboDetail.setProp(DataTurboConstants.CLIENT_CONFIG_WARM_ENABLE, "true");
+            NormalDataTurboBuilder normalDataTurboBuilder =
+                    new NormalDataTurboBuilder(dataTurboDetail);
+            for (int i = 0; i < testCount; i++) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("text1", d + "-" + i);
+                normalDataTurboBuilder.inputData(parseIntIp(i), data);
+            }
+            details[d] = normalDataTurboBuilder.build();
+        }
+        BlockCache blockCache = new BlockCache(1024 * 1024, BlockCache.DEFAULT_BLOCK_SIZE);
+        BlockCache.setDefault(blockCache);
+        NormalDataTurboClient client = new NormalDataTurboClient(details[0]);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            client.load();
+            // 扫描一直使用开始时的数据
+            NormalDataTurboClient.ScanIterator scan = client.scan(null, null);
+            AtomicBoolean running = new AtomicBoolean(true);
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                int seed0 = t;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(seed0);
+                    DataTurboResultHolder holder = new DataTurboResultHolder();
+                    int error = 0;
+                    while (running.get()) {
+                        int i = random.nextInt(testCount);
+                        DataTurboResult result = client.search(parseIntIp(i));
+                        String value = result == null ? null : result.getString("text1");
+                        if (!("0-" + i).equals(value) && !("1-" + i).equals(value)) {
+                            error++;
+                        }
+                        if (!client.search(parseIntIp(i), holder)
+                                || !holder.getString("text1").endsWith("-" + i)) {
+                            error++;
+                        }
+                    }
+                    return error;
+                }));
+            }
+            for (int r = 1; r <= 20; r++) {
+                client.reload(details[r % 2]);
+                Assert.assertEquals(details[r % 2], client.getDataTurboDetail());
+            }
+            // 加载失败时继续使用原来的数据
+            DataTurboDetail broken = new DataTurboDetail();
+            broken.setLoadEnum(LoadEnum.DISK);
+            broken.setDataFile(details[0].getDataFile() + ".missing");
+            try {
+                client.reload(broken);
+                Assert.fail();
+            } catch (Exception e) {
+                Assert.assertEquals(details[0], client.getDataTurboDetail());
+            }
+            ExecutorService reloadExecutor = Executors.newSingleThreadExecutor();
+            try {
+                client.reloadAsync(details[1], reloadExecutor).get();
+            } finally {
+                reloadExecutor.shutdown();
+            }
+            running.set(false);
+            for (Future<Integer> future : futures) {
+                Assert.assertEquals(0, future.get().intValue());
+            }
+            Assert.assertEquals("1-0", client.search(parseIntIp(0)).getString("text1"));
+            int scanned = 0;
+            while (scan.hasNext()) {
+                DataTurboResult result = scan.next();
+                Assert.assertTrue(result.getString("text1").startsWith("0-"));
+                scanned++;
+            }
+            Assert.assertEquals(testCount, scanned);
+            // 没有读完的扫描需要关闭
+            client.scan(null, null).close();
+            client.close();
+            // 所有的旧数据都已经释放
+            Assert.assertEquals(0, blockCache.getSize());
+        } finally {
+            executor.shutdown();
+            BlockCache.setDefault(null);
+        }
+    }
+
+    @Test
+    public void testSharded() throws Exception {
+        int testCount = 20000;
+        int threadCount = 4;
+        DataTurboDetail dataTurboDetail = new DataTurboDetail();
+        dataTurboDetail.setLoadEnum(LoadEnum.HEAP);
+        dataTurboDetail.setDataId("testNormal20");
+        dataTurboDetail.setDataFileEnum(DataFileEnum.SHARDED);
+        dataTurboDetail.setFields(new String[]{"text1"});
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_MAX_COUNT_SPLIT, "4000");
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_SHARDED_COUNT, "5");
+        AbstractDataTurboBuilder builder = DataTurboBuilderFactory.get(dataTurboDetail);
+        // 多个线程同时传入数据
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int start = t;
+            futures.add(executor.submit(() -> {
+                for (int i = start; i < testCount; i += threadCount) {
+                    Map<String, Object> data = new HashMap<>();
+                    data.put("text1", "text-" + i);
+                    Assert.assertTrue(builder.inputData(parseIntIp(i), data));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        DataTurboDetail manifest = builder.build();
+        Assert.assertNull(manifest.getDataFile());
+        Assert.assertEquals(5, manifest.getShards().size());
+        long total = 0;
+        for (DataTurboDetail shard : manifest.getShards()) {
+            Assert.assertEquals(DataFileEnum.NORMAL, shard.getDataFileEnum());
+            NormalDataTurboClient shardClient = new NormalDataTurboClient(shard);
+            shardClient.load();
+            total += shardClient.scanStream(null, null).count();
+            shardClient.close();
+        }
+        Assert.assertEquals(testCount, total);
+        // 清单可以序列化之后再加载
+        manifest = JSONObject.parseObject(JSONObject.toJSONString(manifest), DataTurboDetail.class);
+        for (LoadEnum loadEnum : new LoadEnum[]{LoadEnum.HEAP, LoadEnum.DISK}) {
+            manifest.setLoadEnum(loadEnum);
+            manifest.setProp(DataTurboConstants.CLIENT_CONFIG_RESULT_CACHE_SIZE, "1000");
+            AbstractDataTurboClient client = DataTurboClientFactory.get(manifest);
+            Assert.assertTrue(client instanceof ShardedDataTurboClient);
+            client.load();
+            Assert.assertEquals(5, ((ShardedDataTurboClient) client).getShardCount());
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < testCount; i++) {
+                DataTurboResult result = client.search(parseIntIp(i));
+                Assert.assertNotNull(result);
+                Assert.assertEquals("text-" + i, result.getString("text1"));
+                Assert.assertNull(client.search(parseIntIp(i) + "!"));
+                if (i % 50 == 0) {
+                    keys.add(parseIntIp(i));
+                    keys.add(parseIntIp(i) + "!");
+                }
+            }
+            checkBatch(client, keys);
+            Assert.assertEquals("text-7", client.searchAsync(parseIntIp(7), Runnable::run).get()
+                    .getString("text1"));
+            client.reload(manifest);
+            Assert.assertEquals("text-7", client.search(parseIntIp(7)).getString("text1"));
+            client.close();
+        }
+    }
+
+    @Test
+    public void testShardedNumberKey() throws Exception {
+        int testCount = 1000;
+        DataTurboDetail dataTurboDetail = new DataTurboDetail();
+        dataTurboDetail.setLoadEnum(LoadEnum.HEAP);
+        dataTurboDetail.setDataId("testNormal30");
+        dataTurboDetail.setDataFileEnum(DataFileEnum.SHARDED);
+        dataTurboDetail.setKeyEnum(KeyEnum.LONG);
+        dataTurboDetail.setFields(new String[]{"text1"});
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_ERROR_TOLERATING, "100");
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_SHARDED_COUNT, "5");
+        AbstractDataTurboBuilder builder = DataTurboBuilderFactory.get(dataTurboDetail);
+        for (int i = 0; i < testCount; i++) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("text1", "text-" + i);
+            // 整数和十进制文本两种传入方式需要分到同一个分片
+            Assert.assertTrue(i % 2 == 0 ? builder.inputData((long) i, data) : builder.inputData(String.valueOf(i), data));
+        }
+        // 不同写法的同一个key会进入同一个分片 可以检查出重复
+        for (int i = 0; i < 20; i++) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("text1", "duplicate");
+            Assert.assertFalse(builder.inputData("00" + i, data));
+            Assert.assertFalse(builder.inputData("+" + i, data));
+        }
+        DataTurboDetail manifest = builder.build();
+        for (LoadEnum loadEnum : new LoadEnum[]{LoadEnum.HEAP, LoadEnum.DISK}) {
+            manifest.setLoadEnum(loadEnum);
+            AbstractDataTurboClient client = DataTurboClientFactory.get(manifest);
+            client.load();
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < testCount; i++) {
+                Assert.assertEquals("text-" + i, client.search(String.valueOf(i)).getString("text1"));
+                Assert.assertEquals("text-" + i, client.search("00" + i).getString("text1"));
+                keys.add("+" + i);
+            }
+            keys.add("not a number");
+            Assert.assertNull(client.search("not a number"));
+            Map<String, DataTurboResult> results = client.searchBatch(keys);
+            Assert.assertEquals(testCount, results.size());
+            for (int i = 0; i < testCount; i++) {
+                Assert.assertEquals("text-" + i, results.get("+" + i).getString("text1"));
+            }
+            Assert.assertEquals("text-7", client.searchAsync("007", Runnable::run).get().getString("text1"));
+            client.close();
+        }
+    }
+
+    @Test
+    public void testBytesSplit() throws Exception {
+        int testCount = 20000;
+        DataTurboDetail dataTurboDetail = new DataTurboDetail();
+        dataTurboDetail.setDataId("testNormal27");
+        dataTurboDetail.setFields(new String[]{"text1", "text2"});
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_MAX_BYTES_SPLIT, "65536");
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_INPUT_BUFFERS, "1");
+        AtomicInteger spillCount = new AtomicInteger();
+        NormalDataTurboBuilder builder = new NormalDataTurboBuilder(dataTurboDetail) {
+            @Override
+            protected String storeTemp(RecordArena buffer) throws IOException {
+                // 除了包含超长记录的 写入临时文件时缓冲区申请的内存最多超出预算一页和一次数组扩容
+                Assert.assertTrue(buffer.getAllocatedBytes() <= 65536 * 3 || buffer.getAllocatedBytes() > 3 << 20);
+                spillCount.incrementAndGet();
+                return super.storeTemp(buffer);
+            }
+        };
+        Assert.assertEquals(65536, builder.getMaxBytesPreSplit());
+        // 比临时文件读写缓冲区都大的字段值
+        char[] chars = new char[3 << 20];
+        Arrays.fill(chars, 'x');
+        String longText = new String(chars);
+        for (int i = 0; i < testCount; i++) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("text1", "text-" + i);
+            data.put("text2", i == 5000 ? longText : "field-" + i);
+            Assert.assertTrue(builder.inputData(parseIntIp(i), data));
+        }
+        // 每条记录大约60字节 2万条一定会按字节数分块多次
+        Assert.assertTrue(spillCount.get() > 10);
+        // 已经写入临时文件的key再次写入 合并时只保留第一次写入的记录
+        for (int i = 0; i < 10; i++) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("text1", "duplicate-" + i);
+            Assert.assertTrue(builder.inputData(parseIntIp(i), data));
+        }
+        NormalDataTurboClient client = new NormalDataTurboClient(builder.build());
+        client.load();
+        Assert.assertEquals(testCount, client.scanStream(null, null).count());
+        for (int i = 0; i < testCount; i += i < 10 ? 1 : 97) {
+            Assert.assertEquals("text-" + i, client.search(parseIntIp(i)).getString("text1"));
+            Assert.assertEquals("field-" + i, client.search(parseIntIp(i)).getString("text2"));
+        }
+        Assert.assertEquals(longText, client.search(parseIntIp(5000)).getString("text2"));
+        client.close();
+    }
+
+    @Test
+    public void testIdleWriterSplit() throws Exception {
+        int idleCount = 60;
+        int busyCount = 20000;
+        DataTurboDetail dataTurboDetail = new DataTurboDetail();
+        dataTurboDetail.setDataId("testNormal28");
+        dataTurboDetail.setFields(new String[]{"text1"});
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_MAX_BYTES_SPLIT, "65536");
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_INPUT_BUFFERS, "2");
+        List<Integer> spillSizes = new ArrayList<>();
+        NormalDataTurboBuilder builder = new NormalDataTurboBuilder(dataTurboDetail) {
+            @Override
+            protected String storeTemp(RecordArena buffer) throws IOException {
+                synchronized (spillSizes) {
+                    spillSizes.add(buffer.size());
+                }
+                return super.storeTemp(buffer);
+            }
+        };
+        // 空闲线程的60条长记录占了预算的大部分
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        String longText = new String(chars);
+        // 两个线程需要使用不同的排序缓冲区 单线程的线程池一直使用同一个线程
+        ExecutorService idle = Executors.newSingleThreadExecutor();
+        long idleThread = idle.submit(() -> Thread.currentThread().getId()).get();
+        ExecutorService busy = Executors.newSingleThreadExecutor();
+        while (busy.submit(() -> Thread.currentThread().getId()).get() % 2 == idleThread % 2) {
+            busy.shutdown();
+            busy = Executors.newSingleThreadExecutor();
+        }
+        // 先写入的线程之后不再写入 它的缓冲区一直占着一部分预算
+        // 通过Future.get()把写入线程中失败的断言抛出来
+        idle.submit(() -> {
+            for (int i = 0; i < idleCount; i++) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("text1", longText + i);
+                Assert.assertTrue(builder.inputData(parseIntIp(i), data));
+            }
+        }).get();
+        busy.submit(() -> {
+            for (int i = idleCount; i < idleCount + busyCount; i++) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("text1", "text-" + i);
+                Assert.assertTrue(builder.inputData(parseIntIp(i), data));
+            }
+        }).get();
+        idle.shutdown();
+        busy.shutdown();
+        // 不会因为空闲的缓冲区占着预算 每写入一条就产生一个临时文件
+        Assert.assertTrue(spillSizes.size() < 100);
+        for (int size : spillSizes) {
+            Assert.assertTrue(size >= idleCount / 2);
+        }
+        NormalDataTurboClient client = new NormalDataTurboClient(builder.build());
+        client.load();
+        Assert.assertEquals(idleCount + busyCount, client.scanStream(null, null).count());
+        for (int i = 0; i < idleCount + busyCount; i += i < idleCount ? 1 : 37) {
+            Assert.assertEquals((i < idleCount ? longText : "text-") + i,
+                    client.search(parseIntIp(i)).getString("text1"));
+        }
+        client.close();
+    }
+
+    @Test
+    public void testConcurrentInput() throws Exception {
+        int testCount = 40000;
+        int threadCount = 8;
+        DataTurboDetail dataTurboDetail = new DataTurboDetail();
+        dataTurboDetail.setDataId("testNormal25");
+        dataTurboDetail.setFields(new String[]{"text1"});
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_MAX_COUNT_SPLIT, "3000");
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_INPUT_BUFFERS, "4");
+        NormalDataTurboBuilder builder = new NormalDataTurboBuilder(dataTurboDetail);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int start = t;
+            futures.add(executor.submit(() -> {
+                for (int i = start; i < testCount; i += threadCount) {
+                    Map<String, Object> data = new HashMap<>();
+                    data.put("text1", "text-" + i);
+                    Assert.assertTrue(builder.inputData(parseIntIp(i), data));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        NormalDataTurboClient client = new NormalDataTurboClient(builder.build());
+        client.load();
+        Assert.assertEquals(testCount, client.scanStream(null, null).count());
+        for (int i = 0; i < testCount; i++) {
+            DataTurboResult result = client.search(parseIntIp(i));
+            Assert.assertNotNull(result);
+            Assert.assertEquals("text-" + i, result.getString("text1"));
+        }
+        client.close();
+        // 同一个缓冲区中重复的key在写入时就会被拒绝
+        NormalDataTurboBuilder duplicateBuilder =
+                new NormalDataTurboBuilder(dataTurboDetail.setDataId("testNormal26"));
+        for (String value : new String[]{"first", "second"}) {
+            for (int i = 0; i < 100; i++) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("text1", value + i);
+                Assert.assertEquals("first".equals(value),
+                        duplicateBuilder.inputData(parseIntIp(i), data));
+            }
+        }
+        NormalDataTurboClient duplicateClient = new NormalDataTurboClient(duplicateBuilder.build());
+        duplicateClient.load();
+        Assert.assertEquals(100, duplicateClient.scanStream(null, null).count());
+        Assert.assertEquals("first7", duplicateClient.search(parseIntIp(7)).getString("text1"));
+        duplicateClient.close();
+    }
+
+    @Test
+    public void testNumberKey() throws Exception {
+        int testCount = 20000;
+        Random random = new Random(seed);
+        TreeMap<Long, String> expect = new TreeMap<>();
+        expect.put(Long.MIN_VALUE, "min");
+        expect.put(Long.MAX_VALUE, "max");
+        expect.put(0L, "zero");
+        expect.put(-1L, "minus one");
+        while (expect.size() < testCount) {
+            long key = random.nextInt(3) == 0 ? random.nextLong() : random.nextInt(1000000000);
+            expect.put(key, "value-" + key);
+        }
+        long[] lengths = new long[2];
+        DataTurboDetail numberDetail = null;
+        for (KeyEnum keyEnum : new KeyEnum[]{KeyEnum.STRING, KeyEnum.LONG}) {
+            DataTurboDetail dataTurboDetail = new DataTurboDetail();
+            dataTurboDetail.setLoadEnum(LoadEnum.HEAP);
+            dataTurboDetail.setDataId("testNormal21" + keyEnum.getId());
+            dataTurboDetail.setKeyEnum(keyEnum);
+            dataTurboDetail.setFields(new String[]{"text1"});
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_MAX_COUNT_SPLIT, "5000");
+            NormalDataTurboBuilder normalDataTurboBuilder =
+                    new NormalDataTurboBuilder(dataTurboDetail);
+            int n = 0;
+            for (Map.Entry<Long, String> entry : expect.entrySet()) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("text1", entry.getValue());
+                // 两种写入方式结果一样
+                Assert.assertTrue(n++ % 2 == 0 ? normalDataTurboBuilder.inputData(entry.getKey(), data)
+                        : normalDataTurboBuilder.inputData(String.valueOf(entry.getKey()), data));
+            }
+            if (keyEnum == KeyEnum.LONG) {
+                Assert.assertFalse(normalDataTurboBuilder.inputData("not a number", new HashMap<>()));
+            }
+            DataTurboDetail dataTurboDetail1 = normalDataTurboBuilder.build();
+            lengths[keyEnum == KeyEnum.LONG ? 1 : 0] = new File(dataTurboDetail1.getDataFile()).length();
+            numberDetail = dataTurboDetail1;
+        }
+        // 长整数编码后比十进制文本短
+        Assert.assertTrue(lengths[1] < lengths[0]);
+        for (LoadEnum loadEnum : new LoadEnum[]{LoadEnum.HEAP, LoadEnum.DISK}) {
+            numberDetail.setLoadEnum(loadEnum);
+            NormalDataTurboClient client = new NormalDataTurboClient(numberDetail);
+            client.load();
+            DataTurboResultHolder holder = new DataTurboResultHolder();
+            List<String> keys = new ArrayList<>();
+            for (Map.Entry<Long, String> entry : expect.entrySet()) {
+                long key = entry.getKey();
+                DataTurboResult result = client.search(key);
+                Assert.assertNotNull(String.valueOf(key), result);
+                Assert.assertEquals(String.valueOf(key), result.getKey());
+                Assert.assertEquals(entry.getValue(), result.getString("text1"));
+                Assert.assertEquals(entry.getValue(),
+                        client.search(String.valueOf(key)).getString("text1"));
+                Assert.assertTrue(client.search(key, holder));
+                Assert.assertEquals(key, holder.getLongKey());
+                Assert.assertEquals(String.valueOf(key), holder.getKey());
+                Assert.assertEquals(entry.getValue(), holder.getString("text1"));
+                if (key != Long.MAX_VALUE && !expect.containsKey(key + 1)) {
+                    Assert.assertNull(client.search(key + 1));
+                    Assert.assertFalse(client.search(key + 1, holder));
+                }
+                if (keys.size() < 200) {
+                    keys.add(String.valueOf(key));
+                    keys.add(String.valueOf(key) + "0");
+                }
+            }
+            Assert.assertNull(client.search("not a number"));
+            keys.add("not a number");
+            checkBatch(client, keys);
+            // 同一个数值的不同写法都会返回结果
+            Map<String, DataTurboResult> spellings = client.searchBatch(Arrays.asList("0", "000", "+0"));
+            Assert.assertEquals(3, spellings.size());
+            for (DataTurboResult result : spellings.values()) {
+                Assert.assertEquals("zero", result.getString("text1"));
+            }
+            // 按数值顺序扫描
+            Iterator<DataTurboResult> scan = client.scan("-1", "1000");
+            for (Map.Entry<Long, String> entry : expect.subMap(-1L, 1000L).entrySet()) {
+                Assert.assertTrue(scan.hasNext());
+                DataTurboResult result = scan.next();
+                Assert.assertEquals(String.valueOf(entry.getKey()), result.getKey());
+                Assert.assertEquals(entry.getValue(), result.getString("text1"));
+            }
+            Assert.assertFalse(scan.hasNext());
+            Assert.assertEquals("zero", client.searchAsync("0", Runnable::run).get().getString("text1"));
+            client.close();
+        }
+        // int类型的key
+        DataTurboDetail dataTurboDetail = new DataTurboDetail();
+        dataTurboDetail.setDataId("testNormal21int");
+        dataTurboDetail.setKeyEnum(KeyEnum.INT);
+        dataTurboDetail.setFields(new String[]{"text1"});
+        NormalDataTurboBuilder normalDataTurboBuilder = new NormalDataTurboBuilder(dataTurboDetail);
+        for (int key : new int[]{Integer.MIN_VALUE, -5, 0, 5, Integer.MAX_VALUE}) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("text1", "int" + key);
+            Assert.assertTrue(normalDataTurboBuilder.inputData(key, data));
+        }
+        Assert.assertFalse(normalDataTurboBuilder.inputData(1L + Integer.MAX_VALUE, new HashMap<>()));
+        NormalDataTurboClient client = new NormalDataTurboClient(normalDataTurboBuilder.build());
+        client.load();
+        Assert.assertEquals("int-5", client.search(-5).getString("text1"));
+        Assert.assertEquals("int" + Integer.MIN_VALUE,
+                client.search(Integer.MIN_VALUE).getString("text1"));
+        Assert.assertNull(client.search(1L + Integer.MAX_VALUE));
+        Assert.assertNull(client.search(4));
+        client.close();
+    }
+
+    @Test
+    public void testSpline() throws Exception {
+        int testCount = 20000;
+        Random random = new Random(seed);
+        // 等间距 随机 分段密集 三种分布
+        long[][] distributions = new long[3][testCount];
+        long key = -1000L;
+        for (int i = 0; i < testCount; i++) {
+            key += 5 + random.nextInt(5);
+            distributions[0][i] = key;
+            distributions[1][i] = random.nextLong();
+            distributions[2][i] = (i / 1000) * 1000000000000L + random.nextInt(1000000) - i % 3;
+        }
+        for (int d = 0; d < distributions.length; d++) {
+            long[] keys = Arrays.stream(distributions[d]).distinct().sorted().toArray();
+            // 模型保证误差
+            RadixSpline.Builder builder = RadixSpline.builder(16);
+            for (int i = 0; i < keys.length; i++) {
+                builder.add(keys[i], i);
+            }
+            RadixSpline spline = builder.build();
+            for (int i = 0; i < keys.length; i++) {
+                Assert.assertTrue(Math.abs(spline.predict(keys[i]) - i) <= 16);
+            }
+            DataTurboDetail dataTurboDetail = new DataTurboDetail();
+            dataTurboDetail.setDataId("testNormal22-" + d);
+            dataTurboDetail.setKeyEnum(KeyEnum.LONG);
+            dataTurboDetail.setFields(new String[]{"text1"});
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_SPLINE_ERROR, "16");
+            NormalDataTurboBuilder normalDataTurboBuilder =
+                    new NormalDataTurboBuilder(dataTurboDetail);
+            for (long k : keys) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("text1", "value-" + k);
+                normalDataTurboBuilder.inputData(k, data);
+            }
+            DataTurboDetail dataTurboDetail1 = normalDataTurboBuilder.build();
+            for (LoadEnum loadEnum : new LoadEnum[]{LoadEnum.HEAP, LoadEnum.DISK}) {
+                for (String maxError : new String[]{"64", "0"}) {
+                    dataTurboDetail1.setLoadEnum(loadEnum);
+                    dataTurboDetail1.setProp(DataTurboConstants.CLIENT_CONFIG_SPLINE_MAX_ERROR, maxError);
+                    NormalDataTurboClient client = new NormalDataTurboClient(dataTurboDetail1);
+                    client.load();
+                    Assert.assertEquals(!"0".equals(maxError), client.isSplineEnabled());
+                    for (long k : keys) {
+                        DataTurboResult result = client.search(k);
+                        Assert.assertNotNull(String.valueOf(k), result);
+                        Assert.assertEquals("value-" + k, result.getString("text1"));
+                        if (Arrays.binarySearch(keys, k + 1) < 0 && k != Long.MAX_VALUE) {
+                            Assert.assertNull(client.search(k + 1));
+                        }
+                    }
+                    Assert.assertNull(client.search(keys[0] - 1));
+                    Assert.assertNull(client.search(keys[keys.length - 1] + 1));
+                    client.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHash() throws Exception {
+        int testCount = 20000;
+        Random random = new Random(seed);
+        // 最小完美hash是一个排列
+        long[] hashes = random.longs(testCount).distinct().toArray();
+        BBHash mphf = BBHash.build(hashes, 2);
+        boolean[] used = new boolean[hashes.length];
+        for (long hash : hashes) {
+            long slot = mphf.lookup(hash);
+            Assert.assertTrue(slot >= 0 && slot < hashes.length && !used[(int) slot]);
+            used[(int) slot] = true;
+        }
+        for (String bits : new String[]{"8", "0"}) {
+            DataTurboDetail dataTurboDetail = new DataTurboDetail();
+            dataTurboDetail.setDataId("testNormal23-" + bits);
+            dataTurboDetail.setDataFileEnum(DataFileEnum.HASH);
+            dataTurboDetail.setFields(new String[]{"text1", "text2"});
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_HASH_FINGERPRINT_BITS, bits);
+            AbstractDataTurboBuilder builder = DataTurboBuilderFactory.get(dataTurboDetail);
+            Assert.assertTrue(builder instanceof HashDataTurboBuilder);
+            for (int i = 0; i < testCount; i++) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("text1", "text-" + i);
+                data.put("text2", i % 3 == 0 ? "" : "中文-" + i);
+                Assert.assertTrue(builder.inputData(parseIntIp(i), data));
+            }
+            // 重复的key只保留第一条
+            Map<String, Object> duplicate = new HashMap<>();
+            duplicate.put("text1", "duplicate");
+            builder.inputData(parseIntIp(7), duplicate);
+            DataTurboDetail result = builder.build();
+            for (LoadEnum loadEnum : LoadEnum.values()) {
+                result.setLoadEnum(loadEnum);
+                AbstractDataTurboClient client = DataTurboClientFactory.get(result);
+                Assert.assertTrue(client instanceof HashDataTurboClient);
+                client.load();
+                Assert.assertEquals(testCount, ((HashDataTurboClient) client).getCount());
+                List<String> keys = new ArrayList<>();
+                for (int i = 0; i < testCount; i++) {
+                    DataTurboResult r = client.search(parseIntIp(i));
+                    Assert.assertNotNull(r);
+                    Assert.assertEquals(parseIntIp(i), r.getKey());
+                    Assert.assertEquals("text-" + i, r.getString("text1"));
+                    Assert.assertEquals(i % 3 == 0 ? "" : "中文-" + i, r.getString("text2"));
+                    Assert.assertNull(client.search(parseIntIp(i) + "!"));
+                    Assert.assertFalse(client.searchNameList(parseIntIp(i).substring(1)));
+                    if (i % 50 == 0) {
+                        keys.add(parseIntIp(i));
+                        keys.add(parseIntIp(i) + "!");
+                    }
+                }
+                checkBatch(client, keys);
+                client.close();
+            }
+        }
+        // 整数类型的key按十进制文本保存
+        DataTurboDetail dataTurboDetail = new DataTurboDetail();
+        dataTurboDetail.setDataId("testNormal24");
+        dataTurboDetail.setDataFileEnum(DataFileEnum.HASH);
+        dataTurboDetail.setKeyEnum(KeyEnum.INT);
+        dataTurboDetail.setFields(new String[]{"text1"});
+        AbstractDataTurboBuilder builder = DataTurboBuilderFactory.get(dataTurboDetail);
+        for (int i = -100; i < 100; i++) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("text1", "value" + i);
+            builder.inputData(i, data);
+        }
+        Assert.assertFalse(builder.inputData("x", new HashMap<>()));
+        Assert.assertFalse(builder.inputData(Long.MAX_VALUE, new HashMap<>()));
+        AbstractDataTurboClient client = DataTurboClientFactory.get(builder.build());
+        client.load();
+        Assert.assertEquals("value-5", client.search(-5).getString("text1"));
+        Assert.assertEquals("value7", client.search("+7").getString("text1"));
+        Assert.assertNull(client.search(100));
+        Assert.assertNull(client.search("x"));
+        client.close();
+    }
+
+    @Test
+    public void testResultCache() throws Exception {
+        int testCount = 1000;
+        Random random = new Random(seed);
+        DataTurboDetail dataTurboDetail = new DataTurboDetail();
+        dataTurboDetail.setLoadEnum(LoadEnum.HEAP);
+        dataTurboDetail.setDataId("testNormal11");
+        dataTurboDetail.setFields(new String[]{"text1"});
+        dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+        dataTurboDetail.setProp(DataTurboConstants.CLIENT_CONFIG_RESULT_CACHE_SIZE, "100");
+        NormalDataTurboBuilder normalDataTurboBuilder =
+                new NormalDataTurboBuilder(dataTurboDetail);
+        List<String> keys = new ArrayList<>();
+        Map<String, String> expect = new HashMap<>();
+        for (int i = 0; i < testCount; i++) {
+            Map<String, Object> data = new HashMap<>();
+            String s1 = getRandomString1(random);
+            String key = getRandomString(random);
+            data.put("text1", s1);
+            if (normalDataTurboBuilder.inputData(key, data)) {
+                keys.add(key);
+                expect.put(key, s1);
+            }
+        }
+        DataTurboDetail dataTurboDetail1 = normalDataTurboBuilder.build();
+        NormalDataTurboClient client = new NormalDataTurboClient(dataTurboDetail1);
+        client.load();
+        FrequencyCache<String, DataTurboResult> cache = client.getResultCache();
+        Assert.assertNotNull(cache);
+        // 前10个key是热点 其他key只访问一次
+        for (int i = 0; i < 10000; i++) {
+            String key = i % 2 == 0 ? keys.get(i / 2 % 10) :
+                    keys.get(random.nextInt(keys.size()));
+            Assert.assertEquals(expect.get(key), client.search(key).getString("text1"));
+        }
+        Assert.assertTrue(cache.size() <= cache.getCapacity());
+        long hit = cache.getHitCount();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(expect.get(keys.get(i)), client.search(keys.get(i)).getString(
+                    "text1"));
+        }
+        Assert.assertEquals(hit + 10, cache.getHitCount());
+        // 查询不到的结果也会被缓存 访问几次之后才会被准入
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNull(client.search("not exist key"));
+        }
+        hit = cache.getHitCount();
+        Assert.assertNull(client.search("not exist key"));
+        Assert.assertEquals(hit + 1, cache.getHitCount());
+        // 重新加载之后缓存会被清空
+        client.reload(dataTurboDetail1);
+        Assert.assertEquals(0, client.getResultCache().size());
+
+        // 添加补丁之后缓存会被清空 并且能查到补丁中的数据
+        PatchDataTurboClient patchClient = new PatchDataTurboClient(client);
+        patchClient.load();
+        String patchKey = keys.get(0);
+        Assert.assertEquals(expect.get(patchKey), patchClient.search(patchKey).getString("text1"));
+        DataTurboDetail patchDetail = new DataTurboDetail();
+        patchDetail.setLoadEnum(LoadEnum.HEAP);
+        patchDetail.setDataFileEnum(DataFileEnum.NORMAL);
+        patchDetail.setDataId("testNormal11Patch");
+        patchDetail.setFields(new String[]{"text1"});
+        patchDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+        NormalDataTurboBuilder patchBuilder = new NormalDataTurboBuilder(patchDetail);
+        Map<String, Object> data = new HashMap<>();
+        data.put("text1", "patched");
+        patchBuilder.inputData(patchKey, data);
+        patchClient.addPatch(patchBuilder.build());
+        Assert.assertEquals("patched", patchClient.search(patchKey).getString("text1"));
+        patchClient.close();
+    }
+
+    @Test
+    public void testBloomFilter() throws Exception {
+        int testCount = 10000;
+        for (String fpp : new String[]{"0.01", "0"}) {
+            Random random = new Random(seed);
+            DataTurboDetail dataTurboDetail = new DataTurboDetail();
+            dataTurboDetail.setLoadEnum(LoadEnum.DISK);
+            dataTurboDetail.setDataId("testNormal12");
+            dataTurboDetail.setFields(new String[]{"text1"});
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_BLOOM_FPP, fpp);
+            NormalDataTurboBuilder normalDataTurboBuilder =
+                    new NormalDataTurboBuilder(dataTurboDetail);
+            Map<String, String> expect = new HashMap<>();
+            for (int i = 0; i < testCount; i++) {
+                Map<String, Object> data = new HashMap<>();
+                String s1 = getRandomString1(random);
+                String key = getRandomString(random);
+                data.put("text1", s1);
+                if (normalDataTurboBuilder.inputData(key, data)) {
+                    expect.put(key, s1);
+                }
+            }
+            DataTurboDetail dataTurboDetail1 = normalDataTurboBuilder.build();
+            try (FileInputStream in = new FileInputStream(dataTurboDetail1.getDataFile())) {
+                Assert.assertEquals(Double.parseDouble(fpp) > 0,
+                        NormalFileHeader.readFrom(in).hasExtensionBlock(NormalBlockEnum.BLOOM));
+            }
+            NormalDataTurboClient client = new NormalDataTurboClient(dataTurboDetail1);
+            client.load();
+            for (Map.Entry<String, String> entry : expect.entrySet()) {
+                Assert.assertEquals(entry.getValue(), client.search(entry.getKey()).getString(
+                        "text1"));
+            }
+            List<String> missKeys = new ArrayList<>();
+            for (int i = 0; i < 10000; i++) {
+                String key = getRandomString1(random);
+                missKeys.add(key);
+                Assert.assertNull(client.search(key));
+                Assert.assertFalse(client.searchNameList(key));
+            }
+            missKeys.addAll(expect.keySet());
+            Assert.assertEquals(expect.size(), client.searchBatch(missKeys).size());
+            client.close();
+        }
+    }
+
+    @Test
+    public void testSearchAsync() throws Exception {
+        int testCount = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (LoadEnum loadEnum : new LoadEnum[]{LoadEnum.DISK, LoadEnum.HEAP}) {
+            Random random = new Random(seed);
+            DataTurboDetail dataTurboDetail = new DataTurboDetail();
+            dataTurboDetail.setLoadEnum(loadEnum);
+            dataTurboDetail.setDataId("testNormal13");
+            dataTurboDetail.setFields(new String[]{"text1"});
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+            NormalDataTurboBuilder normalDataTurboBuilder =
+                    new NormalDataTurboBuilder(dataTurboDetail);
+            Map<String, String> expect = new HashMap<>();
+            for (int i = 0; i < testCount; i++) {
+                Map<String, Object> data = new HashMap<>();
+                // 部分记录比一次探测读取的长度更长
+                String s1 = i % 10 == 0 ? getRandomString2(random) : getRandomString1(random);
+                String key = getRandomString(random);
+                data.put("text1", s1);
+                if (normalDataTurboBuilder.inputData(key, data)) {
+                    expect.put(key, s1);
+                }
+            }
+            DataTurboDetail dataTurboDetail1 = normalDataTurboBuilder.build();
+            NormalDataTurboClient client = new NormalDataTurboClient(dataTurboDetail1);
+            client.load();
+            List<CompletableFuture<DataTurboResult>> futures = new ArrayList<>();
+            List<String> keys = new ArrayList<>(expect.keySet());
+            for (String key : keys) {
+                futures.add(client.searchAsync(key, executor));
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                DataTurboResult result = futures.get(i).get();
+                Assert.assertNotNull(result);
+                Assert.assertEquals(keys.get(i), result.getKey());
+                Assert.assertEquals(expect.get(keys.get(i)), result.getString("text1"));
+            }
+            List<String> missKeys = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                String key = getRandomString1(random);
+                missKeys.add(key);
+                Assert.assertNull(client.searchAsync(key, executor).get());
+            }
+            missKeys.addAll(keys);
+            Map<String, DataTurboResult> batch = client.searchBatchAsync(missKeys, executor).get();
+            Assert.assertEquals(expect.size(), batch.size());
+            for (Map.Entry<String, DataTurboResult> entry : batch.entrySet()) {
+                Assert.assertEquals(expect.get(entry.getKey()), entry.getValue().getString("text1"));
+            }
+            PatchDataTurboClient patchClient = new PatchDataTurboClient(client);
+            Assert.assertEquals(expect.get(keys.get(0)),
+                    patchClient.searchAsync(keys.get(0), executor).get().getString("text1"));
+            client.close();
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSparseIndex() {
+        // 包含增补字符和 U+E000 之后的字符 检查顺序和TreeMap一致
+        String chars = "aZ0收\uE000\uFFFD\uD83D\uDE00\uD840\uDC00";
+        Random random = new Random(seed);
+        TreeMap<String, Long> treeMap = new TreeMap<>();
+        for (int i = 0; i < 5000; i++) {
+            treeMap.put(getRandomCodePoints(random, chars), (long) i);
+        }
+        SparseIndex.Builder builder = SparseIndex.builder();
+        treeMap.forEach(builder::add);
+        SparseIndex sparseIndex = builder.build();
+        Assert.assertEquals(treeMap.size(), sparseIndex.size());
+        for (int i = 0; i < 5000; i++) {
+            String key = getRandomCodePoints(random, chars);
+            Assert.assertEquals(treeMap.floorEntry(key), sparseIndex.floorEntry(key));
+            Assert.assertEquals(treeMap.ceilingEntry(key), sparseIndex.ceilingEntry(key));
+        }
+        for (Map.Entry<String, Long> entry : treeMap.entrySet()) {
+            Assert.assertEquals(entry, sparseIndex.floorEntry(entry.getKey()));
+            Assert.assertEquals(entry, sparseIndex.ceilingEntry(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testByteKeyComparator() throws Exception {
+        String chars = "aZ0收\uE000\uFFFD\uD83D\uDE00\uD840\uDC00";
+        Random random = new Random(seed);
+        // 字节比较和字符串比较的结果一致
+        for (IKeyComparator comparator : new IKeyComparator[]{new StringKeyComparator(),
+                new ByteKeyComparator()}) {
+            for (int i = 0; i < 5000; i++) {
+                String key1 = getRandomCodePoints(random, chars);
+                String key2 = getRandomCodePoints(random, chars);
+                byte[] bytes1 = key1.getBytes(StandardCharsets.UTF_8);
+                byte[] bytes2 = key2.getBytes(StandardCharsets.UTF_8);
+                int expect = Integer.signum(comparator.compare(key1, key2));
+                Assert.assertEquals(expect, Integer.signum(comparator.compareBytes(bytes1, 0,
+                        bytes1.length, bytes2, 0, bytes2.length)));
+                Assert.assertEquals(expect, Integer.signum(comparator.compareBytes(
+                        ByteBuffer.wrap(bytes1), 0, bytes1.length, bytes2)));
+            }
+        }
+        // v3版本按String排序 v4版本按字节序排序 两种版本都能查询到所有的key
+        for (int version : new int[]{NormalFileHeader.VERSION_3, NormalFileHeader.VERSION_4}) {
+            DataTurboDetail dataTurboDetail = new DataTurboDetail();
+            dataTurboDetail.setLoadEnum(LoadEnum.DISK);
+            dataTurboDetail.setDataId("testNormal14");
+            dataTurboDetail.setFields(new String[]{"text1"});
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_INDEX_COUNT, "64");
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_VERSION,
+                    String.valueOf(version));
+            IKeyComparator comparator = version >= NormalFileHeader.VERSION_4 ?
+                    new ByteKeyComparator() : new StringKeyComparator();
+            TreeMap<String, String> expect = new TreeMap<>(comparator::compare);
+            NormalDataTurboBuilder normalDataTurboBuilder =
+                    new NormalDataTurboBuilder(dataTurboDetail);
+            for (int i = 0; i < 5000; i++) {
+                String key = getRandomCodePoints(random, chars);
+                if (expect.containsKey(key)) {
+                    continue;
+                }
+                Map<String, Object> data = new HashMap<>();
+                data.put("text1", String.valueOf(i));
+                normalDataTurboBuilder.inputData(key, data);
+                expect.put(key, String.valueOf(i));
+            }
+            NormalDataTurboClient client =
+                    new NormalDataTurboClient(normalDataTurboBuilder.build());
+            client.load();
+            Assert.assertEquals(comparator.getClass(), client.getComparator().getClass());
+            checkScan(expect, client.scan(null, null));
+            for (Map.Entry<String, String> entry : expect.entrySet()) {
+                DataTurboResult result = client.search(entry.getKey());
+                Assert.assertNotNull(entry.getKey(), result);
+                Assert.assertEquals(entry.getValue(), result.getString("text1"));
+                Assert.assertEquals(entry.getValue(),
+                        client.searchAsync(entry.getKey()).get().getString("text1"));
+            }
+            for (int i = 0; i < 1000; i++) {
+                String key = getRandomCodePoints(random, chars) + "\uD83D\uDE00";
+                Assert.assertEquals(expect.containsKey(key), client.search(key) != null);
+            }
+            client.close();
+        }
+    }
+
+    @Test
+    public void testOverrideComparator() throws Exception {
+        int testCount = 1000;
+        IKeyComparator rangeComparator = new RangeKeyComparator();
+        DataTurboDetail dataTurboDetail = new DataTurboDetail();
+        dataTurboDetail.setDataId("testNormal29");
+        dataTurboDetail.setFields(new String[]{"text1"});
+        NormalDataTurboBuilder builder = new NormalDataTurboBuilder(dataTurboDetail);
+        for (int i = 0; i < testCount; i++) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("text1", "range-" + i);
+            builder.inputData(String.format("%07d-%07d", i * 100, i * 100 + 99), data);
+        }
+        DataTurboDetail dataTurboDetail1 = builder.build();
+        for (LoadEnum loadEnum : new LoadEnum[]{LoadEnum.HEAP, LoadEnum.DISK}) {
+            dataTurboDetail1.setLoadEnum(loadEnum);
+            // 存储的是区间 查询的是区间中的一个点
+            NormalDataTurboClient client = new NormalDataTurboClient(dataTurboDetail1) {
+                @Override
+                public IKeyComparator getComparator() {
+                    return rangeComparator;
+                }
+            };
+            client.load();
+            for (int i = 0; i < testCount; i += 7) {
+                DataTurboResult result = client.search(String.format("%07d", i * 100 + 37));
+                Assert.assertNotNull(result);
+                Assert.assertEquals("range-" + i, result.getString("text1"));
+            }
+            Assert.assertNull(client.search(String.format("%07d", testCount * 100)));
+            client.close();
+        }
+    }
+
+    /**
+     * 区间key的比较器 区间的格式为 开始-结束 点落在区间中时相等
+     */
+    private static class RangeKeyComparator implements IKeyComparator {
+
+        @Override
+        public int compare(String key1, String key2) {
+            boolean range1 = key1.indexOf('-') >= 0;
+            boolean range2 = key2.indexOf('-') >= 0;
+            if (range1 == range2) {
+                return key1.compareTo(key2);
+            }
+            if (range1) {
+                return -compare(key2, key1);
+            }
+            int split = key2.indexOf('-');
+            if (key1.compareTo(key2.substring(0, split)) < 0) {
+                return -1;
+            }
+            return key1.compareTo(key2.substring(split + 1)) > 0 ? 1 : 0;
+        }
+    }
+
+    @Test
+    public void testSearchAllocation() throws Exception {
+        int testCount = 10000;
+        for (LoadEnum loadEnum : new LoadEnum[]{LoadEnum.HEAP, LoadEnum.MMAP}) {
+            Random random = new Random(seed);
+            DataTurboDetail dataTurboDetail = new DataTurboDetail();
+            dataTurboDetail.setLoadEnum(loadEnum);
+            dataTurboDetail.setDataId("testNormal15");
+            dataTurboDetail.setFields(new String[]{"text1", "num"});
+            dataTurboDetail.setProp(DataTurboConstants.BUILDER_CONFIG_NORMAL_WRITE_TIME, "false");
+            NormalDataTurboBuilder normalDataTurboBuilder =
+                    new NormalDataTurboBuilder(dataTurboDetail);
+            for (int i = 0; i < testCount; i++) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("text1", getRandomString1(random));
+                data.put("num", i);
+                normalDataTurboBuilder.inputData(parseIntIp(i * 2), data);
+            }
+            NormalDataTurboClient client =
+                    new NormalDataTurboClient(normalDataTurboBuilder.build());
+            client.load();
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < testCount * 2; i++) {
+                keys.add(parseIntIp(i));
+            }
+            DataTurboResultHolder holder = new DataTurboResultHolder();
+            // holder和普通查询的结果一致
+            for (String key : keys) {
+                DataTurboResult expect = client.search(key);
+                Assert.assertEquals(expect != null, client.search(key, holder));
+                if (expect != null) {
+                    Assert.assertEquals(expect.getKey(), holder.getKey());
+                    Assert.assertEquals(expect.getData(), holder.toResult().getData());
+                    Assert.assertEquals(expect.getLong("num").longValue(), holder.getLong("num", -1));
+                }
+            }
+            // 预热之后 每次查询平均分配的字节数要在预算之内
+            com.sun.management.ThreadMXBean threadMXBean =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long threadId = Thread.currentThread().getId();
+            long sum = 0;
+            for (int round = 0; round < 5; round++) {
+                for (String key : keys) {
+                    sum += client.search(key, holder) ? holder.getLong("num", 0) : 0;
+                }
+            }
+            long before = threadMXBean.getThreadAllocatedBytes(threadId);
+            for (int round = 0; round < 5; round++) {
+                for (String key : keys) {
+                    sum += client.search(key, holder) ? holder.getLong("num", 0) : 0;
+                }
+            }
+            long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+            long perLookup = allocated / (5L * keys.size());
+            Assert.assertTrue(loadEnum + " allocated " + perLookup + " bytes per lookup",
+                    perLookup <= 8);
+            Assert.assertTrue(sum > 0);
+            client.close();
+        }
+    }
+
+    private static String getRandomCodePoints(Random random, String chars) {
+        int[] codePoints = chars.codePoints().toArray();
+        StringBuilder sb = new StringBuilder();
+        int length = 1 + random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            sb.appendCodePoint(codePoints[random.nextInt(codePoints.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static void checkScan(Map<String, String> expect, Iterator<DataTurboResult> iterator) {
+        for (Map.Entry<String, String> entry : expect.entrySet()) {
+            Assert.assertTrue(iterator.hasNext());
+            DataTurboResult result = iterator.next();
+            Assert.assertEquals(entry.getKey(), result.getKey());
+            Assert.assertEquals(entry.getValue(), result.getString("text1"));
+        }
+        Assert.assertFalse(iterator.hasNext());
+    }
 }